@@ -34,15 +34,14 @@ import com.dropbox.client2.session.AppKeyPair;
 import com.groundupworks.wings.WingsEndpoint;
 import com.groundupworks.wings.core.Destination;
 import com.groundupworks.wings.core.ShareRequest;
+import com.groundupworks.wings.core.UploadDispatcher;
+import com.groundupworks.wings.core.UploadResult;
 import com.squareup.otto.Produce;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
 
 /**
  * The Wings endpoint for Dropbox.
@@ -56,6 +55,11 @@ public class DropboxEndpoint extends WingsEndpoint {
      */
     private static final int ENDPOINT_ID = 1;
 
+    /**
+     * The maximum number of files uploaded at the same time. Dropbox accepts files in any order.
+     */
+    private static final int MAX_CONCURRENT_UPLOADS = 3;
+
     /**
      * A lock object used to synchronize access on {@link #mDropboxApi}.
      */
@@ -66,6 +70,11 @@ public class DropboxEndpoint extends WingsEndpoint {
      */
     private DropboxAPI<AndroidAuthSession> mDropboxApi = null;
 
+    /**
+     * The Dropbox API opened by {@link #prepareUploads(Destination)} for the uploads of a pass.
+     */
+    private volatile DropboxAPI<AndroidAuthSession> mUploadDropboxApi = null;
+
     /**
      * Flag to track if a link request is started.
      */
@@ -336,7 +345,7 @@ public class DropboxEndpoint extends WingsEndpoint {
 
             @Override
             public void run() {
-                mDatabase.deleteShareRequests(new Destination(DestinationId.APP_FOLDER, ENDPOINT_ID));
+                mDatabase.deleteEndpointShareRequests(ENDPOINT_ID);
             }
         });
     }
@@ -377,74 +386,68 @@ public class DropboxEndpoint extends WingsEndpoint {
     }
 
     @Override
-    public Set<ShareNotification> processShareRequests() {
-        Set<ShareNotification> notifications = new HashSet<ShareNotification>();
+    protected int getMaxConcurrentUploads() {
+        return MAX_CONCURRENT_UPLOADS;
+    }
 
-        // Get access token associated with the linked account.
+    @Override
+    protected boolean prepareUploads(Destination destination) {
+        // Start new session with the persisted access token.
         String accessToken = getLinkedAccessToken();
-        String shareUrl = getLinkedShareUrl();
-        if (accessToken != null && shareUrl != null) {
-            // Get share requests for Dropbox.
-            Destination destination = new Destination(DestinationId.APP_FOLDER, ENDPOINT_ID);
-            List<ShareRequest> shareRequests = mDatabase.checkoutShareRequests(destination);
-            int shared = 0;
-
-            if (!shareRequests.isEmpty()) {
-                // Start new session with the persisted access token.
-                AppKeyPair appKeys = new AppKeyPair(mContext.getString(R.string.wings_dropbox__app_key),
-                        mContext.getString(R.string.wings_dropbox__app_secret));
-                AndroidAuthSession session = new AndroidAuthSession(appKeys);
-                session.setOAuth2AccessToken(accessToken);
-                DropboxAPI<AndroidAuthSession> dropboxApi = new DropboxAPI<AndroidAuthSession>(session);
-
-                // Process share requests.
-                for (ShareRequest shareRequest : shareRequests) {
-                    File file = new File(shareRequest.getFilePath());
-                    FileInputStream inputStream = null;
-                    try {
-                        inputStream = new FileInputStream(file);
-
-                        // Upload file.
-                        dropboxApi.putFile("/" + mContext.getString(R.string.wings_dropbox__photo_folder) + "/" + file.getName(), inputStream, file.length(), null,
-                                null);
-
-                        // Mark as successfully processed.
-                        mDatabase.markSuccessful(shareRequest.getId());
-
-                        shared++;
-                    } catch (DropboxUnlinkedException e) {
-                        mDatabase.markFailed(shareRequest.getId());
-
-                        // Update account linking state to unlinked.
-                        unlink();
-                    } catch (DropboxException e) {
-                        mDatabase.markFailed(shareRequest.getId());
-                    } catch (IllegalArgumentException e) {
-                        mDatabase.markFailed(shareRequest.getId());
-                    } catch (FileNotFoundException e) {
-                        mDatabase.markFailed(shareRequest.getId());
-                    } catch (Exception e) {
-                        // Safety.
-                        mDatabase.markFailed(shareRequest.getId());
-                    } finally {
-                        if (inputStream != null) {
-                            try {
-                                inputStream.close();
-                            } catch (IOException e) {
-                                // Do nothing.
-                            }
-                        }
-                    }
-                }
-            }
+        if (accessToken == null) {
+            return false;
+        }
+
+        AppKeyPair appKeys = new AppKeyPair(mContext.getString(R.string.wings_dropbox__app_key),
+                mContext.getString(R.string.wings_dropbox__app_secret));
+        AndroidAuthSession session = new AndroidAuthSession(appKeys);
+        session.setOAuth2AccessToken(accessToken);
+        mUploadDropboxApi = new DropboxAPI<AndroidAuthSession>(session);
+        return true;
+    }
 
-            // Construct and add notification representing share results.
-            if (shared > 0) {
-                notifications.add(new DropboxShareNotification(mContext, destination.getHash(), shareUrl, shared, shareUrl));
+    @Override
+    public UploadResult uploadShareRequest(ShareRequest shareRequest) {
+        UploadResult result = UploadResult.transientFailure();
+        File file = new File(shareRequest.getFilePath());
+        FileInputStream inputStream = null;
+        try {
+            inputStream = new FileInputStream(file);
+
+            // Upload file.
+            mUploadDropboxApi.putFile("/" + mContext.getString(R.string.wings_dropbox__photo_folder) + "/" + file.getName(), inputStream, file.length(), null,
+                    null);
+            result = UploadResult.success(null);
+        } catch (DropboxUnlinkedException e) {
+            result = UploadResult.authFailure();
+
+            // Update account linking state to unlinked.
+            unlink();
+        } catch (DropboxException e) {
+            // Do nothing.
+        } catch (IllegalArgumentException e) {
+            // Do nothing.
+        } catch (FileNotFoundException e) {
+            // The file will not come back.
+            result = UploadResult.permanentFailure();
+        } catch (Exception e) {
+            // Safety.
+        } finally {
+            if (inputStream != null) {
+                try {
+                    inputStream.close();
+                } catch (IOException e) {
+                    // Do nothing.
+                }
             }
         }
+        return result;
+    }
 
-        return notifications;
+    @Override
+    protected ShareNotification createShareNotification(Destination destination, UploadDispatcher.Summary summary) {
+        String shareUrl = getLinkedShareUrl();
+        return new DropboxShareNotification(mContext, destination.getHash(), shareUrl, summary.getSharedCount(), shareUrl);
     }
 
     @Override
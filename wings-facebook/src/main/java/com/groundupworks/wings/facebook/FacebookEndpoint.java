@@ -46,6 +46,8 @@ import com.facebook.model.GraphObject;
 import com.groundupworks.wings.WingsEndpoint;
 import com.groundupworks.wings.core.Destination;
 import com.groundupworks.wings.core.ShareRequest;
+import com.groundupworks.wings.core.UploadDispatcher;
+import com.groundupworks.wings.core.UploadResult;
 import com.squareup.otto.Produce;
 
 import org.json.JSONObject;
@@ -54,10 +56,8 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Set;
 
 /**
  * The Wings endpoint for Facebook.
@@ -296,6 +296,16 @@ public class FacebookEndpoint extends WingsEndpoint {
      */
     private volatile int mLinkRequestState = STATE_NONE;
 
+    /**
+     * The link settings fetched by {@link #prepareUploads(Destination)} for the uploads of a pass.
+     */
+    private volatile FacebookSettings mUploadSettings = null;
+
+    /**
+     * The session opened by {@link #prepareUploads(Destination)} for the uploads of a pass.
+     */
+    private volatile Session mUploadSession = null;
+
     //
     // Private methods.
     //
@@ -756,9 +766,7 @@ public class FacebookEndpoint extends WingsEndpoint {
 
             @Override
             public void run() {
-                mDatabase.deleteShareRequests(new Destination(DestinationId.PROFILE, ENDPOINT_ID));
-                mDatabase.deleteShareRequests(new Destination(DestinationId.PAGE, ENDPOINT_ID));
-                mDatabase.deleteShareRequests(new Destination(DestinationId.PAGE_ALBUM, ENDPOINT_ID));
+                mDatabase.deleteEndpointShareRequests(ENDPOINT_ID);
             }
         });
     }
@@ -874,117 +882,103 @@ public class FacebookEndpoint extends WingsEndpoint {
     }
 
     @Override
-    public Set<ShareNotification> processShareRequests() {
-        Set<ShareNotification> notifications = new HashSet<ShareNotification>();
-
+    protected boolean prepareUploads(Destination destination) {
         // Get params associated with the linked account.
         FacebookSettings settings = fetchSettings();
-        if (settings != null) {
-            // Get share requests for Facebook.
-            int destinationId = settings.getDestinationId();
-            Destination destination = new Destination(destinationId, ENDPOINT_ID);
-            List<ShareRequest> shareRequests = mDatabase.checkoutShareRequests(destination);
-            int shared = 0;
-            String intentUri = null;
-
-            if (!shareRequests.isEmpty()) {
-                // Try open session with cached access token.
-                Session session = Session.openActiveSessionFromCache(mContext);
-                if (session != null && session.isOpened()) {
-                    // Process share requests.
-                    for (ShareRequest shareRequest : shareRequests) {
-                        File file = new File(shareRequest.getFilePath());
-                        ParcelFileDescriptor fileDescriptor = null;
-                        try {
-                            // Construct graph params.
-                            fileDescriptor = ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
-                            Bundle params = new Bundle();
-                            params.putParcelable(SHARE_KEY_PICTURE, fileDescriptor);
-
-                            String pageAccessToken = settings.optPageAccessToken();
-                            if ((DestinationId.PAGE == destinationId || DestinationId.PAGE_ALBUM == destinationId)
-                                    && !TextUtils.isEmpty(pageAccessToken)) {
-                                params.putString(SHARE_KEY_PAGE_ACCESS_TOKEN, pageAccessToken);
-                            }
-
-                            String photoPrivacy = settings.optPhotoPrivacy();
-                            if (!TextUtils.isEmpty(photoPrivacy)) {
-                                params.putString(SHARE_KEY_PHOTO_PRIVACY, photoPrivacy);
-                            }
-
-                            // Execute upload request synchronously. Need to use RequestBatch to set connection timeout.
-                            Request request = new Request(session, settings.getAlbumGraphPath(), params, HttpMethod.POST, null);
-                            RequestBatch requestBatch = new RequestBatch(request);
-                            requestBatch.setTimeout(HTTP_REQUEST_TIMEOUT);
-                            List<Response> responses = requestBatch.executeAndWait();
-                            if (responses != null && !responses.isEmpty()) {
-                                // Process response.
-                                Response response = responses.get(0);
-                                if (response != null) {
-                                    FacebookRequestError error = response.getError();
-                                    if (error == null) {
-                                        // Mark as successfully processed.
-                                        mDatabase.markSuccessful(shareRequest.getId());
-
-                                        // Parse photo id to construct notification intent uri.
-                                        if (intentUri == null) {
-                                            String photoId = parsePhotoId(response.getGraphObject());
-                                            if (photoId != null && photoId.length() > 0) {
-                                                intentUri = SHARE_NOTIFICATION_INTENT_BASE_URI + photoId;
-                                            }
-                                        }
-
-                                        shared++;
-                                    } else {
-                                        mDatabase.markFailed(shareRequest.getId());
-
-                                        Category category = error.getCategory();
-                                        if (Category.AUTHENTICATION_RETRY.equals(category)
-                                                || Category.PERMISSION.equals(category)) {
-                                            // Update account linking state to unlinked.
-                                            unlink();
-                                        }
-                                    }
-                                } else {
-                                    mDatabase.markFailed(shareRequest.getId());
-                                }
-                            } else {
-                                mDatabase.markFailed(shareRequest.getId());
-                            }
-                        } catch (FacebookException e) {
-                            mDatabase.markFailed(shareRequest.getId());
-                        } catch (IllegalArgumentException e) {
-                            mDatabase.markFailed(shareRequest.getId());
-                        } catch (FileNotFoundException e) {
-                            mDatabase.markFailed(shareRequest.getId());
-                        } catch (Exception e) {
-                            // Safety.
-                            mDatabase.markFailed(shareRequest.getId());
-                        } finally {
-                            if (fileDescriptor != null) {
-                                try {
-                                    fileDescriptor.close();
-                                } catch (IOException e) {
-                                    // Do nothing.
-                                }
-                            }
+        if (settings == null) {
+            return false;
+        }
+
+        // Try open session with cached access token.
+        Session session = Session.openActiveSessionFromCache(mContext);
+        if (session == null || !session.isOpened()) {
+            return false;
+        }
+
+        mUploadSettings = settings;
+        mUploadSession = session;
+        return true;
+    }
+
+    @Override
+    public UploadResult uploadShareRequest(ShareRequest shareRequest) {
+        UploadResult result = UploadResult.transientFailure();
+        FacebookSettings settings = mUploadSettings;
+        int destinationId = settings.getDestinationId();
+        File file = new File(shareRequest.getFilePath());
+        ParcelFileDescriptor fileDescriptor = null;
+        try {
+            // Construct graph params.
+            fileDescriptor = ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+            Bundle params = new Bundle();
+            params.putParcelable(SHARE_KEY_PICTURE, fileDescriptor);
+
+            String pageAccessToken = settings.optPageAccessToken();
+            if ((DestinationId.PAGE == destinationId || DestinationId.PAGE_ALBUM == destinationId)
+                    && !TextUtils.isEmpty(pageAccessToken)) {
+                params.putString(SHARE_KEY_PAGE_ACCESS_TOKEN, pageAccessToken);
+            }
+
+            String photoPrivacy = settings.optPhotoPrivacy();
+            if (!TextUtils.isEmpty(photoPrivacy)) {
+                params.putString(SHARE_KEY_PHOTO_PRIVACY, photoPrivacy);
+            }
+
+            // Execute upload request synchronously. Need to use RequestBatch to set connection timeout.
+            Request request = new Request(mUploadSession, settings.getAlbumGraphPath(), params, HttpMethod.POST, null);
+            RequestBatch requestBatch = new RequestBatch(request);
+            requestBatch.setTimeout(HTTP_REQUEST_TIMEOUT);
+            List<Response> responses = requestBatch.executeAndWait();
+            if (responses != null && !responses.isEmpty()) {
+                // Process response.
+                Response response = responses.get(0);
+                if (response != null) {
+                    FacebookRequestError error = response.getError();
+                    if (error == null) {
+                        // Parse photo id to construct notification intent uri.
+                        result = UploadResult.success(parsePhotoId(response.getGraphObject()));
+                    } else {
+                        Category category = error.getCategory();
+                        if (Category.AUTHENTICATION_RETRY.equals(category)
+                                || Category.PERMISSION.equals(category)) {
+                            result = UploadResult.authFailure();
+
+                            // Update account linking state to unlinked.
+                            unlink();
                         }
                     }
-                } else {
-                    // Mark all share requests as failed to process since we failed to open an active session.
-                    for (ShareRequest shareRequest : shareRequests) {
-                        mDatabase.markFailed(shareRequest.getId());
-                    }
                 }
             }
-
-            // Construct and add notification representing share results.
-            if (shared > 0) {
-                notifications.add(new FacebookShareNotification(mContext, destination.getHash(), settings.getAlbumName(), shared, intentUri));
+        } catch (FacebookException e) {
+            // Do nothing.
+        } catch (IllegalArgumentException e) {
+            // Do nothing.
+        } catch (FileNotFoundException e) {
+            // The file will not come back.
+            result = UploadResult.permanentFailure();
+        } catch (Exception e) {
+            // Safety.
+        } finally {
+            if (fileDescriptor != null) {
+                try {
+                    fileDescriptor.close();
+                } catch (IOException e) {
+                    // Do nothing.
+                }
             }
         }
+        return result;
+    }
 
-        return notifications;
+    @Override
+    protected ShareNotification createShareNotification(Destination destination, UploadDispatcher.Summary summary) {
+        String photoId = summary.getRemoteId();
+        String intentUri = null;
+        if (photoId != null && photoId.length() > 0) {
+            intentUri = SHARE_NOTIFICATION_INTENT_BASE_URI + photoId;
+        }
+        return new FacebookShareNotification(mContext, destination.getHash(), mUploadSettings.getAlbumName(),
+                summary.getSharedCount(), intentUri);
     }
 
     @Override
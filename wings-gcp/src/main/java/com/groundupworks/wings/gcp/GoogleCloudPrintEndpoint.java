@@ -29,6 +29,8 @@ import com.groundupworks.android.print.GoogleCloudPrint;
 import com.groundupworks.wings.WingsEndpoint;
 import com.groundupworks.wings.core.Destination;
 import com.groundupworks.wings.core.ShareRequest;
+import com.groundupworks.wings.core.UploadDispatcher;
+import com.groundupworks.wings.core.UploadResult;
 import com.jayway.jsonpath.JsonPath;
 import com.squareup.otto.Produce;
 
@@ -36,10 +38,7 @@ import java.io.File;
 import java.io.IOException;
 import java.net.HttpURLConnection;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.List;
 import java.util.NoSuchElementException;
-import java.util.Set;
 
 import retrofit.client.Response;
 import retrofit.mime.TypedFile;
@@ -94,6 +93,25 @@ public class GoogleCloudPrintEndpoint extends WingsEndpoint {
 
     private final GoogleCloudPrint mGoogleCloudPrint = new GoogleCloudPrint();
 
+    /**
+     * The access token read by {@link #prepareUploads(Destination)} for the uploads of a pass.
+     */
+    private volatile String mUploadToken = null;
+
+    /**
+     * The printer identifier read by {@link #prepareUploads(Destination)} for the uploads of a pass.
+     */
+    private volatile String mUploadPrinterIdentifier = null;
+
+    /**
+     * The print ticket built by {@link #prepareUploads(Destination)} for the uploads of a pass.
+     */
+    private volatile String mUploadTicket = null;
+
+    //
+    // Public methods.
+    //
+
     @Override
     public int getEndpointId() {
         return ENDPOINT_ID;
@@ -130,7 +148,7 @@ public class GoogleCloudPrintEndpoint extends WingsEndpoint {
 
             @Override
             public void run() {
-                mDatabase.deleteShareRequests(new Destination(DestinationId.PRINT_QUEUE, ENDPOINT_ID));
+                mDatabase.deleteEndpointShareRequests(ENDPOINT_ID);
             }
         });
     }
@@ -201,11 +219,8 @@ public class GoogleCloudPrintEndpoint extends WingsEndpoint {
     }
 
     @Override
-    public Set<ShareNotification> processShareRequests() {
-        final Set<ShareNotification> notifications = new HashSet<ShareNotification>();
+    protected boolean prepareUploads(Destination destination) {
         SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(mContext);
-        int shareCount = 0;
-
         final boolean isLinked = preferences.getBoolean(mContext.getString(R.string.wings_gcp__link_key), false);
         final String accountName = preferences.getString(mContext.getString(R.string.wings_gcp__account_name_key), null);
         final String printerIdentifier = preferences.getString(mContext.getString(R.string.wings_gcp__printer_identifier_key), null);
@@ -215,102 +230,105 @@ public class GoogleCloudPrintEndpoint extends WingsEndpoint {
         final String mediaWidthMicrons = preferences.getString(mContext.getString(R.string.wings_gcp__media_width_microns), null);
         final String mediaHeightMicrons = preferences.getString(mContext.getString(R.string.wings_gcp__media_height_microns), null);
         final String mediaIsContinuousFeed = preferences.getString(mContext.getString(R.string.wings_gcp__media_is_continuous_feed), null);
-        if (isLinked && !TextUtils.isEmpty(accountName) && !TextUtils.isEmpty(printerIdentifier) &&
-                !TextUtils.isEmpty(token)) {
-            final String ticket = !TextUtils.isEmpty(mediaVendorId)
-                    ? String.format(TICKET_WITH_MEDIA, copies, mediaVendorId, mediaWidthMicrons, mediaHeightMicrons, mediaIsContinuousFeed)
-                    : String.format(TICKET, copies);
-            final Destination destination = new Destination(DestinationId.PRINT_QUEUE, ENDPOINT_ID);
-            List<ShareRequest> shareRequests = mDatabase.checkoutShareRequests(destination);
-            for (ShareRequest shareRequest : shareRequests) {
-                File file = new File(shareRequest.getFilePath());
-                if (file.exists()) {
-                    try {
-                        Response response = mGoogleCloudPrint.submitPrintJob(token, printerIdentifier,
-                                file.getName(), ticket, new TypedFile(MIME_TYPE, file), MIME_TYPE).toBlocking().first();
-                        final HashMap<String, String> parameters = new HashMap<>();
-                        if (response.getStatus() == HttpURLConnection.HTTP_OK) {
-                            try {
-                                final GcpResponse gcpResponse = JsonPath.parse(response.getBody().in())
-                                        .read("$", GcpResponse.class);
-                                if (gcpResponse != null) {
-                                    parameters.put("message", gcpResponse.message);
-                                    if (gcpResponse.hasSucceeded) {
-                                        mDatabase.markSuccessful(shareRequest.getId());
-                                        shareCount++;
-                                        sLogger.log("gcp_queue_success", parameters);
-                                    } else {
-                                        mDatabase.markFailed(shareRequest.getId());
-                                        sLogger.log("gcp_queue_failed", parameters);
-                                    }
-                                } else {
-                                    mDatabase.markFailed(shareRequest.getId());
-                                    sLogger.log("gcp_response_parsing_failed", parameters);
-                                }
-                            } catch (IOException e) {
-                                mDatabase.markFailed(shareRequest.getId());
-                                parameters.put("error", e.getMessage());
-                                sLogger.log("gcp_queue_failed", parameters);
-                            }
+        if (!isLinked || TextUtils.isEmpty(accountName) || TextUtils.isEmpty(printerIdentifier)
+                || TextUtils.isEmpty(token)) {
+            return false;
+        }
+
+        mUploadTicket = !TextUtils.isEmpty(mediaVendorId)
+                ? String.format(TICKET_WITH_MEDIA, copies, mediaVendorId, mediaWidthMicrons, mediaHeightMicrons, mediaIsContinuousFeed)
+                : String.format(TICKET, copies);
+        mUploadPrinterIdentifier = printerIdentifier;
+        mUploadToken = token;
+        return true;
+    }
+
+    @Override
+    public UploadResult uploadShareRequest(ShareRequest shareRequest) {
+        File file = new File(shareRequest.getFilePath());
+        if (!file.exists()) {
+            // The file will not come back.
+            return UploadResult.permanentFailure();
+        }
+
+        UploadResult result = UploadResult.transientFailure();
+        try {
+            Response response = mGoogleCloudPrint.submitPrintJob(mUploadToken, mUploadPrinterIdentifier,
+                    file.getName(), mUploadTicket, new TypedFile(MIME_TYPE, file), MIME_TYPE).toBlocking().first();
+            final HashMap<String, String> parameters = new HashMap<>();
+            if (response.getStatus() == HttpURLConnection.HTTP_OK) {
+                try {
+                    final GcpResponse gcpResponse = JsonPath.parse(response.getBody().in())
+                            .read("$", GcpResponse.class);
+                    if (gcpResponse != null) {
+                        parameters.put("message", gcpResponse.message);
+                        if (gcpResponse.hasSucceeded) {
+                            result = UploadResult.success(null);
+                            sLogger.log("gcp_queue_success", parameters);
                         } else {
-                            mDatabase.markFailed(shareRequest.getId());
-                            parameters.put("code", String.valueOf(response.getStatus()));
                             sLogger.log("gcp_queue_failed", parameters);
                         }
-                    } catch (NoSuchElementException e) {
-                        mDatabase.markFailed(shareRequest.getId());
+                    } else {
+                        sLogger.log("gcp_response_parsing_failed", parameters);
                     }
-                } else {
-                    mDatabase.markFailed(shareRequest.getId());
+                } catch (IOException e) {
+                    parameters.put("error", e.getMessage());
+                    sLogger.log("gcp_queue_failed", parameters);
                 }
+            } else {
+                // An unauthorized response usually means an expired token, so it is retried like any other failure.
+                parameters.put("code", String.valueOf(response.getStatus()));
+                sLogger.log("gcp_queue_failed", parameters);
             }
+        } catch (NoSuchElementException e) {
+            // Do nothing.
+        }
+        return result;
+    }
 
-            final HashMap<String, String> parameters = new HashMap<>();
-            parameters.put("count", String.valueOf(shareCount));
-            sLogger.log("gcp_shared", parameters);
-
-            // Create and add notification.
-            if (shareCount > 0) {
-                final int count = shareCount;
-                ShareNotification notification = new ShareNotification() {
+    @Override
+    protected ShareNotification createShareNotification(final Destination destination,
+                                                        UploadDispatcher.Summary summary) {
+        final int count = summary.getSharedCount();
+        final String printerIdentifier = mUploadPrinterIdentifier;
 
-                    @Override
-                    public int getId() {
-                        return destination.getHash();
-                    }
+        final HashMap<String, String> parameters = new HashMap<>();
+        parameters.put("count", String.valueOf(count));
+        sLogger.log("gcp_shared", parameters);
 
-                    @Override
-                    public String getTitle() {
-                        return mContext.getString(R.string.wings_gcp__notification_shared_title);
-                    }
+        return new ShareNotification() {
 
-                    @Override
-                    public String getMessage() {
-                        String msg;
-                        if (count == 1) {
-                            msg = mContext.getString(R.string.wings_gcp__notification_shared_msg_single, printerIdentifier);
-                        } else {
-                            msg = mContext.getString(R.string.wings_gcp__notification_shared_msg_multi, count, printerIdentifier);
-                        }
-                        return msg;
-                    }
+            @Override
+            public int getId() {
+                return destination.getHash();
+            }
 
-                    @Override
-                    public String getTicker() {
-                        return mContext.getString(R.string.wings_gcp__notification_shared_ticker);
-                    }
+            @Override
+            public String getTitle() {
+                return mContext.getString(R.string.wings_gcp__notification_shared_title);
+            }
 
-                    @Override
-                    public Intent getIntent() {
-                        return new Intent();
-                    }
-                };
+            @Override
+            public String getMessage() {
+                String msg;
+                if (count == 1) {
+                    msg = mContext.getString(R.string.wings_gcp__notification_shared_msg_single, printerIdentifier);
+                } else {
+                    msg = mContext.getString(R.string.wings_gcp__notification_shared_msg_multi, count, printerIdentifier);
+                }
+                return msg;
+            }
 
-                notifications.add(notification);
+            @Override
+            public String getTicker() {
+                return mContext.getString(R.string.wings_gcp__notification_shared_ticker);
             }
-        }
 
-        return notifications;
+            @Override
+            public Intent getIntent() {
+                return new Intent();
+            }
+        };
     }
 
     @Override
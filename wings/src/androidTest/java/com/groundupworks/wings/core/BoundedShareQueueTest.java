@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2015 Benedict Lau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groundupworks.wings.core;
+
+import android.test.AndroidTestCase;
+
+import com.squareup.otto.Bus;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests that the {@link BoundedShareQueue} applies the overflow policy only once new shares are created.
+ *
+ * @author Benedict Lau
+ */
+public class BoundedShareQueueTest extends AndroidTestCase {
+
+    private static final String JOURNAL_NAME = "test.journal";
+
+    private static final Destination DESTINATION = new Destination(0, 1);
+
+    private static final Destination OTHER_DESTINATION = new Destination(0, 2);
+
+    /**
+     * The journal file.
+     */
+    private File mJournalFile;
+
+    /**
+     * The queue that stores the records. A journal, so a file path that is too long makes a create fail.
+     */
+    private MappedJournalShareQueue mStorage;
+
+    /**
+     * The queue under test.
+     */
+    private BoundedShareQueue mShareQueue;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mJournalFile = new File(getContext().getFilesDir(), JOURNAL_NAME);
+        mJournalFile.delete();
+        mStorage = new MappedJournalShareQueue(mJournalFile);
+        mShareQueue = new BoundedShareQueue(mStorage, new Bus());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mStorage.close();
+        mJournalFile.delete();
+        super.tearDown();
+    }
+
+    //
+    // Private methods.
+    //
+
+    /**
+     * Gets the file paths of the shares of a destination, checking them out.
+     *
+     * @param destination the destination.
+     * @return the file paths, in checkout order.
+     */
+    private List<String> checkout(Destination destination) {
+        List<String> filePaths = new ArrayList<String>();
+        for (ShareRequest shareRequest : mShareQueue.checkoutShareRequests(destination)) {
+            filePaths.add(shareRequest.getFilePath());
+        }
+        return filePaths;
+    }
+
+    /**
+     * @return a file path that is too long to be journaled.
+     */
+    private static String getInvalidFilePath() {
+        char[] filePath = new char[MappedJournalShareQueue.MAX_PATH_BYTES + 1];
+        Arrays.fill(filePath, 'a');
+        return new String(filePath);
+    }
+
+    //
+    // Tests.
+    //
+
+    public void testDropOldest() {
+        mShareQueue.setCapacity(new QueueCapacity(2, QueueCapacity.OVERFLOW_DROP_OLDEST));
+        assertTrue(mShareQueue.createShareRequest("a.jpg", DESTINATION, ShareRequest.PRIORITY_NORMAL));
+        assertTrue(mShareQueue.createShareRequest("b.jpg", DESTINATION, ShareRequest.PRIORITY_NORMAL));
+        assertTrue(mShareQueue.createShareRequest("c.jpg", DESTINATION, ShareRequest.PRIORITY_NORMAL));
+        assertEquals(Arrays.asList("b.jpg", "c.jpg"), checkout(DESTINATION));
+    }
+
+    public void testRejectNew() {
+        mShareQueue.setCapacity(new QueueCapacity(2, QueueCapacity.OVERFLOW_REJECT_NEW));
+        assertTrue(mShareQueue.createShareRequest("a.jpg", DESTINATION, ShareRequest.PRIORITY_NORMAL));
+        assertTrue(mShareQueue.createShareRequest("b.jpg", DESTINATION, ShareRequest.PRIORITY_NORMAL));
+        assertFalse(mShareQueue.createShareRequest("c.jpg", DESTINATION, ShareRequest.PRIORITY_NORMAL));
+        assertEquals(Arrays.asList("a.jpg", "b.jpg"), checkout(DESTINATION));
+    }
+
+    public void testFailedCreateDropsNothing() {
+        mShareQueue.setCapacity(new QueueCapacity(2, QueueCapacity.OVERFLOW_DROP_OLDEST));
+        assertTrue(mShareQueue.createShareRequest("a.jpg", DESTINATION, ShareRequest.PRIORITY_NORMAL));
+        assertTrue(mShareQueue.createShareRequest("b.jpg", DESTINATION, ShareRequest.PRIORITY_NORMAL));
+        assertFalse(mShareQueue.createShareRequest(getInvalidFilePath(), DESTINATION, ShareRequest.PRIORITY_NORMAL));
+        assertTrue(mShareQueue.createShareRequests(Arrays.asList(getInvalidFilePath()), DESTINATION,
+                ShareRequest.PRIORITY_NORMAL).isEmpty());
+        assertEquals(Arrays.asList("a.jpg", "b.jpg"), checkout(DESTINATION));
+    }
+
+    public void testMultipleDestinationsDropNothingUnlessAllHaveRoom() {
+        mShareQueue.setCapacity(new QueueCapacity(1, QueueCapacity.OVERFLOW_DROP_OLDEST));
+        assertTrue(mShareQueue.createShareRequest("a.jpg", DESTINATION, ShareRequest.PRIORITY_NORMAL));
+        assertTrue(mShareQueue.createShareRequest("b.jpg", OTHER_DESTINATION, ShareRequest.PRIORITY_NORMAL));
+
+        // The share being processed cannot be dropped, so the other destination has no room.
+        assertEquals(Arrays.asList("b.jpg"), checkout(OTHER_DESTINATION));
+        assertFalse(mShareQueue.createShareRequests("c.jpg", Arrays.asList(DESTINATION, OTHER_DESTINATION),
+                ShareRequest.PRIORITY_NORMAL));
+        assertEquals(Arrays.asList("a.jpg"), checkout(DESTINATION));
+    }
+
+    public void testMultipleDestinationsDropOldest() {
+        mShareQueue.setCapacity(new QueueCapacity(1, QueueCapacity.OVERFLOW_DROP_OLDEST));
+        assertTrue(mShareQueue.createShareRequest("a.jpg", DESTINATION, ShareRequest.PRIORITY_NORMAL));
+        assertTrue(mShareQueue.createShareRequest("b.jpg", OTHER_DESTINATION, ShareRequest.PRIORITY_NORMAL));
+        assertTrue(mShareQueue.createShareRequests("c.jpg", Arrays.asList(DESTINATION, OTHER_DESTINATION),
+                ShareRequest.PRIORITY_NORMAL));
+        assertEquals(Arrays.asList("c.jpg"), checkout(DESTINATION));
+        assertEquals(Arrays.asList("c.jpg"), checkout(OTHER_DESTINATION));
+    }
+}
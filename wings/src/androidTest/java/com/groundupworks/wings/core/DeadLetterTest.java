@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2015 Benedict Lau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groundupworks.wings.core;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+
+import java.util.List;
+
+/**
+ * Tests that a {@link DeadLetter} tells apart the ways a share failed.
+ *
+ * @author Benedict Lau
+ */
+public class DeadLetterTest extends AndroidTestCase {
+
+    private static final String DB_NAME = "wings.db";
+
+    private static final String FILE_PREFIX = "test.";
+
+    private static final Destination DESTINATION = new Destination(0, 1);
+
+    /**
+     * The {@link Context} whose database files are isolated from the app under test.
+     */
+    private Context mContext;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext = new RenamingDelegatingContext(getContext(), FILE_PREFIX);
+        mContext.deleteDatabase(DB_NAME);
+        TestInjector.init(getContext());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(DB_NAME);
+        super.tearDown();
+    }
+
+    //
+    // Private methods.
+    //
+
+    /**
+     * Creates a record that is checked out.
+     *
+     * @return the record, in the processing state.
+     */
+    private static ShareRecord createProcessingRecord() {
+        long now = System.currentTimeMillis();
+        return ShareRecord.create(1, "share.jpg", DESTINATION.getHash(), now, ShareRequest.PRIORITY_NORMAL, null)
+                .toProcessing(new Object(), now);
+    }
+
+    //
+    // Tests.
+    //
+
+    public void testRejectedRecord() {
+        DeadLetter deadLetter = createProcessingRecord().toRejected(System.currentTimeMillis()).toDead()
+                .toDeadLetter();
+        assertEquals(DeadLetter.REASON_REJECTED, deadLetter.getReason());
+        assertEquals(UploadResult.TYPE_PERMANENT_FAILURE, deadLetter.getLastFailureType());
+    }
+
+    public void testAuthFailedRecord() {
+        DeadLetter deadLetter = createProcessingRecord().toFailed(System.currentTimeMillis(),
+                UploadResult.TYPE_AUTH_FAILURE).toDead().toDeadLetter();
+        assertEquals(DeadLetter.REASON_EXPIRED, deadLetter.getReason());
+        assertEquals(UploadResult.TYPE_AUTH_FAILURE, deadLetter.getLastFailureType());
+    }
+
+    public void testNeverFailedRecord() {
+        DeadLetter deadLetter = createProcessingRecord().toDead().toDeadLetter();
+        assertEquals(DeadLetter.REASON_EXPIRED, deadLetter.getReason());
+        assertEquals(UploadResult.TYPE_SUCCESS, deadLetter.getLastFailureType());
+    }
+
+    public void testRejectedShareInDatabase() {
+        WingsDbHelper dbHelper = new WingsDbHelper(mContext);
+        try {
+            assertTrue(dbHelper.createShareRequest("share.jpg", DESTINATION, ShareRequest.PRIORITY_NORMAL));
+            List<ShareRequest> shareRequests = dbHelper.checkoutShareRequests(DESTINATION);
+            assertEquals(1, shareRequests.size());
+            assertEquals(1, dbHelper.markRejected(new int[]{shareRequests.get(0).getId()}));
+            dbHelper.purge();
+
+            List<DeadLetter> deadLetters = dbHelper.getDeadLetters();
+            assertEquals(1, deadLetters.size());
+            assertEquals(DeadLetter.REASON_REJECTED, deadLetters.get(0).getReason());
+            assertEquals(UploadResult.TYPE_PERMANENT_FAILURE, deadLetters.get(0).getLastFailureType());
+        } finally {
+            dbHelper.close();
+        }
+    }
+}
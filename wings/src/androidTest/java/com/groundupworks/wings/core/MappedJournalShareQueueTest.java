@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2015 Benedict Lau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groundupworks.wings.core;
+
+import android.test.AndroidTestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests that the {@link MappedJournalShareQueue} replays and compacts its journal without losing, resurrecting or
+ * reusing records.
+ *
+ * @author Benedict Lau
+ */
+public class MappedJournalShareQueueTest extends AndroidTestCase {
+
+    private static final String JOURNAL_NAME = "test.journal";
+
+    private static final Destination DESTINATION = new Destination(0, 1);
+
+    /**
+     * The journal file.
+     */
+    private File mJournalFile;
+
+    /**
+     * The queue under test.
+     */
+    private MappedJournalShareQueue mShareQueue;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mJournalFile = new File(getContext().getFilesDir(), JOURNAL_NAME);
+        deleteJournal();
+        mShareQueue = new MappedJournalShareQueue(mJournalFile);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mShareQueue.close();
+        deleteJournal();
+        super.tearDown();
+    }
+
+    //
+    // Private methods.
+    //
+
+    /**
+     * Deletes the journal and any leftover compaction.
+     */
+    private void deleteJournal() {
+        mJournalFile.delete();
+        new File(mJournalFile.getPath() + ".compact").delete();
+    }
+
+    /**
+     * Closes and replays the journal.
+     *
+     * @throws IOException if the journal cannot be opened.
+     */
+    private void reopen() throws IOException {
+        mShareQueue.close();
+        mShareQueue = new MappedJournalShareQueue(mJournalFile);
+    }
+
+    /**
+     * Corrupts an entry of the journal, as if it were torn by a crash while being written.
+     *
+     * @param index the index of the entry.
+     * @throws IOException if the journal cannot be written.
+     */
+    private void tearEntry(int index) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(mJournalFile, "rw");
+        try {
+            long position = (long) index * MappedJournalShareQueue.ENTRY_SIZE + MappedJournalShareQueue.ENTRY_SIZE / 2;
+            file.seek(position);
+            int value = file.read();
+            file.seek(position);
+            file.write(~value);
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Checks out all shares of {@link #DESTINATION}.
+     *
+     * @return the share requests.
+     */
+    private List<ShareRequest> checkout() {
+        return mShareQueue.checkoutShareRequests(DESTINATION);
+    }
+
+    //
+    // Tests.
+    //
+
+    public void testReplayRestoresRecords() throws IOException {
+        assertTrue(mShareQueue.createShareRequest("a.jpg", DESTINATION, ShareRequest.PRIORITY_NORMAL));
+        assertTrue(mShareQueue.createShareRequest("b.jpg", DESTINATION, ShareRequest.PRIORITY_HIGH));
+        List<ShareRequest> shareRequests = checkout();
+        assertEquals(2, shareRequests.size());
+        assertEquals(1, mShareQueue.markResults(new int[]{shareRequests.get(0).getId()}, new int[0]));
+
+        reopen();
+        assertEquals(2, mShareQueue.countShareRequests());
+        assertEquals(0, mShareQueue.getQueueStats().getPendingCount());
+        assertEquals(1, mShareQueue.getQueueStats().getProcessingCount());
+
+        // The record left processing is reclaimed, since its lease is not persisted.
+        assertEquals(1, mShareQueue.reclaimExpiredLeases());
+        shareRequests = checkout();
+        assertEquals(1, shareRequests.size());
+        assertEquals("a.jpg", shareRequests.get(0).getFilePath());
+    }
+
+    public void testTornBatchIsNotReplayed() throws IOException {
+        // The fresh journal holds the high-water mark of record ids, then one entry per record.
+        assertTrue(mShareQueue.createShareRequest("a.jpg", DESTINATION, ShareRequest.PRIORITY_NORMAL));
+        assertEquals(3, mShareQueue.createShareRequests(Arrays.asList("b.jpg", "c.jpg", "d.jpg"), DESTINATION,
+                ShareRequest.PRIORITY_NORMAL).size());
+        mShareQueue.close();
+
+        // Tear the last entry of the batch.
+        tearEntry(4);
+        mShareQueue = new MappedJournalShareQueue(mJournalFile);
+
+        List<ShareRequest> shareRequests = checkout();
+        assertEquals(1, shareRequests.size());
+        assertEquals("a.jpg", shareRequests.get(0).getFilePath());
+    }
+
+    public void testEntriesAfterTornEntryAreNotReplayed() throws IOException {
+        assertTrue(mShareQueue.createShareRequest("a.jpg", DESTINATION, ShareRequest.PRIORITY_NORMAL));
+        assertTrue(mShareQueue.createShareRequest("b.jpg", DESTINATION, ShareRequest.PRIORITY_NORMAL));
+        assertTrue(mShareQueue.createShareRequest("c.jpg", DESTINATION, ShareRequest.PRIORITY_NORMAL));
+        mShareQueue.close();
+
+        tearEntry(2);
+        mShareQueue = new MappedJournalShareQueue(mJournalFile);
+        assertEquals(1, mShareQueue.countShareRequests());
+
+        // The compaction on open drops the entries past the torn one for good.
+        reopen();
+        assertEquals(1, mShareQueue.countShareRequests());
+    }
+
+    public void testLeftoverCompactionIsDiscarded() throws IOException {
+        assertTrue(mShareQueue.createShareRequest("a.jpg", DESTINATION, ShareRequest.PRIORITY_NORMAL));
+        mShareQueue.close();
+
+        // A compaction that died before its rename leaves the journal it was replacing intact.
+        File compactionFile = new File(mJournalFile.getPath() + ".compact");
+        FileOutputStream outputStream = new FileOutputStream(compactionFile);
+        try {
+            outputStream.write(new byte[MappedJournalShareQueue.ENTRY_SIZE]);
+        } finally {
+            outputStream.close();
+        }
+
+        mShareQueue = new MappedJournalShareQueue(mJournalFile);
+        assertFalse(compactionFile.exists());
+        List<ShareRequest> shareRequests = checkout();
+        assertEquals(1, shareRequests.size());
+        assertEquals("a.jpg", shareRequests.get(0).getFilePath());
+    }
+
+    public void testIdsAreNotReusedAfterCompaction() throws IOException {
+        assertTrue(mShareQueue.createShareRequest("a.jpg", DESTINATION, ShareRequest.PRIORITY_NORMAL));
+        assertTrue(mShareQueue.createShareRequest("b.jpg", DESTINATION, ShareRequest.PRIORITY_NORMAL));
+        int lastId = checkout().get(1).getId();
+        mShareQueue.deleteShareRequests(DESTINATION);
+
+        // Compact twice, so the deleted records are no longer in the journal at all.
+        reopen();
+        reopen();
+        assertEquals(0, mShareQueue.countShareRequests());
+
+        assertTrue(mShareQueue.createShareRequest("c.jpg", DESTINATION, ShareRequest.PRIORITY_NORMAL));
+        assertTrue(checkout().get(0).getId() > lastId);
+    }
+
+    public void testResultsOnlyUpdateProcessingRecords() {
+        assertTrue(mShareQueue.createShareRequest("a.jpg", DESTINATION, ShareRequest.PRIORITY_NORMAL));
+        List<ShareRequest> shareRequests = checkout();
+        int id = shareRequests.get(0).getId();
+        assertEquals(1, mShareQueue.markFailed(new int[]{id}));
+
+        // A late result for a record that is no longer processing is ignored.
+        assertFalse(mShareQueue.markSuccessful(id));
+        assertEquals(0, mShareQueue.markFailed(new int[]{id}));
+        assertEquals(1, mShareQueue.getQueueStats().getPendingCount());
+        assertEquals(1, mShareQueue.getQueueStats().getFailedCount());
+    }
+
+    public void testStatsAreCountedOnReplay() throws IOException {
+        assertTrue(mShareQueue.createShareRequest("a.jpg", DESTINATION, ShareRequest.PRIORITY_NORMAL));
+        assertTrue(mShareQueue.createShareRequest("b.jpg", DESTINATION, ShareRequest.PRIORITY_HIGH));
+        assertTrue(mShareQueue.createShareRequest("c.jpg", DESTINATION, ShareRequest.PRIORITY_NORMAL));
+        List<ShareRequest> shareRequests = checkout();
+        assertEquals(3, mShareQueue.markResults(new int[]{shareRequests.get(0).getId()},
+                new int[]{shareRequests.get(1).getId(), shareRequests.get(2).getId()}));
+        assertTrue(mShareQueue.discardPendingShareRequest(shareRequests.get(2).getId()));
+
+        reopen();
+        QueueStats stats = mShareQueue.getQueueStats(DESTINATION);
+        assertEquals(1, stats.getPendingCount());
+        assertEquals(0, stats.getProcessingCount());
+        assertEquals(1, stats.getFailedCount());
+        assertEquals(mShareQueue.getQueueStats().getPendingCount(), stats.getPendingCount());
+    }
+}
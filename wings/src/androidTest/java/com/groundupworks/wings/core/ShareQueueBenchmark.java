@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2015 Benedict Lau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groundupworks.wings.core;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+import android.util.Log;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Compares the time the {@link MappedJournalShareQueue} and the default {@link WingsDbHelper} take to create, checkout
+ * and mark the same share requests, one durable change at a time as a pass would. The timings are logged, since they
+ * depend too much on the device to assert on.
+ *
+ * @author Benedict Lau
+ */
+public class ShareQueueBenchmark extends AndroidTestCase {
+
+    private static final String TAG = ShareQueueBenchmark.class.getSimpleName();
+
+    private static final String DB_NAME = "wings.db";
+
+    private static final String FILE_PREFIX = "test.";
+
+    private static final String JOURNAL_NAME = "test.journal";
+
+    private static final Destination DESTINATION = new Destination(0, 1);
+
+    /**
+     * The number of share requests in each run.
+     */
+    private static final int SHARE_COUNT = 500;
+
+    /**
+     * The number of share requests checked out at once, as by a {@link ShareCheckout}.
+     */
+    private static final int PAGE_SIZE = ShareCheckout.DEFAULT_PAGE_SIZE;
+
+    /**
+     * The number of runs, the first of which warms up and is not logged.
+     */
+    private static final int RUNS = 4;
+
+    /**
+     * The {@link Context} whose database files are isolated from the app under test.
+     */
+    private Context mContext;
+
+    /**
+     * The journal file.
+     */
+    private File mJournalFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext = new RenamingDelegatingContext(getContext(), FILE_PREFIX);
+        mJournalFile = new File(getContext().getFilesDir(), JOURNAL_NAME);
+        TestInjector.init(getContext());
+        deleteStorage();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteStorage();
+        super.tearDown();
+    }
+
+    //
+    // Private methods.
+    //
+
+    /**
+     * Deletes the database and the journal.
+     */
+    private void deleteStorage() {
+        mContext.deleteDatabase(DB_NAME);
+        mJournalFile.delete();
+    }
+
+    /**
+     * Creates {@link #SHARE_COUNT} share requests one at a time, then checks them out a page at a time and marks every
+     * other one as failed.
+     *
+     * @param shareQueue the queue to run against.
+     * @return the time taken to create the share requests and to process them, in milliseconds.
+     */
+    private long[] run(ShareQueue shareQueue) {
+        long startTime = SystemClock.elapsedRealtime();
+        for (int i = 0; i < SHARE_COUNT; i++) {
+            assertTrue(shareQueue.createShareRequest("share" + i + ".jpg", DESTINATION, ShareRequest.PRIORITY_NORMAL));
+        }
+        long createTime = SystemClock.elapsedRealtime() - startTime;
+
+        startTime = SystemClock.elapsedRealtime();
+        int processedCount = 0;
+        List<ShareRequest> shareRequests = shareQueue.checkoutShareRequests(DESTINATION, PAGE_SIZE);
+        while (!shareRequests.isEmpty()) {
+            int[] successfulIds = new int[(shareRequests.size() + 1) / 2];
+            int[] failedIds = new int[shareRequests.size() / 2];
+            for (int i = 0; i < shareRequests.size(); i++) {
+                if (i % 2 == 0) {
+                    successfulIds[i / 2] = shareRequests.get(i).getId();
+                } else {
+                    failedIds[i / 2] = shareRequests.get(i).getId();
+                }
+            }
+            assertEquals(shareRequests.size(), shareQueue.markResults(successfulIds, failedIds));
+            processedCount += shareRequests.size();
+            shareRequests = shareQueue.checkoutShareRequests(DESTINATION, PAGE_SIZE);
+        }
+        long processTime = SystemClock.elapsedRealtime() - startTime;
+
+        assertEquals(SHARE_COUNT, processedCount);
+        return new long[]{createTime, processTime};
+    }
+
+    /**
+     * Logs the timings of a run.
+     *
+     * @param name    the name of the queue.
+     * @param run     the index of the run.
+     * @param timings the time taken to create and to process the share requests, in milliseconds.
+     */
+    private static void log(String name, int run, long[] timings) {
+        Log.i(TAG, name + " run=" + run + " shares=" + SHARE_COUNT + " createMs=" + timings[0] + " processMs="
+                + timings[1]);
+    }
+
+    //
+    // Tests.
+    //
+
+    public void testSqlite() {
+        for (int run = 0; run < RUNS; run++) {
+            WingsDbHelper dbHelper = new WingsDbHelper(mContext);
+            try {
+                long[] timings = run(dbHelper);
+                if (run > 0) {
+                    log("sqlite", run, timings);
+                }
+            } finally {
+                dbHelper.close();
+                deleteStorage();
+            }
+        }
+    }
+
+    public void testMappedJournal() throws Exception {
+        for (int run = 0; run < RUNS; run++) {
+            MappedJournalShareQueue journal = new MappedJournalShareQueue(mJournalFile);
+            try {
+                long[] timings = run(journal);
+                if (run > 0) {
+                    log("journal", run, timings);
+                }
+            } finally {
+                journal.close();
+                deleteStorage();
+            }
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2015 Benedict Lau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groundupworks.wings.core;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests that {@link ShareRecordCounts} keeps the {@link QueueStats} of records as they change.
+ *
+ * @author Benedict Lau
+ */
+public class ShareRecordCountsTest extends TestCase {
+
+    private static final Destination DESTINATION = new Destination(0, 1);
+
+    private static final Destination OTHER_DESTINATION = new Destination(0, 2);
+
+    private static final long TIME_CREATED = 1000L;
+
+    /**
+     * The counts under test.
+     */
+    private ShareRecordCounts mCounts;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mCounts = new ShareRecordCounts();
+    }
+
+    //
+    // Private methods.
+    //
+
+    /**
+     * Creates a pending record.
+     *
+     * @param id          the id of the record.
+     * @param destination the destination.
+     * @param timeCreated the time the record is created.
+     * @return the record.
+     */
+    private static ShareRecord createRecord(int id, Destination destination, long timeCreated) {
+        return ShareRecord.create(id, "share.jpg", destination.getHash(), timeCreated, ShareRequest.PRIORITY_NORMAL,
+                null);
+    }
+
+    /**
+     * Adds a new record to the counts.
+     *
+     * @param record the record.
+     * @return the record.
+     */
+    private ShareRecord add(ShareRecord record) {
+        mCounts.replace(null, record);
+        return record;
+    }
+
+    //
+    // Tests.
+    //
+
+    public void testRecordMovesBetweenStates() {
+        ShareRecord pending = add(createRecord(1, DESTINATION, TIME_CREATED));
+        ShareRecord processing = pending.toProcessing(new Object(), TIME_CREATED);
+        mCounts.replace(pending, processing);
+        ShareRecord failed = processing.toFailed(TIME_CREATED, UploadResult.TYPE_TRANSIENT_FAILURE);
+        mCounts.replace(processing, failed);
+
+        QueueStats stats = mCounts.getQueueStats(TIME_CREATED, DESTINATION);
+        assertEquals(1, stats.getPendingCount());
+        assertEquals(0, stats.getProcessingCount());
+        assertEquals(1, stats.getFailedCount());
+
+        mCounts.replace(failed, null);
+        assertTrue(mCounts.getQueueStats(TIME_CREATED).getDestinations().isEmpty());
+    }
+
+    public void testOldestPendingAgeFollowsCheckout() {
+        ShareRecord oldest = add(createRecord(1, DESTINATION, TIME_CREATED));
+        add(createRecord(2, DESTINATION, TIME_CREATED + 100L));
+        assertEquals(500L, mCounts.getQueueStats(TIME_CREATED + 500L).getOldestPendingAge(DESTINATION));
+
+        mCounts.replace(oldest, oldest.toProcessing(new Object(), TIME_CREATED));
+        assertEquals(400L, mCounts.getQueueStats(TIME_CREATED + 500L).getOldestPendingAge(DESTINATION));
+    }
+
+    public void testOutOfOrderChangesConverge() {
+        ShareRecord pending = createRecord(1, DESTINATION, TIME_CREATED);
+        ShareRecord processing = pending.toProcessing(new Object(), TIME_CREATED);
+
+        // The checkout is counted before the create that preceded it.
+        mCounts.replace(pending, processing);
+        mCounts.replace(null, pending);
+
+        QueueStats stats = mCounts.getQueueStats(TIME_CREATED, DESTINATION);
+        assertEquals(0, stats.getPendingCount());
+        assertEquals(1, stats.getProcessingCount());
+        assertEquals(0L, stats.getOldestPendingAge(DESTINATION));
+    }
+
+    public void testDestinationsAreCountedSeparately() {
+        add(createRecord(1, DESTINATION, TIME_CREATED));
+        add(createRecord(2, OTHER_DESTINATION, TIME_CREATED));
+        add(createRecord(3, OTHER_DESTINATION, TIME_CREATED));
+
+        assertEquals(1, mCounts.getQueueStats(TIME_CREATED, DESTINATION).getPendingCount());
+        assertEquals(2, mCounts.getQueueStats(TIME_CREATED, OTHER_DESTINATION).getPendingCount());
+        assertEquals(3, mCounts.getQueueStats(TIME_CREATED).getPendingCount());
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2015 Benedict Lau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groundupworks.wings.core;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests that {@link ShareRecord#selectFromLanes(List, List, int, long)} keeps the normal priority lane moving.
+ *
+ * @author Benedict Lau
+ */
+public class ShareRecordTest extends TestCase {
+
+    private static final Destination DESTINATION = new Destination(0, 1);
+
+    //
+    // Private methods.
+    //
+
+    /**
+     * Creates a lane of pending records.
+     *
+     * @param firstId  the id of the first record.
+     * @param size     the number of records.
+     * @param priority the priority of the records.
+     * @return the records, in checkout order.
+     */
+    private static List<ShareRecord> createLane(int firstId, int size, int priority) {
+        long now = System.currentTimeMillis();
+        List<ShareRecord> lane = new ArrayList<ShareRecord>();
+        for (int id = firstId; id < firstId + size; id++) {
+            lane.add(ShareRecord.create(id, "share.jpg", DESTINATION.getHash(), now, priority, null));
+        }
+        return lane;
+    }
+
+    /**
+     * Counts the normal priority records in a selection.
+     *
+     * @param records the selected records.
+     * @return the number of normal priority records.
+     */
+    private static int countNormal(List<ShareRecord> records) {
+        int count = 0;
+        for (ShareRecord record : records) {
+            if (record.mPriority == ShareRequest.PRIORITY_NORMAL) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Selects from a full high priority lane and a full normal priority lane.
+     *
+     * @param maxBatch the maximum number of records to select.
+     * @return the selected records.
+     */
+    private static List<ShareRecord> selectFromBusyLanes(int maxBatch) {
+        return ShareRecord.selectFromLanes(createLane(1, maxBatch, ShareRequest.PRIORITY_HIGH),
+                createLane(maxBatch + 1, maxBatch, ShareRequest.PRIORITY_NORMAL), maxBatch, Long.MAX_VALUE);
+    }
+
+    //
+    // Tests.
+    //
+
+    public void testSmallBatchesReserveOneNormalRecord() {
+        for (int maxBatch = 2; maxBatch < 4; maxBatch++) {
+            List<ShareRecord> records = selectFromBusyLanes(maxBatch);
+            assertEquals(maxBatch, records.size());
+            assertEquals(1, countNormal(records));
+        }
+    }
+
+    public void testSingleRecordBatchPrefersHighPriority() {
+        List<ShareRecord> records = selectFromBusyLanes(1);
+        assertEquals(1, records.size());
+        assertEquals(0, countNormal(records));
+    }
+
+    public void testLargeBatchReservesPercentage() {
+        List<ShareRecord> records = selectFromBusyLanes(20);
+        assertEquals(20, records.size());
+        assertEquals(20 * WingsDbHelper.NORMAL_PRIORITY_RESERVE_PERCENT / 100, countNormal(records));
+    }
+
+    public void testIdleHighLaneFillsWithNormal() {
+        List<ShareRecord> records = ShareRecord.selectFromLanes(new ArrayList<ShareRecord>(),
+                createLane(1, 10, ShareRequest.PRIORITY_NORMAL), 4, Long.MAX_VALUE);
+        assertEquals(4, countNormal(records));
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2015 Benedict Lau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groundupworks.wings.core;
+
+import android.app.Application;
+import android.content.Context;
+import android.os.Looper;
+
+import com.groundupworks.wings.IWingsLogger;
+import com.groundupworks.wings.Wings;
+
+import java.util.Map;
+
+/**
+ * Initializes the {@link WingsInjector} for tests, so classes with static dependencies can be loaded.
+ *
+ * @author Benedict Lau
+ */
+final class TestInjector {
+
+    /**
+     * A logger that drops all messages.
+     */
+    private static final IWingsLogger NO_OP_LOGGER = new IWingsLogger() {
+        @Override
+        public void log(Class<?> clazz, String methodName, String msg) {
+            // Do nothing.
+        }
+
+        @Override
+        public void log(String eventName, Map<String, String> eventParameters) {
+            // Do nothing.
+        }
+
+        @Override
+        public void log(String eventName) {
+            // Do nothing.
+        }
+
+        @Override
+        public void onWingsServiceCreated(WingsService service) {
+            // Do nothing.
+        }
+
+        @Override
+        public void onWingsServiceDestroyed(WingsService service) {
+            // Do nothing.
+        }
+    };
+
+    /**
+     * Private constructor to ensure this class cannot be instantiated.
+     */
+    private TestInjector() {
+    }
+
+    /**
+     * Initializes the {@link WingsInjector} with the default module and a logger that drops all messages.
+     *
+     * @param context the {@link Context} of the test.
+     */
+    static void init(Context context) {
+        WingsInjector.init(new Wings.DefaultModule((Application) context.getApplicationContext(),
+                Looper.getMainLooper(), NO_OP_LOGGER));
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2015 Benedict Lau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groundupworks.wings.core;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests the upgrade of a version 1 database, whose destination hashes only kept the lowest bit of the destination id.
+ *
+ * @author Benedict Lau
+ */
+public class WingsDbHelperUpgradeTest extends AndroidTestCase {
+
+    private static final String DB_NAME = "wings.db";
+
+    private static final String FILE_PREFIX = "test.";
+
+    /**
+     * The endpoint id of Facebook.
+     */
+    private static final int FACEBOOK_ENDPOINT_ID = 0;
+
+    /**
+     * The endpoint id of Dropbox.
+     */
+    private static final int DROPBOX_ENDPOINT_ID = 1;
+
+    /**
+     * The Facebook destination ids.
+     */
+    private static final int PROFILE = 0;
+
+    private static final int PAGE = 1;
+
+    private static final int PAGE_ALBUM = 2;
+
+    /**
+     * The Dropbox destination id.
+     */
+    private static final int APP_FOLDER = 0;
+
+    /**
+     * The {@link Context} whose database files are isolated from the app under test.
+     */
+    private Context mContext;
+
+    /**
+     * The database helper under test.
+     */
+    private WingsDbHelper mDbHelper;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext = new RenamingDelegatingContext(getContext(), FILE_PREFIX);
+        mContext.deleteDatabase(DB_NAME);
+        TestInjector.init(getContext());
+
+        createVersion1Database();
+        mDbHelper = new WingsDbHelper(mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDbHelper.close();
+        mContext.deleteDatabase(DB_NAME);
+        super.tearDown();
+    }
+
+    //
+    // Private methods.
+    //
+
+    /**
+     * Computes a destination hash the way version 1 did, shifting the destination id by 0xffff bits.
+     *
+     * @param id         the destination id.
+     * @param endpointId the endpoint id.
+     * @return the version 1 hash.
+     */
+    @SuppressWarnings("ShiftOutOfRange")
+    private static int getVersion1Hash(int id, int endpointId) {
+        return (id << 0xffff) | endpointId;
+    }
+
+    /**
+     * Creates a version 1 database with a pending share to each Facebook destination and to Dropbox.
+     */
+    private void createVersion1Database() {
+        SQLiteDatabase db = mContext.openOrCreateDatabase(DB_NAME, Context.MODE_PRIVATE, null);
+        try {
+            db.execSQL("CREATE TABLE shares (_id INTEGER PRIMARY KEY AUTOINCREMENT, file_path TEXT NOT NULL, "
+                    + "destination INTEGER NOT NULL, time_created INTEGER NOT NULL, state INTEGER NOT NULL, "
+                    + "fails INTEGER NOT NULL)");
+            insertVersion1Share(db, "profile.jpg", getVersion1Hash(PROFILE, FACEBOOK_ENDPOINT_ID));
+            insertVersion1Share(db, "page.jpg", getVersion1Hash(PAGE, FACEBOOK_ENDPOINT_ID));
+            insertVersion1Share(db, "page_album.jpg", getVersion1Hash(PAGE_ALBUM, FACEBOOK_ENDPOINT_ID));
+            insertVersion1Share(db, "app_folder.jpg", getVersion1Hash(APP_FOLDER, DROPBOX_ENDPOINT_ID));
+            db.setVersion(1);
+        } finally {
+            db.close();
+        }
+    }
+
+    /**
+     * Inserts a pending share into a version 1 database.
+     *
+     * @param db          the database.
+     * @param filePath    the local path to the file to share.
+     * @param destination the version 1 destination hash.
+     */
+    private static void insertVersion1Share(SQLiteDatabase db, String filePath, int destination) {
+        ContentValues values = new ContentValues();
+        values.put("file_path", filePath);
+        values.put("destination", destination);
+        values.put("time_created", System.currentTimeMillis());
+        values.put("state", ShareRequest.STATE_PENDING);
+        values.put("fails", 0);
+        db.insert("shares", null, values);
+    }
+
+    /**
+     * Checks out all shares of a destination.
+     *
+     * @param destination the destination.
+     * @return the sorted file paths of the shares.
+     */
+    private List<String> checkout(Destination destination) {
+        List<String> filePaths = new ArrayList<String>();
+        for (ShareRequest shareRequest : mDbHelper.checkoutShareRequests(destination)) {
+            filePaths.add(shareRequest.getFilePath());
+            assertEquals(destination.getHash(), shareRequest.getDestination().getHash());
+        }
+        Collections.sort(filePaths);
+        return filePaths;
+    }
+
+    //
+    // Tests.
+    //
+
+    public void testUpgradeKeepsAllShares() {
+        assertEquals(4, mDbHelper.countShareRequests());
+    }
+
+    public void testLinkedPageAlbumAdoptsSharesWithSameVersion1Hash() {
+        // Before the upgrade, profile and page album shares had the same hash, so both went to the linked destination.
+        List<String> expected = new ArrayList<String>();
+        expected.add("page_album.jpg");
+        expected.add("profile.jpg");
+        assertEquals(expected, checkout(new Destination(PAGE_ALBUM, FACEBOOK_ENDPOINT_ID)));
+
+        // Adopted shares are no longer available to the other destination with the same hash.
+        assertTrue(checkout(new Destination(PROFILE, FACEBOOK_ENDPOINT_ID)).isEmpty());
+    }
+
+    public void testLinkedProfileAdoptsSharesWithSameVersion1Hash() {
+        List<String> expected = new ArrayList<String>();
+        expected.add("page_album.jpg");
+        expected.add("profile.jpg");
+        assertEquals(expected, checkout(new Destination(PROFILE, FACEBOOK_ENDPOINT_ID)));
+    }
+
+    public void testLinkedPageAdoptsOnlyPageShares() {
+        assertEquals(Collections.singletonList("page.jpg"), checkout(new Destination(PAGE, FACEBOOK_ENDPOINT_ID)));
+    }
+
+    public void testOtherEndpointsAreUnaffected() {
+        assertEquals(Collections.singletonList("app_folder.jpg"),
+                checkout(new Destination(APP_FOLDER, DROPBOX_ENDPOINT_ID)));
+    }
+
+    public void testUpgradeFillsEndpointId() {
+        mDbHelper.deleteEndpointShareRequests(FACEBOOK_ENDPOINT_ID);
+        assertEquals(1, mDbHelper.countShareRequests());
+        assertEquals(Collections.singletonList("app_folder.jpg"),
+                checkout(new Destination(APP_FOLDER, DROPBOX_ENDPOINT_ID)));
+    }
+}
@@ -22,6 +22,11 @@ import com.squareup.otto.Bus;
 
 /**
  * Dagger module for injecting classes into Wings.
+ * <p/>
+ * The storage for share requests is optional. A module may add a {@link dagger.Provides} method for
+ * {@link com.groundupworks.wings.core.ShareQueue} and list it in its {@code injects} to replace the default SQLite
+ * storage. Modules without one must list {@link com.groundupworks.wings.core.WingsDbHelper} in their
+ * {@code injects} instead, as they did before the storage could be replaced.
  *
  * @author Benedict Lau
  */
@@ -19,13 +19,23 @@ import android.app.Application;
 import android.content.Context;
 import android.os.Looper;
 
+import com.groundupworks.wings.core.BurstSuppression;
+import com.groundupworks.wings.core.DeadLetter;
 import com.groundupworks.wings.core.Destination;
+import com.groundupworks.wings.core.QueueCapacity;
+import com.groundupworks.wings.core.QueueStats;
+import com.groundupworks.wings.core.RetryPolicy;
+import com.groundupworks.wings.core.ShareQueue;
+import com.groundupworks.wings.core.ShareRequest;
 import com.groundupworks.wings.core.WingsDbHelper;
 import com.groundupworks.wings.core.WingsInjector;
 import com.groundupworks.wings.core.WingsService;
 import com.squareup.otto.Bus;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import javax.inject.Singleton;
@@ -178,15 +188,163 @@ public final class Wings {
      * @throws IllegalStateException Wings must be initialized. See {@link Wings#init(IWingsModule, Class[])}.
      */
     public static boolean share(String filePath, Class<? extends WingsEndpoint> endpointClazz) throws IllegalStateException {
+        return share(filePath, endpointClazz, ShareRequest.PRIORITY_NORMAL);
+    }
+
+    /**
+     * Shares an image to the specified endpoint with a priority. High priority shares jump ahead of the normal priority
+     * backlog. The client is responsible for ensuring that the file exists and the endpoint is linked.
+     *
+     * @param filePath      the local path to the file to share.
+     * @param endpointClazz the {@link java.lang.Class} of the endpoint to share to.
+     * @param priority      one of {@link ShareRequest#PRIORITY_NORMAL} or {@link ShareRequest#PRIORITY_HIGH}.
+     * @return {@code true} if successful; {@code false} otherwise.
+     * @throws IllegalStateException Wings must be initialized. See {@link Wings#init(IWingsModule, Class[])}.
+     */
+    public static boolean share(String filePath, Class<? extends WingsEndpoint> endpointClazz, int priority) throws IllegalStateException {
+        if (!sIsInitialized) {
+            throw new IllegalStateException("Wings must be initialized. See Wings#init().");
+        }
+        WingsEndpoint endpoint = Wings.getEndpoint(endpointClazz);
+        if (endpoint != null) {
+            WingsEndpoint.LinkInfo linkInfo = endpoint.getLinkInfo();
+            if (linkInfo != null) {
+                Destination destination = new Destination(linkInfo.mDestinationId, endpoint.getEndpointId());
+                if (WingsInjector.getShareQueue().createShareRequest(filePath, destination, priority)) {
+                    RetryPolicy.reset(WingsInjector.getApplicationContext());
+                    WingsService.startWakefulService(WingsInjector.getApplicationContext(), destination);
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Shares a batch of images to the specified endpoint. All share requests are created in a single transaction, and
+     * processed in a single pass. The client is responsible for ensuring that the files exist and the endpoint is
+     * linked.
+     *
+     * @param filePaths     the local paths to the files to share.
+     * @param endpointClazz the {@link java.lang.Class} of the endpoint to share to.
+     * @return the list of file paths accepted for sharing, in the order they were passed; may be empty.
+     * @throws IllegalStateException Wings must be initialized. See {@link Wings#init(IWingsModule, Class[])}.
+     */
+    public static List<String> share(Collection<String> filePaths, Class<? extends WingsEndpoint> endpointClazz) throws IllegalStateException {
+        return share(filePaths, endpointClazz, ShareRequest.PRIORITY_NORMAL);
+    }
+
+    /**
+     * Shares a batch of images to the specified endpoint with a priority. See
+     * {@link #share(Collection, Class)} and {@link #share(String, Class, int)}.
+     *
+     * @param filePaths     the local paths to the files to share.
+     * @param endpointClazz the {@link java.lang.Class} of the endpoint to share to.
+     * @param priority      one of {@link ShareRequest#PRIORITY_NORMAL} or {@link ShareRequest#PRIORITY_HIGH}.
+     * @return the list of file paths accepted for sharing, in the order they were passed; may be empty.
+     * @throws IllegalStateException Wings must be initialized. See {@link Wings#init(IWingsModule, Class[])}.
+     */
+    public static List<String> share(Collection<String> filePaths, Class<? extends WingsEndpoint> endpointClazz, int priority) throws IllegalStateException {
         if (!sIsInitialized) {
             throw new IllegalStateException("Wings must be initialized. See Wings#init().");
         }
+        List<String> acceptedFilePaths = new ArrayList<String>();
         WingsEndpoint endpoint = Wings.getEndpoint(endpointClazz);
         if (endpoint != null) {
             WingsEndpoint.LinkInfo linkInfo = endpoint.getLinkInfo();
-            if (linkInfo != null
-                    && WingsInjector.getDatabase().createShareRequest(filePath, new Destination(linkInfo.mDestinationId, endpoint.getEndpointId()))) {
-                WingsService.startWakefulService(WingsInjector.getApplicationContext());
+            if (linkInfo != null) {
+                Destination destination = new Destination(linkInfo.mDestinationId, endpoint.getEndpointId());
+                acceptedFilePaths = WingsInjector.getShareQueue().createShareRequests(filePaths, destination, priority);
+                if (!acceptedFilePaths.isEmpty()) {
+                    RetryPolicy.reset(WingsInjector.getApplicationContext());
+                    WingsService.startWakefulService(WingsInjector.getApplicationContext(), destination);
+                }
+            }
+        }
+
+        return acceptedFilePaths;
+    }
+
+    /**
+     * Shares an image to each of the specified endpoints. The share requests to all linked endpoints are created in a
+     * single transaction, and processed in a single pass. The client is responsible for ensuring that the file exists.
+     *
+     * @param filePath        the local path to the file to share.
+     * @param endpointClazzes the {@link java.lang.Class} of each endpoint to share to.
+     * @return the set of endpoints the image is shared to, which excludes unavailable and unlinked endpoints; may be
+     * empty.
+     * @throws IllegalStateException Wings must be initialized. See {@link Wings#init(IWingsModule, Class[])}.
+     */
+    public static Set<Class<? extends WingsEndpoint>> share(String filePath, Class<? extends WingsEndpoint>... endpointClazzes) throws IllegalStateException {
+        return share(filePath, endpointClazzes, ShareRequest.PRIORITY_NORMAL);
+    }
+
+    /**
+     * Shares an image to each of the specified endpoints with a priority. See {@link #share(String, Class[])} and
+     * {@link #share(String, Class, int)}.
+     *
+     * @param filePath        the local path to the file to share.
+     * @param endpointClazzes the {@link java.lang.Class} of each endpoint to share to.
+     * @param priority        one of {@link ShareRequest#PRIORITY_NORMAL} or {@link ShareRequest#PRIORITY_HIGH}.
+     * @return the set of endpoints the image is shared to, which excludes unavailable and unlinked endpoints; may be
+     * empty.
+     * @throws IllegalStateException Wings must be initialized. See {@link Wings#init(IWingsModule, Class[])}.
+     */
+    public static Set<Class<? extends WingsEndpoint>> share(String filePath, Class<? extends WingsEndpoint>[] endpointClazzes, int priority) throws IllegalStateException {
+        if (!sIsInitialized) {
+            throw new IllegalStateException("Wings must be initialized. See Wings#init().");
+        }
+
+        // Resolve the destination of each linked endpoint in a single scan.
+        Set<Class<? extends WingsEndpoint>> linkedClazzes = new HashSet<Class<? extends WingsEndpoint>>();
+        List<Destination> destinations = new ArrayList<Destination>();
+        for (WingsEndpoint endpoint : sEndpoints) {
+            for (Class<? extends WingsEndpoint> endpointClazz : endpointClazzes) {
+                if (endpointClazz.isInstance(endpoint)) {
+                    WingsEndpoint.LinkInfo linkInfo = endpoint.getLinkInfo();
+                    if (linkInfo != null) {
+                        linkedClazzes.add(endpointClazz);
+                        destinations.add(new Destination(linkInfo.mDestinationId, endpoint.getEndpointId()));
+                    }
+                    break;
+                }
+            }
+        }
+
+        if (!destinations.isEmpty() && WingsInjector.getShareQueue().createShareRequests(filePath, destinations, priority)) {
+            RetryPolicy.reset(WingsInjector.getApplicationContext());
+            WingsService.startWakefulService(WingsInjector.getApplicationContext(), destinations);
+            return linkedClazzes;
+        }
+
+        return new HashSet<Class<? extends WingsEndpoint>>();
+    }
+
+    /**
+     * Shares an image to the specified endpoint, unless the same image is already queued for its destination. The
+     * file is hashed off the caller thread, so sharing the same bytes twice, from a double tap or a retry after a
+     * crash, uploads them once. Subscribers then receive a {@link com.groundupworks.wings.core.ShareEnqueuedEvent}
+     * with the id of the new share, or of the existing one for a duplicate. The client is responsible for ensuring
+     * that the file exists and the endpoint is linked.
+     *
+     * @param filePath      the local path to the file to share.
+     * @param endpointClazz the {@link java.lang.Class} of the endpoint to share to.
+     * @param priority      one of {@link ShareRequest#PRIORITY_NORMAL} or {@link ShareRequest#PRIORITY_HIGH}.
+     * @return {@code true} if the share is accepted for hashing; {@code false} if the endpoint is unavailable or not
+     * linked.
+     * @throws IllegalStateException Wings must be initialized. See {@link Wings#init(IWingsModule, Class[])}.
+     */
+    public static boolean shareUnique(String filePath, Class<? extends WingsEndpoint> endpointClazz, int priority) throws IllegalStateException {
+        if (!sIsInitialized) {
+            throw new IllegalStateException("Wings must be initialized. See Wings#init().");
+        }
+        WingsEndpoint endpoint = Wings.getEndpoint(endpointClazz);
+        if (endpoint != null) {
+            WingsEndpoint.LinkInfo linkInfo = endpoint.getLinkInfo();
+            if (linkInfo != null && filePath != null) {
+                WingsInjector.getShareEnqueuer().enqueueUnique(filePath,
+                        new Destination(linkInfo.mDestinationId, endpoint.getEndpointId()), priority);
                 return true;
             }
         }
@@ -194,12 +352,126 @@ public final class Wings {
         return false;
     }
 
+    /**
+     * Gets the number of shares pending, processing and failed for each destination, and the age of the oldest pending
+     * share. Served from counts kept in memory, so it is cheap enough to poll frequently.
+     *
+     * @return the {@link com.groundupworks.wings.core.QueueStats}.
+     * @throws IllegalStateException Wings must be initialized. See {@link Wings#init(IWingsModule, Class[])}.
+     */
+    public static QueueStats getQueueStats() throws IllegalStateException {
+        if (!sIsInitialized) {
+            throw new IllegalStateException("Wings must be initialized. See Wings#init().");
+        }
+        return WingsInjector.getShareQueue().getQueueStats();
+    }
+
+    /**
+     * Sets the maximum depth of the share queue for each destination and the policy applied to shares beyond it.
+     * A {@link com.groundupworks.wings.core.QueueWatermarkEvent} is posted to subscribers when a destination reaches
+     * the high watermark, and again when it drains to the low watermark. The queue is unbounded by default.
+     *
+     * @param capacity the {@link com.groundupworks.wings.core.QueueCapacity}.
+     * @throws IllegalStateException Wings must be initialized. See {@link Wings#init(IWingsModule, Class[])}.
+     */
+    public static void setQueueCapacity(QueueCapacity capacity) throws IllegalStateException {
+        if (!sIsInitialized) {
+            throw new IllegalStateException("Wings must be initialized. See Wings#init().");
+        }
+        WingsInjector.getShareQueue().setCapacity(capacity);
+    }
+
+    /**
+     * Sets how long a share waits before the service starts processing, so the shares made in the meantime are
+     * processed in a single pass. Shares made while a pass is running are picked up by that pass. Defaults to 500
+     * milliseconds.
+     *
+     * @param debounceWindow the debounce window in milliseconds; or 0 to start processing immediately.
+     * @throws IllegalStateException    Wings must be initialized. See {@link Wings#init(IWingsModule, Class[])}.
+     * @throws IllegalArgumentException if the debounce window is negative.
+     */
+    public static void setDebounceWindow(long debounceWindow) throws IllegalStateException, IllegalArgumentException {
+        if (!sIsInitialized) {
+            throw new IllegalStateException("Wings must be initialized. See Wings#init().");
+        }
+        WingsService.setDebounceWindow(debounceWindow);
+    }
+
+    /**
+     * Sets how bursts of near-identical images shared to an endpoint with
+     * {@link #shareUnique(String, Class, int)} are coalesced, so only the newest or sharpest frame of each burst is
+     * uploaded. Subscribers receive a {@link com.groundupworks.wings.core.ShareSuppressedEvent} for each frame
+     * discarded. Bursts are not suppressed by default.
+     *
+     * @param endpointClazz the {@link java.lang.Class} of the endpoint.
+     * @param suppression   the {@link com.groundupworks.wings.core.BurstSuppression}; or null to disable it.
+     * @throws IllegalStateException Wings must be initialized. See {@link Wings#init(IWingsModule, Class[])}.
+     */
+    public static void setBurstSuppression(Class<? extends WingsEndpoint> endpointClazz, BurstSuppression suppression)
+            throws IllegalStateException {
+        if (!sIsInitialized) {
+            throw new IllegalStateException("Wings must be initialized. See Wings#init().");
+        }
+        WingsEndpoint endpoint = Wings.getEndpoint(endpointClazz);
+        if (endpoint != null) {
+            WingsInjector.getShareEnqueuer().setBurstSuppression(endpoint.getEndpointId(), suppression);
+        }
+    }
+
+    /**
+     * Gets the shares that were given up on because they failed too many times or expired before being shared.
+     * Subscribers are notified by a {@link com.groundupworks.wings.core.DeadLetterEvent} when there are new ones.
+     *
+     * @return the list of {@link com.groundupworks.wings.core.DeadLetter}, in order of creation; may be empty.
+     * @throws IllegalStateException Wings must be initialized. See {@link Wings#init(IWingsModule, Class[])}.
+     */
+    public static List<DeadLetter> getDeadLetters() throws IllegalStateException {
+        if (!sIsInitialized) {
+            throw new IllegalStateException("Wings must be initialized. See Wings#init().");
+        }
+        return WingsInjector.getShareQueue().getDeadLetters();
+    }
+
+    /**
+     * Shares dead letters again, as if they were new shares to the same destinations.
+     *
+     * @param ids the ids of the {@link com.groundupworks.wings.core.DeadLetter} to requeue.
+     * @return the number of shares requeued.
+     * @throws IllegalStateException Wings must be initialized. See {@link Wings#init(IWingsModule, Class[])}.
+     */
+    public static int requeueDeadLetters(int... ids) throws IllegalStateException {
+        if (!sIsInitialized) {
+            throw new IllegalStateException("Wings must be initialized. See Wings#init().");
+        }
+        int recordsRequeued = WingsInjector.getShareQueue().requeueDeadLetters(ids);
+        if (recordsRequeued > 0) {
+            RetryPolicy.reset(WingsInjector.getApplicationContext());
+            WingsService.startWakefulService(WingsInjector.getApplicationContext());
+        }
+        return Math.max(0, recordsRequeued);
+    }
+
+    /**
+     * Deletes dead letters for good.
+     *
+     * @param ids the ids of the {@link com.groundupworks.wings.core.DeadLetter} to discard.
+     * @return the number of shares discarded.
+     * @throws IllegalStateException Wings must be initialized. See {@link Wings#init(IWingsModule, Class[])}.
+     */
+    public static int discardDeadLetters(int... ids) throws IllegalStateException {
+        if (!sIsInitialized) {
+            throw new IllegalStateException("Wings must be initialized. See Wings#init().");
+        }
+        return Math.max(0, WingsInjector.getShareQueue().discardDeadLetters(ids));
+    }
+
     /**
      * The default implementation of {@link com.groundupworks.wings.IWingsModule}.
      */
     @Module(
             staticInjections = {WingsService.class, WingsDbHelper.class},
-            injects = {Context.class, Looper.class, Bus.class, IWingsLogger.class, WingsService.class, WingsDbHelper.class}
+            injects = {Context.class, Looper.class, Bus.class, IWingsLogger.class, ShareQueue.class, WingsDbHelper.class,
+                    WingsService.class}
     )
     public static class DefaultModule implements IWingsModule {
 
@@ -258,5 +530,17 @@ public final class Wings {
         public Bus provideBus() {
             return new Bus();
         }
+
+        /**
+         * Provides the storage for share requests.
+         *
+         * @param dbHelper the default SQLite storage.
+         * @return the {@link com.groundupworks.wings.core.ShareQueue}.
+         */
+        @Singleton
+        @Provides
+        public ShareQueue provideShareQueue(WingsDbHelper dbHelper) {
+            return dbHelper;
+        }
     }
 }
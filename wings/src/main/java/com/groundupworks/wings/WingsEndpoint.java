@@ -21,11 +21,18 @@ import android.content.Intent;
 import android.os.Handler;
 import android.support.v4.app.Fragment;
 
+import com.groundupworks.wings.core.Destination;
+import com.groundupworks.wings.core.ShareCheckout;
+import com.groundupworks.wings.core.ShareQueue;
 import com.groundupworks.wings.core.ShareRequest;
-import com.groundupworks.wings.core.WingsDbHelper;
+import com.groundupworks.wings.core.ShareResults;
+import com.groundupworks.wings.core.ShareUploader;
+import com.groundupworks.wings.core.UploadDispatcher;
+import com.groundupworks.wings.core.UploadResult;
 import com.groundupworks.wings.core.WingsInjector;
 import com.squareup.otto.Bus;
 
+import java.util.HashSet;
 import java.util.Set;
 
 /**
@@ -51,9 +58,15 @@ public abstract class WingsEndpoint {
     protected final Handler mHandler = new Handler(WingsInjector.getWorkerLooper());
 
     /**
-     * The Wings database.
+     * The Wings share queue.
      */
-    protected final WingsDbHelper mDatabase = WingsInjector.getDatabase();
+    protected final ShareQueue mDatabase = WingsInjector.getShareQueue();
+
+    /**
+     * The accumulator for the results of processing share requests. Results recorded here are committed to
+     * {@link #mDatabase} in batches.
+     */
+    protected final ShareResults mShareResults = mDatabase.getShareResults();
 
     /**
      * The event bus to communicate link events.
@@ -80,6 +93,113 @@ public abstract class WingsEndpoint {
         mBus.post(event);
     }
 
+    /**
+     * Uploads checked out share requests with {@link #uploadShareRequest(ShareRequest)}, keeping up to
+     * {@link #getMaxConcurrentUploads()} in flight.
+     *
+     * @param shareRequests the {@link com.groundupworks.wings.core.ShareCheckout} to upload.
+     * @return the {@link com.groundupworks.wings.core.UploadDispatcher.Summary}; or null if interrupted.
+     */
+    private UploadDispatcher.Summary dispatchUploads(ShareCheckout shareRequests) {
+        ShareUploader uploader = new ShareUploader() {
+            @Override
+            public UploadResult upload(ShareRequest shareRequest) {
+                return uploadShareRequest(shareRequest);
+            }
+        };
+
+        try {
+            return UploadDispatcher.dispatch(shareRequests, uploader, getMaxConcurrentUploads(), mShareResults);
+        } catch (InterruptedException e) {
+            // Records not dispatched are already marked as failed.
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * Checks out the {@link ShareRequest} of a destination that need to be processed, streamed from
+     * {@link #mDatabase} one page at a time so a large backlog is never held in memory at once.
+     *
+     * @param destination the destination of the {@link ShareRequest} to checkout.
+     * @return the {@link com.groundupworks.wings.core.ShareCheckout}, to be consumed once.
+     */
+    protected ShareCheckout checkoutShareRequests(Destination destination) {
+        return new ShareCheckout(mDatabase, destination, ShareCheckout.DEFAULT_PAGE_SIZE, getCheckoutOrder(),
+                getCheckoutByteBudget());
+    }
+
+    /**
+     * Gets the order in which {@link #checkoutShareRequests(Destination)} hands out share requests. Override to trade
+     * fairness for throughput, for example to keep a large file from holding up the small ones behind it.
+     *
+     * @return one of {@link com.groundupworks.wings.core.ShareCheckout#ORDER_FIFO} or
+     * {@link com.groundupworks.wings.core.ShareCheckout#ORDER_SMALLEST_FIRST}. Defaults to first in, first out.
+     */
+    protected int getCheckoutOrder() {
+        return ShareCheckout.ORDER_FIFO;
+    }
+
+    /**
+     * Gets the total file size after which {@link #checkoutShareRequests(Destination)} stops handing out share
+     * requests in a pass. Override to bound the duration of a pass on a slow uplink.
+     *
+     * @return the byte budget. Defaults to {@link com.groundupworks.wings.core.ShareCheckout#UNLIMITED_BYTES}.
+     */
+    protected long getCheckoutByteBudget() {
+        return ShareCheckout.UNLIMITED_BYTES;
+    }
+
+    /**
+     * Gets the maximum number of uploads {@link #processShareRequests()} keeps in flight. Override to use more of a
+     * high-latency uplink, if the endpoint accepts uploads in any order.
+     *
+     * @return the maximum number of concurrent uploads. Defaults to 1, uploading in checkout order.
+     */
+    protected int getMaxConcurrentUploads() {
+        return 1;
+    }
+
+    /**
+     * Gets the destination that {@link #processShareRequests()} uploads the share requests of.
+     *
+     * @return the {@link com.groundupworks.wings.core.Destination}; or null if unlinked. Defaults to the destination
+     * of the {@link #getLinkInfo()}.
+     */
+    protected Destination getUploadDestination() {
+        LinkInfo linkInfo = getLinkInfo();
+        if (linkInfo != null) {
+            return new Destination(linkInfo.mDestinationId, getEndpointId());
+        }
+        return null;
+    }
+
+    /**
+     * Prepares to upload share requests in a pass, for example by opening a session that
+     * {@link #uploadShareRequest(ShareRequest)} then uses. Called before the share requests are checked out, so it may
+     * be called in a pass with nothing to upload.
+     *
+     * @param destination the destination of the share requests.
+     * @return true to upload; false to skip the pass and leave the share requests pending, without counting a failure.
+     * Defaults to true.
+     */
+    protected boolean prepareUploads(Destination destination) {
+        return true;
+    }
+
+    /**
+     * Creates the notification for the share requests uploaded in a pass.
+     *
+     * @param destination the destination of the share requests.
+     * @param summary     the {@link com.groundupworks.wings.core.UploadDispatcher.Summary}, with at least one
+     *                    successful upload.
+     * @return the {@link com.groundupworks.wings.WingsEndpoint.ShareNotification}; or null for no notification.
+     * Defaults to null.
+     */
+    protected ShareNotification createShareNotification(Destination destination, UploadDispatcher.Summary summary) {
+        return null;
+    }
+
     /**
      * The id that is unique to each endpoint.
      *
@@ -136,14 +256,51 @@ public abstract class WingsEndpoint {
      */
     public abstract LinkInfo getLinkInfo();
 
+    /**
+     * Uploads a single share request to the linked account. Called on a background thread after
+     * {@link #prepareUploads(Destination)}, possibly on several threads at once if {@link #getMaxConcurrentUploads()}
+     * is above 1. The core records the result, so the implementation must not mark the share request itself.
+     *
+     * @param shareRequest the {@link ShareRequest} to upload.
+     * @return the {@link com.groundupworks.wings.core.UploadResult}. A null result or a thrown exception counts as a
+     * transient failure.
+     */
+    public abstract UploadResult uploadShareRequest(ShareRequest shareRequest);
+
     /**
      * Process share requests by sharing to the linked account. This should be called in a background
-     * thread.
+     * thread. The result of each processed {@link ShareRequest} is recorded in {@link #mShareResults}.
+     * <p/>
+     * Kept for compatibility, the default implementation checks out the share requests of
+     * {@link #getUploadDestination()} and uploads each with {@link #uploadShareRequest(ShareRequest)} through the
+     * {@link com.groundupworks.wings.core.UploadDispatcher}. Endpoints should not need to override it.
      *
      * @return a set of {@link com.groundupworks.wings.WingsEndpoint.ShareNotification}s representing the results of the processed {@link ShareRequest}.
      * May be null or an empty set.
      */
-    public abstract Set<ShareNotification> processShareRequests();
+    public Set<ShareNotification> processShareRequests() {
+        Set<ShareNotification> notifications = new HashSet<ShareNotification>();
+
+        // Nothing is checked out until the endpoint is ready, so a pass that cannot upload leaves the share requests
+        // pending without counting a failure against them.
+        Destination destination = getUploadDestination();
+        if (destination != null && prepareUploads(destination)) {
+            ShareCheckout shareRequests = checkoutShareRequests(destination);
+            if (shareRequests.hasNext()) {
+                UploadDispatcher.Summary summary = dispatchUploads(shareRequests);
+
+                // Construct and add notification representing share results.
+                if (summary != null && summary.getSharedCount() > 0) {
+                    ShareNotification notification = createShareNotification(destination, summary);
+                    if (notification != null) {
+                        notifications.add(notification);
+                    }
+                }
+            }
+        }
+
+        return notifications;
+    }
 
     /**
      * Produces a {@link com.groundupworks.wings.WingsEndpoint.LinkEvent} subclass reflecting the current link
@@ -0,0 +1,478 @@
+/*
+ * Copyright (C) 2015 Benedict Lau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groundupworks.wings.core;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.squareup.otto.Bus;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A {@link ShareQueue} that enforces a {@link QueueCapacity} on top of another {@link ShareQueue}. New shares beyond
+ * the maximum depth of a destination are handled by the overflow policy, and a {@link QueueWatermarkEvent} is posted
+ * to the {@link Bus} on the main thread whenever a destination reaches the high watermark or drains back down to the
+ * low watermark. The depths are read from {@link ShareQueue#getQueueStats(Destination)}, so the checks do not touch
+ * storage, and are skipped altogether while the capacity is {@link QueueCapacity#UNBOUNDED}. A
+ * {@link DeadLetterEvent} is also posted whenever a purge moves records to the dead letters.
+ *
+ * @author Benedict Lau
+ */
+public class BoundedShareQueue implements ShareQueue {
+
+    /**
+     * The queue that stores the records.
+     */
+    private final ShareQueue mShareQueue;
+
+    /**
+     * The event bus to post watermark events to.
+     */
+    private final Bus mBus;
+
+    /**
+     * The {@link Handler} to post events on the main thread.
+     */
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * The accumulator that batches results into this queue, so watermarks are checked after each flush.
+     */
+    private final ShareResults mShareResults = new ShareResults(this);
+
+    /**
+     * The hashes of the destinations that reached the high watermark and have not yet drained to the low watermark.
+     */
+    private final Set<Integer> mHighDestinationHashes = new HashSet<Integer>();
+
+    /**
+     * The number of dead letters after the last purge, requeue or discard.
+     */
+    private int mDeadLetterCount = 0;
+
+    /**
+     * The capacity.
+     */
+    private volatile QueueCapacity mCapacity = QueueCapacity.UNBOUNDED;
+
+    /**
+     * Constructor.
+     *
+     * @param shareQueue the queue that stores the records.
+     * @param bus        the event bus to post watermark events to.
+     */
+    public BoundedShareQueue(ShareQueue shareQueue, Bus bus) {
+        mShareQueue = shareQueue;
+        mBus = bus;
+    }
+
+    //
+    // Private methods.
+    //
+
+    /**
+     * Gets the depth of a destination.
+     *
+     * @param stats           the {@link QueueStats}.
+     * @param destinationHash the destination hash.
+     * @return the number of pending and processing records.
+     */
+    private static int getDepth(QueueStats stats, int destinationHash) {
+        Destination destination = Destination.from(destinationHash);
+        return stats.getPendingCount(destination) + stats.getProcessingCount(destination);
+    }
+
+    /**
+     * Gets the number of new records of a destination there is room for, without changing the queue. A full
+     * destination still has room for as many new records as the overflow policy can drop once they are created.
+     *
+     * @param capacity    the {@link QueueCapacity}.
+     * @param destination the destination.
+     * @param count       the number of new records.
+     * @return the number of new records there is room for, between 0 and {@code count}.
+     */
+    private int getRoom(QueueCapacity capacity, Destination destination, int count) {
+        if (capacity == QueueCapacity.UNBOUNDED) {
+            return count;
+        }
+
+        QueueStats stats = mShareQueue.getQueueStats(destination);
+        int overflow = (int) Math.min(count, (long) getDepth(stats, destination.getHash()) + count
+                - capacity.getMaxDepth());
+        if (overflow <= 0) {
+            return count;
+        }
+
+        int droppable = 0;
+        if (capacity.getOverflowPolicy() == QueueCapacity.OVERFLOW_DROP_OLDEST) {
+            droppable = stats.getPendingCount(destination);
+        } else if (capacity.getOverflowPolicy() == QueueCapacity.OVERFLOW_DEGRADE) {
+            droppable = Math.min(stats.getPendingCount(destination), stats.getFailedCount(destination));
+        }
+        return count - overflow + Math.min(overflow, droppable);
+    }
+
+    /**
+     * Applies the overflow policy once new records of a destination are created, by dropping the oldest records beyond
+     * the maximum depth. Only as many records as were created are dropped, so records already beyond the maximum depth
+     * are kept. The new records are never dropped, since older pending records are always dropped first.
+     *
+     * @param capacity    the {@link QueueCapacity}.
+     * @param destination the destination.
+     * @param count       the number of new records.
+     */
+    private void trim(QueueCapacity capacity, Destination destination, int count) {
+        if (capacity == QueueCapacity.UNBOUNDED || capacity.getOverflowPolicy() == QueueCapacity.OVERFLOW_REJECT_NEW
+                || count <= 0) {
+            return;
+        }
+
+        int overflow = getDepth(mShareQueue.getQueueStats(destination), destination.getHash())
+                - capacity.getMaxDepth();
+        if (overflow > 0) {
+            mShareQueue.dropOldestShareRequests(destination, Math.min(overflow, count),
+                    capacity.getOverflowPolicy() == QueueCapacity.OVERFLOW_DEGRADE);
+        }
+    }
+
+    /**
+     * Checks whether the watermarks can be crossed at all. A destination left above the high watermark by a previous
+     * capacity still needs its low watermark event.
+     *
+     * @param capacity the {@link QueueCapacity}.
+     * @return true if the watermarks need to be checked; false otherwise.
+     */
+    private boolean isWatermarkCheckNeeded(QueueCapacity capacity) {
+        return capacity != QueueCapacity.UNBOUNDED || !mHighDestinationHashes.isEmpty();
+    }
+
+    /**
+     * Posts a {@link QueueWatermarkEvent} if a destination crossed a watermark since the last check.
+     *
+     * @param capacity        the {@link QueueCapacity}.
+     * @param stats           the {@link QueueStats}.
+     * @param destinationHash the destination hash.
+     */
+    private void checkWatermark(QueueCapacity capacity, QueueStats stats, int destinationHash) {
+        int depth = getDepth(stats, destinationHash);
+        if (depth >= capacity.getHighWatermark() && mHighDestinationHashes.add(destinationHash)) {
+            post(new QueueWatermarkEvent(Destination.from(destinationHash), depth, true));
+        } else if (depth <= capacity.getLowWatermark() && mHighDestinationHashes.remove(destinationHash)) {
+            post(new QueueWatermarkEvent(Destination.from(destinationHash), depth, false));
+        }
+    }
+
+    /**
+     * Posts a {@link QueueWatermarkEvent} for each destination that crossed a watermark since the last check.
+     */
+    private void checkWatermarks() {
+        QueueCapacity capacity = mCapacity;
+        if (!isWatermarkCheckNeeded(capacity)) {
+            return;
+        }
+
+        QueueStats stats = mShareQueue.getQueueStats();
+        Set<Integer> destinationHashes = new HashSet<Integer>(mHighDestinationHashes);
+        for (Destination destination : stats.getDestinations()) {
+            destinationHashes.add(destination.getHash());
+        }
+
+        for (Integer destinationHash : destinationHashes) {
+            checkWatermark(capacity, stats, destinationHash);
+        }
+    }
+
+    /**
+     * Posts a {@link QueueWatermarkEvent} if a single destination crossed a watermark since the last check, reading
+     * the counts of that destination only.
+     *
+     * @param destination the destination.
+     */
+    private void checkWatermarks(Destination destination) {
+        QueueCapacity capacity = mCapacity;
+        if (isWatermarkCheckNeeded(capacity)) {
+            checkWatermark(capacity, mShareQueue.getQueueStats(destination), destination.getHash());
+        }
+    }
+
+    /**
+     * Posts an event to the {@link Bus} on the main thread.
+     *
+     * @param event the event.
+     */
+    private void post(final Object event) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mBus.post(event);
+            }
+        });
+    }
+
+    //
+    // Public methods.
+    //
+
+    /**
+     * Sets the capacity, which applies to new shares from now on. Records already beyond the maximum depth are kept.
+     *
+     * @param capacity the {@link QueueCapacity}.
+     */
+    public synchronized void setCapacity(QueueCapacity capacity) {
+        mCapacity = capacity;
+        checkWatermarks();
+    }
+
+    /**
+     * Gets the capacity.
+     *
+     * @return the {@link QueueCapacity}.
+     */
+    public QueueCapacity getCapacity() {
+        return mCapacity;
+    }
+
+    @Override
+    public synchronized boolean createShareRequest(String filePath, Destination destination, int priority) {
+        // Create first, so nothing is dropped for a share that fails to be created.
+        QueueCapacity capacity = mCapacity;
+        boolean isSuccessful = getRoom(capacity, destination, 1) == 1
+                && mShareQueue.createShareRequest(filePath, destination, priority);
+        if (isSuccessful) {
+            trim(capacity, destination, 1);
+        }
+        checkWatermarks(destination);
+        return isSuccessful;
+    }
+
+    @Override
+    public synchronized List<String> createShareRequests(Collection<String> filePaths, Destination destination,
+                                                         int priority) {
+        // Accept as many files as there is room for, in the order they were passed.
+        QueueCapacity capacity = mCapacity;
+        int room = getRoom(capacity, destination, filePaths.size());
+        List<String> acceptedFilePaths = new ArrayList<String>(filePaths);
+        if (room < acceptedFilePaths.size()) {
+            acceptedFilePaths = acceptedFilePaths.subList(0, room);
+        }
+
+        List<String> createdFilePaths = acceptedFilePaths.isEmpty() ? new ArrayList<String>()
+                : mShareQueue.createShareRequests(acceptedFilePaths, destination, priority);
+        trim(capacity, destination, createdFilePaths.size());
+        checkWatermarks(destination);
+        return createdFilePaths;
+    }
+
+    @Override
+    public synchronized boolean createShareRequests(String filePath, Collection<Destination> destinations,
+                                                    int priority) {
+        // Either all or none of the records are created, so every destination must have room before any is trimmed.
+        QueueCapacity capacity = mCapacity;
+        boolean isSuccessful = true;
+        for (Destination destination : destinations) {
+            if (getRoom(capacity, destination, 1) < 1) {
+                isSuccessful = false;
+                break;
+            }
+        }
+
+        isSuccessful = isSuccessful && mShareQueue.createShareRequests(filePath, destinations, priority);
+        for (Destination destination : destinations) {
+            if (isSuccessful) {
+                trim(capacity, destination, 1);
+            }
+            checkWatermarks(destination);
+        }
+        return isSuccessful;
+    }
+
+    @Override
+    public synchronized int createUniqueShareRequest(String filePath, Destination destination, int priority,
+                                                     String contentHash) {
+        // A duplicate never needs room, so check for it before applying the overflow policy.
+        QueueCapacity capacity = mCapacity;
+        int id = -1;
+        if (mShareQueue.findShareRequest(destination, contentHash) < 0 && getRoom(capacity, destination, 1) == 1) {
+            id = mShareQueue.createUniqueShareRequest(filePath, destination, priority, contentHash);
+            if (id >= 0) {
+                trim(capacity, destination, 1);
+            }
+        }
+        checkWatermarks(destination);
+        return id;
+    }
+
+    @Override
+    public int findShareRequest(Destination destination, String contentHash) {
+        return mShareQueue.findShareRequest(destination, contentHash);
+    }
+
+    @Override
+    public List<ShareRequest> checkoutShareRequests(Destination destination) {
+        return mShareQueue.checkoutShareRequests(destination);
+    }
+
+    @Override
+    public List<ShareRequest> checkoutShareRequests(Destination destination, int maxBatch) {
+        return mShareQueue.checkoutShareRequests(destination, maxBatch);
+    }
+
+    @Override
+    public List<ShareRequest> checkoutShareRequests(Destination destination, int maxBatch, int order, long maxBytes) {
+        return mShareQueue.checkoutShareRequests(destination, maxBatch, order, maxBytes);
+    }
+
+    @Override
+    public synchronized void deleteShareRequests(Destination destination) {
+        mShareQueue.deleteShareRequests(destination);
+        checkWatermarks(destination);
+    }
+
+    @Override
+    public synchronized void deleteEndpointShareRequests(int endpointId) {
+        mShareQueue.deleteEndpointShareRequests(endpointId);
+        checkWatermarks();
+    }
+
+    @Override
+    public synchronized boolean discardPendingShareRequest(int id) {
+        boolean isSuccessful = mShareQueue.discardPendingShareRequest(id);
+        checkWatermarks();
+        return isSuccessful;
+    }
+
+    @Override
+    public synchronized int dropOldestShareRequests(Destination destination, int count, boolean isFailedOnly) {
+        int recordsDropped = mShareQueue.dropOldestShareRequests(destination, count, isFailedOnly);
+        checkWatermarks(destination);
+        return recordsDropped;
+    }
+
+    @Override
+    public synchronized boolean markSuccessful(int id) {
+        boolean isSuccessful = mShareQueue.markSuccessful(id);
+        checkWatermarks();
+        return isSuccessful;
+    }
+
+    @Override
+    public synchronized boolean markFailed(int id) {
+        return mShareQueue.markFailed(id);
+    }
+
+    @Override
+    public synchronized int markSuccessful(int[] ids) {
+        int recordsUpdated = mShareQueue.markSuccessful(ids);
+        checkWatermarks();
+        return recordsUpdated;
+    }
+
+    @Override
+    public int markFailed(int[] ids) {
+        return mShareQueue.markFailed(ids);
+    }
+
+    @Override
+    public int markFailed(int[] ids, int failureType) {
+        return mShareQueue.markFailed(ids, failureType);
+    }
+
+    @Override
+    public synchronized int markResults(int[] successfulIds, int[] failedIds) {
+        int recordsUpdated = mShareQueue.markResults(successfulIds, failedIds);
+        checkWatermarks();
+        return recordsUpdated;
+    }
+
+    @Override
+    public synchronized int markRejected(int[] ids) {
+        int recordsUpdated = mShareQueue.markRejected(ids);
+        checkWatermarks();
+        return recordsUpdated;
+    }
+
+    @Override
+    public ShareResults getShareResults() {
+        return mShareResults;
+    }
+
+    @Override
+    public int reclaimExpiredLeases() {
+        return mShareQueue.reclaimExpiredLeases();
+    }
+
+    @Override
+    public synchronized int purge() {
+        int recordsRemaining = mShareQueue.purge();
+        checkWatermarks();
+
+        // Tell the client if records were given up on, or if any are still waiting from a previous process.
+        int deadLetterCount = mShareQueue.countDeadLetters();
+        if (deadLetterCount > mDeadLetterCount) {
+            post(new DeadLetterEvent(deadLetterCount));
+        }
+        if (deadLetterCount >= 0) {
+            mDeadLetterCount = deadLetterCount;
+        }
+
+        return recordsRemaining;
+    }
+
+    @Override
+    public List<DeadLetter> getDeadLetters() {
+        return mShareQueue.getDeadLetters();
+    }
+
+    @Override
+    public int countDeadLetters() {
+        return mShareQueue.countDeadLetters();
+    }
+
+    @Override
+    public synchronized int requeueDeadLetters(int[] ids) {
+        int recordsRequeued = mShareQueue.requeueDeadLetters(ids);
+        mDeadLetterCount = Math.max(0, mShareQueue.countDeadLetters());
+        checkWatermarks();
+        return recordsRequeued;
+    }
+
+    @Override
+    public synchronized int discardDeadLetters(int[] ids) {
+        int recordsDiscarded = mShareQueue.discardDeadLetters(ids);
+        mDeadLetterCount = Math.max(0, mShareQueue.countDeadLetters());
+        return recordsDiscarded;
+    }
+
+    @Override
+    public int countShareRequests() {
+        return mShareQueue.countShareRequests();
+    }
+
+    @Override
+    public QueueStats getQueueStats() {
+        return mShareQueue.getQueueStats();
+    }
+
+    @Override
+    public QueueStats getQueueStats(Destination destination) {
+        return mShareQueue.getQueueStats(destination);
+    }
+}
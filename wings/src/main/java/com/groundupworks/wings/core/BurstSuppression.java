@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2015 Benedict Lau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groundupworks.wings.core;
+
+/**
+ * How {@link ShareEnqueuer} coalesces a burst of near-identical images shared to the same destination. Each image is
+ * reduced to a 64-bit difference hash, and an image within the window of the previous frame of the burst whose hash
+ * differs by at most the maximum distance is a near-duplicate. Only one frame of the burst is kept, and the others are
+ * discarded while they are still pending.
+ *
+ * @author Benedict Lau
+ */
+public class BurstSuppression {
+
+    /**
+     * Keeps the most recent frame of a burst.
+     */
+    public static final int KEEP_NEWEST = 0;
+
+    /**
+     * Keeps the sharpest frame of a burst, measured by the variance of the Laplacian of a downsampled frame.
+     */
+    public static final int KEEP_SHARPEST = 1;
+
+    /**
+     * The maximum distance by default, in bits out of 64.
+     */
+    private static final int DEFAULT_MAX_DISTANCE = 6;
+
+    /**
+     * The maximum time between two frames of the same burst, in milliseconds.
+     */
+    private final long mWindow;
+
+    /**
+     * The maximum number of bits by which the hashes of two near-duplicates differ.
+     */
+    private final int mMaxDistance;
+
+    /**
+     * The frame to keep.
+     */
+    private final int mKeep;
+
+    /**
+     * Constructor with a maximum distance of 6 bits out of 64.
+     *
+     * @param window the maximum time between two frames of the same burst, in milliseconds. Must be positive.
+     * @param keep   one of {@link #KEEP_NEWEST} or {@link #KEEP_SHARPEST}.
+     * @throws IllegalArgumentException if an argument is invalid.
+     */
+    public BurstSuppression(long window, int keep) throws IllegalArgumentException {
+        this(window, DEFAULT_MAX_DISTANCE, keep);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param window      the maximum time between two frames of the same burst, in milliseconds. Must be positive.
+     * @param maxDistance the maximum number of bits, between 0 and 64, by which the hashes of two near-duplicates
+     *                    differ.
+     * @param keep        one of {@link #KEEP_NEWEST} or {@link #KEEP_SHARPEST}.
+     * @throws IllegalArgumentException if an argument is invalid.
+     */
+    public BurstSuppression(long window, int maxDistance, int keep) throws IllegalArgumentException {
+        if (window <= 0) {
+            throw new IllegalArgumentException("window must be positive");
+        }
+        if (maxDistance < 0 || maxDistance > Long.SIZE) {
+            throw new IllegalArgumentException("maxDistance must be between 0 and 64");
+        }
+        if (keep != KEEP_NEWEST && keep != KEEP_SHARPEST) {
+            throw new IllegalArgumentException("Unknown keep " + keep);
+        }
+
+        mWindow = window;
+        mMaxDistance = maxDistance;
+        mKeep = keep;
+    }
+
+    /**
+     * @return the maximum time between two frames of the same burst, in milliseconds.
+     */
+    public long getWindow() {
+        return mWindow;
+    }
+
+    /**
+     * @return the maximum number of bits by which the hashes of two near-duplicates differ.
+     */
+    public int getMaxDistance() {
+        return mMaxDistance;
+    }
+
+    /**
+     * @return the frame to keep.
+     */
+    public int getKeep() {
+        return mKeep;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2015 Benedict Lau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groundupworks.wings.core;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Computes the hash of the content of a file, used to recognize a file that is shared again to the same destination.
+ * Reads the whole file, so it must be called off the main thread.
+ *
+ * @author Benedict Lau
+ */
+public final class ContentHash {
+
+    /**
+     * The digest algorithm.
+     */
+    private static final String ALGORITHM = "SHA-1";
+
+    /**
+     * The length of a content hash, in hexadecimal characters.
+     */
+    public static final int LENGTH = 40;
+
+    /**
+     * The size of the buffer used to read the file, in bytes.
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * The hexadecimal digits.
+     */
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * Private constructor to ensure this class cannot be instantiated.
+     */
+    private ContentHash() {
+    }
+
+    /**
+     * Computes the hash of the content of a file.
+     *
+     * @param filePath the local path to the file.
+     * @return the hash, as {@link #LENGTH} lowercase hexadecimal characters; or null if the file cannot be read.
+     */
+    public static String compute(String filePath) {
+        if (filePath == null) {
+            return null;
+        }
+
+        String contentHash = null;
+        InputStream inputStream = null;
+        try {
+            MessageDigest digest = MessageDigest.getInstance(ALGORITHM);
+            inputStream = new FileInputStream(filePath);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int bytesRead;
+            while ((bytesRead = inputStream.read(buffer)) != -1) {
+                digest.update(buffer, 0, bytesRead);
+            }
+
+            byte[] hash = digest.digest();
+            char[] hex = new char[hash.length * 2];
+            for (int i = 0; i < hash.length; i++) {
+                hex[i * 2] = HEX_DIGITS[(hash[i] >> 4) & 0xf];
+                hex[i * 2 + 1] = HEX_DIGITS[hash[i] & 0xf];
+            }
+            contentHash = new String(hex);
+        } catch (NoSuchAlgorithmException e) {
+            // Do nothing.
+        } catch (IOException e) {
+            // Do nothing.
+        } finally {
+            if (inputStream != null) {
+                try {
+                    inputStream.close();
+                } catch (IOException e) {
+                    // Do nothing.
+                }
+            }
+        }
+
+        return contentHash;
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2015 Benedict Lau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groundupworks.wings.core;
+
+/**
+ * A {@link ShareRequest} that the purge policy gave up on, kept aside so the client can requeue or discard it.
+ *
+ * @author Benedict Lau
+ */
+public class DeadLetter {
+
+    /**
+     * Reason for a share that failed more than the maximum number of times.
+     */
+    public static final int REASON_RETRIES_EXHAUSTED = 0;
+
+    /**
+     * Reason for a share that was not processed successfully before it expired.
+     */
+    public static final int REASON_EXPIRED = 1;
+
+    /**
+     * Reason for a share that the endpoint rejected as not worth retrying.
+     */
+    public static final int REASON_REJECTED = 2;
+
+    /**
+     * The id of the share, which is kept if the share is requeued.
+     */
+    private final int mId;
+
+    /**
+     * The local path to the file to share.
+     */
+    private final String mFilePath;
+
+    /**
+     * The destination of the share.
+     */
+    private final Destination mDestination;
+
+    /**
+     * The time the share was created.
+     */
+    private final long mTimeCreated;
+
+    /**
+     * The number of times sharing failed.
+     */
+    private final int mFails;
+
+    /**
+     * The time of the last failure to share; or 0 if sharing never failed.
+     */
+    private final long mLastFailedAt;
+
+    /**
+     * The reason the share was given up on.
+     */
+    private final int mReason;
+
+    /**
+     * The {@link UploadResult} type of the last failure to share; or {@link UploadResult#TYPE_SUCCESS} if sharing never
+     * failed.
+     */
+    private final int mLastFailureType;
+
+    /**
+     * Constructor.
+     *
+     * @param id              the id of the share.
+     * @param filePath        the local path to the file to share.
+     * @param destination     the destination of the share.
+     * @param timeCreated     the time the share was created.
+     * @param fails           the number of times sharing failed.
+     * @param lastFailedAt    the time of the last failure to share; or 0 if sharing never failed.
+     * @param reason          one of {@link #REASON_RETRIES_EXHAUSTED}, {@link #REASON_EXPIRED} or
+     *                        {@link #REASON_REJECTED}.
+     * @param lastFailureType the {@link UploadResult} type of the last failure to share.
+     */
+    DeadLetter(int id, String filePath, Destination destination, long timeCreated, int fails, long lastFailedAt,
+               int reason, int lastFailureType) {
+        mId = id;
+        mFilePath = filePath;
+        mDestination = destination;
+        mTimeCreated = timeCreated;
+        mFails = fails;
+        mLastFailedAt = lastFailedAt;
+        mReason = reason;
+        mLastFailureType = lastFailureType;
+    }
+
+    /**
+     * Gets the reason a share is given up on by the purge policy.
+     *
+     * @param fails           the number of times sharing failed.
+     * @param lastFailureType the {@link UploadResult} type of the last failure to share.
+     * @return {@link #REASON_REJECTED} if the endpoint rejected the share; {@link #REASON_RETRIES_EXHAUSTED} if the
+     * share failed too many times; {@link #REASON_EXPIRED} otherwise.
+     */
+    static int getReason(int fails, int lastFailureType) {
+        if (lastFailureType == UploadResult.TYPE_PERMANENT_FAILURE) {
+            return REASON_REJECTED;
+        }
+        return fails > WingsDbHelper.RECORD_MAX_FAILS ? REASON_RETRIES_EXHAUSTED : REASON_EXPIRED;
+    }
+
+    /**
+     * Gets the id of the share, to requeue or discard it.
+     *
+     * @return the id.
+     */
+    public int getId() {
+        return mId;
+    }
+
+    /**
+     * Gets the local path to the file to share.
+     *
+     * @return the file path.
+     */
+    public String getFilePath() {
+        return mFilePath;
+    }
+
+    /**
+     * Gets the destination of the share.
+     *
+     * @return the {@link Destination}.
+     */
+    public Destination getDestination() {
+        return mDestination;
+    }
+
+    /**
+     * Gets the time the share was created.
+     *
+     * @return the time in milliseconds since epoch.
+     */
+    public long getTimeCreated() {
+        return mTimeCreated;
+    }
+
+    /**
+     * Gets the number of times sharing failed.
+     *
+     * @return the number of failures.
+     */
+    public int getFails() {
+        return mFails;
+    }
+
+    /**
+     * Gets the time of the last failure to share.
+     *
+     * @return the time in milliseconds since epoch; or 0 if sharing never failed.
+     */
+    public long getLastFailedAt() {
+        return mLastFailedAt;
+    }
+
+    /**
+     * Gets the reason the share was given up on.
+     *
+     * @return one of {@link #REASON_RETRIES_EXHAUSTED}, {@link #REASON_EXPIRED} or {@link #REASON_REJECTED}.
+     */
+    public int getReason() {
+        return mReason;
+    }
+
+    /**
+     * Gets the type of the last failure to share, for example to tell a share that kept failing authentication from
+     * one that kept failing on the network.
+     *
+     * @return one of {@link UploadResult#TYPE_TRANSIENT_FAILURE}, {@link UploadResult#TYPE_PERMANENT_FAILURE} or
+     * {@link UploadResult#TYPE_AUTH_FAILURE}; or {@link UploadResult#TYPE_SUCCESS} if sharing never failed.
+     */
+    public int getLastFailureType() {
+        return mLastFailureType;
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2015 Benedict Lau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groundupworks.wings.core;
+
+/**
+ * An event emitted on the main thread when the purge policy gives up on shares and moves them to the dead letters.
+ *
+ * @author Benedict Lau
+ */
+public class DeadLetterEvent {
+
+    /**
+     * The number of dead letters, including the new ones.
+     */
+    private final int mDeadLetterCount;
+
+    /**
+     * Constructor.
+     *
+     * @param deadLetterCount the number of dead letters, including the new ones.
+     */
+    DeadLetterEvent(int deadLetterCount) {
+        mDeadLetterCount = deadLetterCount;
+    }
+
+    /**
+     * Gets the number of dead letters waiting to be requeued or discarded.
+     *
+     * @return the number of dead letters, including the new ones.
+     */
+    public int getDeadLetterCount() {
+        return mDeadLetterCount;
+    }
+}
@@ -22,7 +22,15 @@ package com.groundupworks.wings.core;
  */
 public class Destination {
 
-    private static final int FOUR_BYTES = 0xffff;
+    /**
+     * The number of bits the destination id is shifted by in the hash.
+     */
+    private static final int ID_SHIFT = 16;
+
+    /**
+     * The mask for each of the two halves of the hash.
+     */
+    private static final int TWO_BYTES = 0xffff;
 
     /**
      * The destination id for the share.
@@ -41,8 +49,8 @@ public class Destination {
      * @param hash the hash.
      */
     public static final Destination from(int hash) {
-        final int id = (hash >> FOUR_BYTES) & FOUR_BYTES;
-        final int endpointId = hash & FOUR_BYTES;
+        final int id = (hash >>> ID_SHIFT) & TWO_BYTES;
+        final int endpointId = hash & TWO_BYTES;
         return new Destination(id, endpointId);
     }
 
@@ -81,6 +89,6 @@ public class Destination {
      * @return the destination hash.
      */
     public int getHash() {
-        return (mId << FOUR_BYTES) | mEndpointId;
+        return ((mId & TWO_BYTES) << ID_SHIFT) | (mEndpointId & TWO_BYTES);
     }
 }
@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2015 Benedict Lau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groundupworks.wings.core;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Color;
+
+/**
+ * The perceptual hash and sharpness of an image, computed from a subsampled decode so the full image is never held in
+ * memory. Must be computed off the main thread.
+ *
+ * @author Benedict Lau
+ */
+final class ImageFingerprint {
+
+    /**
+     * The width of the grid the difference hash is computed on. One more than the height, so each row yields 8 bits.
+     */
+    private static final int HASH_GRID_WIDTH = 9;
+
+    /**
+     * The height of the grid the difference hash is computed on.
+     */
+    private static final int HASH_GRID_HEIGHT = 8;
+
+    /**
+     * The minimum length of the shorter side of the decoded image when only the hash is needed, in pixels.
+     */
+    private static final int HASH_SAMPLED_SIZE = 64;
+
+    /**
+     * The minimum length of the shorter side of the decoded image when the sharpness is needed, in pixels.
+     */
+    private static final int SHARPNESS_SAMPLED_SIZE = 256;
+
+    /**
+     * The difference hash, with a bit set for each pixel of the grid brighter than its right neighbour.
+     */
+    final long mHash;
+
+    /**
+     * The variance of the Laplacian of the decoded image; or 0 if not computed.
+     */
+    final double mSharpness;
+
+    /**
+     * Constructor.
+     *
+     * @param hash      the difference hash.
+     * @param sharpness the sharpness.
+     */
+    private ImageFingerprint(long hash, double sharpness) {
+        mHash = hash;
+        mSharpness = sharpness;
+    }
+
+    /**
+     * Computes the fingerprint of an image.
+     *
+     * @param filePath          the local path to the image.
+     * @param isSharpnessNeeded true to also compute the sharpness, which needs a larger decode.
+     * @return the fingerprint; or null if the file cannot be decoded as an image.
+     */
+    static ImageFingerprint compute(String filePath, boolean isSharpnessNeeded) {
+        // Read the bounds first, to decode no more pixels than needed.
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(filePath, options);
+        int shorterSide = Math.min(options.outWidth, options.outHeight);
+        if (shorterSide <= 0) {
+            return null;
+        }
+
+        int sampledSize = isSharpnessNeeded ? SHARPNESS_SAMPLED_SIZE : HASH_SAMPLED_SIZE;
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = 1;
+        while (shorterSide / (options.inSampleSize * 2) >= sampledSize) {
+            options.inSampleSize *= 2;
+        }
+
+        Bitmap bitmap = BitmapFactory.decodeFile(filePath, options);
+        if (bitmap == null) {
+            return null;
+        }
+
+        try {
+            return new ImageFingerprint(getDifferenceHash(bitmap), isSharpnessNeeded ? getSharpness(bitmap) : 0d);
+        } finally {
+            bitmap.recycle();
+        }
+    }
+
+    /**
+     * Gets the number of bits by which the hashes of two fingerprints differ.
+     *
+     * @param other the other fingerprint.
+     * @return the distance, between 0 and 64.
+     */
+    int getDistance(ImageFingerprint other) {
+        return Long.bitCount(mHash ^ other.mHash);
+    }
+
+    //
+    // Private methods.
+    //
+
+    /**
+     * Computes the difference hash of an image.
+     *
+     * @param bitmap the image.
+     * @return the hash.
+     */
+    private static long getDifferenceHash(Bitmap bitmap) {
+        Bitmap grid = Bitmap.createScaledBitmap(bitmap, HASH_GRID_WIDTH, HASH_GRID_HEIGHT, true);
+        try {
+            long hash = 0L;
+            for (int y = 0; y < HASH_GRID_HEIGHT; y++) {
+                for (int x = 0; x < HASH_GRID_WIDTH - 1; x++) {
+                    hash <<= 1;
+                    if (getLuminance(grid.getPixel(x, y)) > getLuminance(grid.getPixel(x + 1, y))) {
+                        hash |= 1L;
+                    }
+                }
+            }
+            return hash;
+        } finally {
+            if (grid != bitmap) {
+                grid.recycle();
+            }
+        }
+    }
+
+    /**
+     * Computes the sharpness of an image, as the variance of its 4-neighbour Laplacian. A blurred frame has weaker
+     * edges, so a lower variance.
+     *
+     * @param bitmap the image.
+     * @return the sharpness; or 0 if the image is too small.
+     */
+    private static double getSharpness(Bitmap bitmap) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        if (width < 3 || height < 3) {
+            return 0d;
+        }
+
+        int[] pixels = new int[width * height];
+        bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = getLuminance(pixels[i]);
+        }
+
+        double sum = 0d;
+        double sumOfSquares = 0d;
+        for (int y = 1; y < height - 1; y++) {
+            for (int x = 1; x < width - 1; x++) {
+                int i = y * width + x;
+                int laplacian = 4 * pixels[i] - pixels[i - 1] - pixels[i + 1] - pixels[i - width] - pixels[i + width];
+                sum += laplacian;
+                sumOfSquares += (double) laplacian * laplacian;
+            }
+        }
+
+        int count = (width - 2) * (height - 2);
+        double mean = sum / count;
+        return sumOfSquares / count - mean * mean;
+    }
+
+    /**
+     * Gets the luminance of a pixel.
+     *
+     * @param color the color of the pixel.
+     * @return the luminance, between 0 and 255.
+     */
+    private static int getLuminance(int color) {
+        return (Color.red(color) * 299 + Color.green(color) * 587 + Color.blue(color) * 114) / 1000;
+    }
+}
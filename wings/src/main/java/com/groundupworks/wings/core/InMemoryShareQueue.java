@@ -0,0 +1,417 @@
+/*
+ * Copyright (C) 2015 Benedict Lau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groundupworks.wings.core;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A lock-free {@link ShareQueue} that keeps {@link ShareRequest} records in memory only, so records do not survive the
+ * process. Useful for tests and benchmarks. Each record is an immutable snapshot, and every state change atomically
+ * replaces the snapshot it was computed from, retrying if another thread got there first. Only the counts behind
+ * {@link #getQueueStats()} are updated under a short lock.
+ *
+ * @author Benedict Lau
+ */
+public class InMemoryShareQueue implements ShareQueue {
+
+    /**
+     * The source of record ids, which increase in order of creation.
+     */
+    private final AtomicInteger mNextId = new AtomicInteger(1);
+
+    /**
+     * The records, keyed and sorted by id, so iteration is in order of creation.
+     */
+    private final ConcurrentNavigableMap<Integer, ShareRecord> mRecords =
+            new ConcurrentSkipListMap<Integer, ShareRecord>();
+
+    /**
+     * The records that the purge policy gave up on, keyed and sorted by id.
+     */
+    private final ConcurrentNavigableMap<Integer, ShareRecord> mDeadLetters =
+            new ConcurrentSkipListMap<Integer, ShareRecord>();
+
+    /**
+     * The counts of {@link #mRecords}, updated after each change to a record.
+     */
+    private final ShareRecordCounts mCounts = new ShareRecordCounts();
+
+    /**
+     * The accumulator that batches results into this queue.
+     */
+    private final ShareResults mShareResults = new ShareResults(this);
+
+    /**
+     * The owner of the leases taken by this instance.
+     */
+    private final Object mLeaseOwner = new Object();
+
+    //
+    // Private methods.
+    //
+
+    /**
+     * Creates a new record in the pending state.
+     *
+     * @param filePath    the local path to the file to share.
+     * @param destination the destination of the share.
+     * @param timeCreated the time the record is created.
+     * @param priority    the priority.
+     * @param contentHash the hash of the file content; or null.
+     * @return the id of the record.
+     */
+    private int insertShareRequest(String filePath, Destination destination, long timeCreated, int priority,
+                                   String contentHash) {
+        int id = mNextId.getAndIncrement();
+        ShareRecord record = ShareRecord.create(id, filePath, destination.getHash(), timeCreated, priority,
+                contentHash);
+        mCounts.replace(mRecords.put(id, record), record);
+        return id;
+    }
+
+    /**
+     * Atomically replaces a record in the processing state with a processed or failed one.
+     *
+     * @param id           the id of the record.
+     * @param isSuccessful true to mark as processed; false to mark as failed.
+     * @param failureType  the {@link UploadResult} type of the failure, if marked as failed.
+     * @return true if successful; false otherwise.
+     */
+    private boolean markResult(int id, boolean isSuccessful, int failureType) {
+        while (true) {
+            ShareRecord record = mRecords.get(id);
+            if (record == null) {
+                return false;
+            }
+
+            ShareRecord result = isSuccessful ? record.toProcessed()
+                    : record.toFailed(System.currentTimeMillis(), failureType);
+            if (mRecords.replace(id, record, result)) {
+                mCounts.replace(record, result);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Removes a record, unless another thread changed it first.
+     *
+     * @param record the snapshot of the record.
+     * @return true if the record was removed; false otherwise.
+     */
+    private boolean removeRecord(ShareRecord record) {
+        if (mRecords.remove(record.mId, record)) {
+            mCounts.replace(record, null);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Marks a record still processing as failed for good, retrying if it changes concurrently.
+     *
+     * @param id  the id of the record.
+     * @param now the time of failure.
+     * @return true if the record was marked; false if it is not processing.
+     */
+    private boolean rejectRecord(int id, long now) {
+        while (true) {
+            ShareRecord record = mRecords.get(id);
+            if (record == null || record.mState != ShareRequest.STATE_PROCESSING) {
+                return false;
+            }
+
+            ShareRecord result = record.toRejected(now);
+            if (mRecords.replace(id, record, result)) {
+                mCounts.replace(record, result);
+                return true;
+            }
+        }
+    }
+
+    //
+    // Public methods.
+    //
+
+    @Override
+    public boolean createShareRequest(String filePath, Destination destination, int priority) {
+        if (filePath == null) {
+            return false;
+        }
+
+        insertShareRequest(filePath, destination, System.currentTimeMillis(), priority, null);
+        return true;
+    }
+
+    @Override
+    public List<String> createShareRequests(Collection<String> filePaths, Destination destination, int priority) {
+        List<String> createdFilePaths = new ArrayList<String>();
+        long timeCreated = System.currentTimeMillis();
+        for (String filePath : filePaths) {
+            if (filePath != null) {
+                insertShareRequest(filePath, destination, timeCreated, priority, null);
+                createdFilePaths.add(filePath);
+            }
+        }
+        return createdFilePaths;
+    }
+
+    @Override
+    public boolean createShareRequests(String filePath, Collection<Destination> destinations, int priority) {
+        if (filePath == null) {
+            return false;
+        }
+
+        long timeCreated = System.currentTimeMillis();
+        for (Destination destination : destinations) {
+            insertShareRequest(filePath, destination, timeCreated, priority, null);
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized int createUniqueShareRequest(String filePath, Destination destination, int priority,
+                                                     String contentHash) {
+        // Only unique records carry a content hash, so serializing their creation is enough to keep them unique.
+        if (filePath == null || contentHash == null
+                || ShareRecord.findByContentHash(mRecords.values(), destination.getHash(), contentHash) != null) {
+            return -1;
+        }
+
+        return insertShareRequest(filePath, destination, System.currentTimeMillis(), priority, contentHash);
+    }
+
+    @Override
+    public int findShareRequest(Destination destination, String contentHash) {
+        ShareRecord record = ShareRecord.findByContentHash(mRecords.values(), destination.getHash(), contentHash);
+        return record == null ? -1 : record.mId;
+    }
+
+    @Override
+    public List<ShareRequest> checkoutShareRequests(Destination destination) {
+        return checkoutShareRequests(destination, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public List<ShareRequest> checkoutShareRequests(Destination destination, int maxBatch) {
+        return checkoutShareRequests(destination, maxBatch, ShareCheckout.ORDER_FIFO, ShareCheckout.UNLIMITED_BYTES);
+    }
+
+    @Override
+    public List<ShareRequest> checkoutShareRequests(Destination destination, int maxBatch, int order, long maxBytes) {
+        List<ShareRequest> shareRequests = new ArrayList<ShareRequest>();
+        long now = System.currentTimeMillis();
+
+        for (ShareRecord record : ShareRecord.selectDue(mRecords.values(), destination.getHash(), now, maxBatch, order,
+                maxBytes)) {
+            // Claim the record, unless another thread changed it first.
+            ShareRecord result = record.toProcessing(mLeaseOwner, now);
+            if (mRecords.replace(record.mId, record, result)) {
+                mCounts.replace(record, result);
+                shareRequests.add(record.toShareRequest());
+            }
+        }
+
+        return shareRequests;
+    }
+
+    @Override
+    public void deleteShareRequests(Destination destination) {
+        int destinationHash = destination.getHash();
+        for (ShareRecord record : mRecords.values()) {
+            if (record.mDestinationHash == destinationHash) {
+                mCounts.replace(mRecords.remove(record.mId), null);
+            }
+        }
+    }
+
+    @Override
+    public void deleteEndpointShareRequests(int endpointId) {
+        for (ShareRecord record : mRecords.values()) {
+            if (record.mEndpointId == endpointId) {
+                mCounts.replace(mRecords.remove(record.mId), null);
+            }
+        }
+    }
+
+    @Override
+    public boolean discardPendingShareRequest(int id) {
+        ShareRecord record = mRecords.get(id);
+        return record != null && record.mState == ShareRequest.STATE_PENDING && removeRecord(record);
+    }
+
+    @Override
+    public int dropOldestShareRequests(Destination destination, int count, boolean isFailedOnly) {
+        int recordsDropped = 0;
+        int destinationHash = destination.getHash();
+        Iterator<ShareRecord> iterator = mRecords.values().iterator();
+        while (recordsDropped < count && iterator.hasNext()) {
+            ShareRecord record = iterator.next();
+            if (record.mDestinationHash == destinationHash && record.mState == ShareRequest.STATE_PENDING
+                    && (!isFailedOnly || record.mFails > 0) && removeRecord(record)) {
+                recordsDropped++;
+            }
+        }
+        return recordsDropped;
+    }
+
+    @Override
+    public boolean markSuccessful(int id) {
+        return markResult(id, true, UploadResult.TYPE_SUCCESS);
+    }
+
+    @Override
+    public boolean markFailed(int id) {
+        return markResult(id, false, UploadResult.TYPE_TRANSIENT_FAILURE);
+    }
+
+    @Override
+    public int markSuccessful(int[] ids) {
+        return markResults(ids, new int[0]);
+    }
+
+    @Override
+    public int markFailed(int[] ids) {
+        return markResults(new int[0], ids);
+    }
+
+    @Override
+    public int markFailed(int[] ids, int failureType) {
+        int recordsUpdated = 0;
+        for (int id : ids) {
+            if (markResult(id, false, failureType)) {
+                recordsUpdated++;
+            }
+        }
+        return recordsUpdated;
+    }
+
+    @Override
+    public int markResults(int[] successfulIds, int[] failedIds) {
+        int recordsUpdated = 0;
+        for (int id : successfulIds) {
+            if (markResult(id, true, UploadResult.TYPE_SUCCESS)) {
+                recordsUpdated++;
+            }
+        }
+        return recordsUpdated + markFailed(failedIds, UploadResult.TYPE_TRANSIENT_FAILURE);
+    }
+
+    @Override
+    public int markRejected(int[] ids) {
+        int recordsUpdated = 0;
+        long now = System.currentTimeMillis();
+        for (int id : ids) {
+            if (rejectRecord(id, now)) {
+                recordsUpdated++;
+            }
+        }
+        return recordsUpdated;
+    }
+
+    @Override
+    public ShareResults getShareResults() {
+        return mShareResults;
+    }
+
+    @Override
+    public int reclaimExpiredLeases() {
+        int recordsReclaimed = 0;
+        long now = System.currentTimeMillis();
+        for (ShareRecord record : mRecords.values()) {
+            if (record.isReclaimable(mLeaseOwner, now)) {
+                ShareRecord result = record.toPending();
+                if (mRecords.replace(record.mId, record, result)) {
+                    mCounts.replace(record, result);
+                    recordsReclaimed++;
+                }
+            }
+        }
+        return recordsReclaimed;
+    }
+
+    @Override
+    public int purge() {
+        long earliestValidTime = System.currentTimeMillis() - WingsDbHelper.RECORD_EXPIRY_TIME;
+        for (ShareRecord record : mRecords.values()) {
+            if (record.isPurgeable(earliestValidTime) && removeRecord(record) && record.isDeadLetterOnPurge()) {
+                mDeadLetters.put(record.mId, record.toDead());
+            }
+        }
+        return mRecords.size();
+    }
+
+    @Override
+    public List<DeadLetter> getDeadLetters() {
+        List<DeadLetter> deadLetters = new ArrayList<DeadLetter>();
+        for (ShareRecord record : mDeadLetters.values()) {
+            deadLetters.add(record.toDeadLetter());
+        }
+        return deadLetters;
+    }
+
+    @Override
+    public int countDeadLetters() {
+        return mDeadLetters.size();
+    }
+
+    @Override
+    public int requeueDeadLetters(int[] ids) {
+        int recordsRequeued = 0;
+        long now = System.currentTimeMillis();
+        for (int id : ids) {
+            ShareRecord record = mDeadLetters.remove(id);
+            if (record != null) {
+                ShareRecord result = record.toRequeued(now);
+                mCounts.replace(mRecords.put(id, result), result);
+                recordsRequeued++;
+            }
+        }
+        return recordsRequeued;
+    }
+
+    @Override
+    public int discardDeadLetters(int[] ids) {
+        int recordsDiscarded = 0;
+        for (int id : ids) {
+            if (mDeadLetters.remove(id) != null) {
+                recordsDiscarded++;
+            }
+        }
+        return recordsDiscarded;
+    }
+
+    @Override
+    public int countShareRequests() {
+        return mRecords.size();
+    }
+
+    @Override
+    public QueueStats getQueueStats() {
+        return mCounts.getQueueStats(System.currentTimeMillis());
+    }
+
+    @Override
+    public QueueStats getQueueStats(Destination destination) {
+        return mCounts.getQueueStats(System.currentTimeMillis(), destination);
+    }
+}
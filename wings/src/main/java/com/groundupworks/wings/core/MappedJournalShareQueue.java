@@ -0,0 +1,890 @@
+/*
+ * Copyright (C) 2015 Benedict Lau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groundupworks.wings.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * A {@link ShareQueue} that stores {@link ShareRequest} records as fixed-width entries in a memory-mapped, append-only
+ * journal file, with the live records indexed in memory. Every change appends the new snapshot of each record it
+ * touches, or a tombstone for each record it deletes, so a change costs a few memory writes and one
+ * {@link MappedByteBuffer#force()} rather than a SQLite transaction.
+ * <p/>
+ * The entries of a change are written as a batch, and a batch is only replayed if all of its entries are intact, so
+ * each change is all-or-nothing across a crash. Records that were processing when the process died are reclaimed by
+ * the next {@link #reclaimExpiredLeases()}. The journal is compacted on open, and by {@link #purge()} once most of its
+ * entries are superseded. Like the SQLite queue, ids are never reused, even for records deleted before a compaction.
+ * <p/>
+ * File paths are limited to {@link #MAX_PATH_BYTES} bytes in UTF-8; creating a {@link ShareRequest} with a longer file
+ * path fails.
+ *
+ * @author Benedict Lau
+ */
+public class MappedJournalShareQueue implements ShareQueue {
+
+    /**
+     * The size of each journal entry, in bytes.
+     */
+    static final int ENTRY_SIZE = 512;
+
+    /**
+     * The size of the fixed fields at the start of each journal entry, in bytes. In order: crc (4), type (1), batch
+     * remaining (4), id (4), destination (4), time created (8), file size (8), file modified at (8), state in the low
+     * nibble and last failure type in the high nibble (1), priority (1), fails (4), last failed at (8), lease expires
+     * at (8), next attempt at (8), content hash ({@link ContentHash#LENGTH}, zero-filled if none), path length (2).
+     */
+    private static final int HEADER_SIZE = 73 + ContentHash.LENGTH;
+
+    /**
+     * The maximum length of a file path in UTF-8, in bytes.
+     */
+    static final int MAX_PATH_BYTES = ENTRY_SIZE - HEADER_SIZE;
+
+    /**
+     * The offset at which the crc of an entry starts covering its bytes.
+     */
+    private static final int CRC_OFFSET = 4;
+
+    /**
+     * The offset of the number of entries that follow in the same batch.
+     */
+    private static final int BATCH_REMAINING_OFFSET = 5;
+
+    /**
+     * Entry type for the snapshot of a record.
+     */
+    private static final byte TYPE_PUT = 1;
+
+    /**
+     * Entry type for the tombstone of a deleted record.
+     */
+    private static final byte TYPE_DELETE = 2;
+
+    /**
+     * Entry type for the high-water mark of record ids, written at the start of each compacted journal so the ids of
+     * records deleted before the compaction are never handed out again. Its id field holds the id of the next record.
+     */
+    private static final byte TYPE_NEXT_ID = 3;
+
+    /**
+     * The minimum capacity of the journal, in number of entries.
+     */
+    private static final int MIN_CAPACITY = 256;
+
+    /**
+     * The number of entries in the journal below which it is never compacted.
+     */
+    private static final int COMPACTION_MIN_ENTRIES = 1024;
+
+    /**
+     * The suffix of the file that a compaction is written to, before it replaces the journal.
+     */
+    private static final String COMPACTION_SUFFIX = ".compact";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * The journal file.
+     */
+    private final File mJournalFile;
+
+    /**
+     * The live records, keyed and sorted by id, so iteration is in order of creation.
+     */
+    private final TreeMap<Integer, ShareRecord> mRecords = new TreeMap<Integer, ShareRecord>();
+
+    /**
+     * The records that the purge policy gave up on, keyed and sorted by id. Journaled like live records, in the
+     * {@link ShareRecord#STATE_DEAD_LETTER} state.
+     */
+    private final TreeMap<Integer, ShareRecord> mDeadLetters = new TreeMap<Integer, ShareRecord>();
+
+    /**
+     * The counts of {@link #mRecords}, updated after each change to a record.
+     */
+    private final ShareRecordCounts mCounts = new ShareRecordCounts();
+
+    /**
+     * The accumulator that batches results into this queue.
+     */
+    private final ShareResults mShareResults = new ShareResults(this);
+
+    /**
+     * The owner of the leases taken by this instance. Leases are not persisted, so records replayed in the processing
+     * state have no owner.
+     */
+    private final Object mLeaseOwner = new Object();
+
+    /**
+     * The buffer to encode and decode a single entry.
+     */
+    private final ByteBuffer mEntry = ByteBuffer.allocate(ENTRY_SIZE);
+
+    /**
+     * The checksum of a single entry.
+     */
+    private final CRC32 mCrc = new CRC32();
+
+    /**
+     * The open journal file.
+     */
+    private RandomAccessFile mFile = null;
+
+    /**
+     * The memory-mapped journal.
+     */
+    private MappedByteBuffer mJournal = null;
+
+    /**
+     * The number of entries in the journal.
+     */
+    private int mEntryCount = 0;
+
+    /**
+     * The id of the next record created.
+     */
+    private int mNextId = 1;
+
+    /**
+     * Constructor. Replays the journal, then compacts it.
+     *
+     * @param journalFile the journal file, which is created if it does not exist.
+     * @throws IOException if the journal cannot be opened.
+     */
+    public MappedJournalShareQueue(File journalFile) throws IOException {
+        mJournalFile = journalFile;
+
+        // Discard a compaction that did not complete.
+        getCompactionFile().delete();
+
+        replay();
+
+        // Rewrite the live records, so entries past the point where the replay stopped can never be replayed later.
+        compact();
+    }
+
+    //
+    // Private methods.
+    //
+
+    /**
+     * @return the file that a compaction is written to.
+     */
+    private File getCompactionFile() {
+        return new File(mJournalFile.getPath() + COMPACTION_SUFFIX);
+    }
+
+    /**
+     * Replays the journal into {@link #mRecords}, up to the first entry that is torn or corrupt. The entries of a batch
+     * are only applied once the last entry of the batch is read.
+     *
+     * @throws IOException if the journal cannot be read.
+     */
+    private void replay() throws IOException {
+        if (!mJournalFile.exists()) {
+            return;
+        }
+
+        RandomAccessFile file = new RandomAccessFile(mJournalFile, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            ByteBuffer journal = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            List<ShareRecord> puts = new ArrayList<ShareRecord>();
+            List<Integer> deletes = new ArrayList<Integer>();
+            while (journal.remaining() >= ENTRY_SIZE) {
+                journal.get(mEntry.array());
+                if (!readEntry(puts, deletes)) {
+                    break;
+                }
+
+                if (mEntry.getInt(BATCH_REMAINING_OFFSET) == 0) {
+                    // Apply the complete batch.
+                    for (ShareRecord record : puts) {
+                        index(record);
+                        mNextId = Math.max(mNextId, record.mId + 1);
+                    }
+                    for (Integer id : deletes) {
+                        mCounts.replace(mRecords.remove(id), null);
+                        mDeadLetters.remove(id);
+                        mNextId = Math.max(mNextId, id + 1);
+                    }
+                    puts.clear();
+                    deletes.clear();
+                }
+            }
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Decodes the entry in {@link #mEntry}.
+     *
+     * @param puts    the list to add the record to, if the entry is a snapshot.
+     * @param deletes the list to add the record id to, if the entry is a tombstone.
+     * @return true if the entry is intact; false if it is torn, corrupt or unused.
+     */
+    private boolean readEntry(List<ShareRecord> puts, List<Integer> deletes) {
+        mCrc.reset();
+        mCrc.update(mEntry.array(), CRC_OFFSET, ENTRY_SIZE - CRC_OFFSET);
+
+        mEntry.clear();
+        if (mEntry.getInt() != (int) mCrc.getValue()) {
+            return false;
+        }
+
+        byte type = mEntry.get();
+        mEntry.getInt();
+        int id = mEntry.getInt();
+        if (type == TYPE_DELETE) {
+            deletes.add(id);
+            return true;
+        } else if (type == TYPE_NEXT_ID) {
+            // Always a batch of its own, so it is applied right away.
+            mNextId = Math.max(mNextId, id);
+            return true;
+        } else if (type != TYPE_PUT) {
+            return false;
+        }
+
+        int destinationHash = mEntry.getInt();
+        long timeCreated = mEntry.getLong();
+        long fileSize = mEntry.getLong();
+        long fileModifiedAt = mEntry.getLong();
+        int stateAndFailureType = mEntry.get();
+        int priority = mEntry.get();
+        int fails = mEntry.getInt();
+        long lastFailedAt = mEntry.getLong();
+        long leaseExpiresAt = mEntry.getLong();
+        long nextAttemptAt = mEntry.getLong();
+        String contentHash = null;
+        if (mEntry.get(mEntry.position()) != 0) {
+            contentHash = new String(mEntry.array(), mEntry.position(), ContentHash.LENGTH, UTF_8);
+        }
+        mEntry.position(mEntry.position() + ContentHash.LENGTH);
+        int pathLength = mEntry.getShort();
+        if (pathLength < 0 || pathLength > MAX_PATH_BYTES) {
+            return false;
+        }
+        String filePath = new String(mEntry.array(), HEADER_SIZE, pathLength, UTF_8);
+
+        puts.add(new ShareRecord(id, filePath, destinationHash, timeCreated, fileSize, fileModifiedAt, priority,
+                contentHash, stateAndFailureType & 0x0f, fails, lastFailedAt, stateAndFailureType >> 4 & 0x0f, null,
+                leaseExpiresAt, nextAttemptAt));
+        return true;
+    }
+
+    /**
+     * Encodes an entry into {@link #mEntry}.
+     *
+     * @param type           the entry type.
+     * @param batchRemaining the number of entries that follow in the same batch.
+     * @param record         the record.
+     */
+    private void writeEntry(byte type, int batchRemaining, ShareRecord record) {
+        byte[] path = record.mFilePath.getBytes(UTF_8);
+
+        mEntry.clear();
+        mEntry.putInt(0);
+        mEntry.put(type);
+        mEntry.putInt(batchRemaining);
+        mEntry.putInt(record.mId);
+        mEntry.putInt(record.mDestinationHash);
+        mEntry.putLong(record.mTimeCreated);
+        mEntry.putLong(record.mFileSize);
+        mEntry.putLong(record.mFileModifiedAt);
+        mEntry.put((byte) (record.mLastFailureType << 4 | record.mState));
+        mEntry.put((byte) record.mPriority);
+        mEntry.putInt(record.mFails);
+        mEntry.putLong(record.mLastFailedAt);
+        mEntry.putLong(record.mLeaseExpiresAt);
+        mEntry.putLong(record.mNextAttemptAt);
+        if (record.mContentHash != null) {
+            mEntry.put(record.mContentHash.getBytes(UTF_8), 0, ContentHash.LENGTH);
+        } else {
+            mEntry.put(new byte[ContentHash.LENGTH]);
+        }
+        mEntry.putShort((short) path.length);
+        mEntry.put(path);
+        sealEntry();
+    }
+
+    /**
+     * Encodes the high-water mark of record ids into {@link #mEntry}, as a batch of its own.
+     *
+     * @param nextId the id of the next record.
+     */
+    private void writeNextIdEntry(int nextId) {
+        mEntry.clear();
+        mEntry.putInt(0);
+        mEntry.put(TYPE_NEXT_ID);
+        mEntry.putInt(0);
+        mEntry.putInt(nextId);
+        sealEntry();
+    }
+
+    /**
+     * Zero-fills the rest of the entry in {@link #mEntry}, then writes its crc.
+     */
+    private void sealEntry() {
+        Arrays.fill(mEntry.array(), mEntry.position(), ENTRY_SIZE, (byte) 0);
+
+        mCrc.reset();
+        mCrc.update(mEntry.array(), CRC_OFFSET, ENTRY_SIZE - CRC_OFFSET);
+        mEntry.putInt(0, (int) mCrc.getValue());
+    }
+
+    /**
+     * Rewrites the high-water mark of record ids and the live records into a new journal, which then replaces the
+     * current one.
+     *
+     * @throws IOException if the journal cannot be written.
+     */
+    private void compact() throws IOException {
+        File compactionFile = getCompactionFile();
+        RandomAccessFile file = new RandomAccessFile(compactionFile, "rw");
+        MappedByteBuffer journal;
+        try {
+            int capacity = Math.max(MIN_CAPACITY, getEntryCount() * 2);
+            journal = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, (long) capacity * ENTRY_SIZE);
+            writeNextIdEntry(mNextId);
+            journal.put(mEntry.array());
+            for (ShareRecord record : mRecords.values()) {
+                writeEntry(TYPE_PUT, 0, record);
+                journal.put(mEntry.array());
+            }
+            for (ShareRecord record : mDeadLetters.values()) {
+                writeEntry(TYPE_PUT, 0, record);
+                journal.put(mEntry.array());
+            }
+            journal.force();
+
+            if (!compactionFile.renameTo(mJournalFile)) {
+                throw new IOException("Failed to replace " + mJournalFile);
+            }
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+
+        // Swap in the new journal.
+        if (mFile != null) {
+            mFile.close();
+        }
+        mFile = file;
+        mJournal = journal;
+        mEntryCount = getEntryCount();
+    }
+
+    /**
+     * @return the number of entries needed to journal the high-water mark of record ids, the live records and dead
+     * letters.
+     */
+    private int getEntryCount() {
+        return 1 + mRecords.size() + mDeadLetters.size();
+    }
+
+    /**
+     * Indexes the snapshot of a record in memory, as a live record or a dead letter depending on its state.
+     *
+     * @param record the snapshot.
+     */
+    private void index(ShareRecord record) {
+        if (record.mState == ShareRecord.STATE_DEAD_LETTER) {
+            mCounts.replace(mRecords.remove(record.mId), null);
+            mDeadLetters.put(record.mId, record);
+        } else {
+            mDeadLetters.remove(record.mId);
+            mCounts.replace(mRecords.put(record.mId, record), record);
+        }
+    }
+
+    /**
+     * Checks whether most of the entries in the journal are superseded.
+     *
+     * @return true if the journal should be compacted; false otherwise.
+     */
+    private boolean isCompactionDue() {
+        return mEntryCount >= COMPACTION_MIN_ENTRIES && getEntryCount() * 2 <= mEntryCount;
+    }
+
+    /**
+     * Ensures the journal has room for more entries, by compacting it if most of its entries are superseded, or else
+     * growing it.
+     *
+     * @param entries the number of entries to make room for.
+     * @throws IOException if the journal cannot be compacted or grown.
+     */
+    private void ensureCapacity(int entries) throws IOException {
+        int capacity = mJournal.capacity() / ENTRY_SIZE;
+        if (mEntryCount + entries <= capacity) {
+            return;
+        }
+
+        if (isCompactionDue()) {
+            compact();
+            capacity = mJournal.capacity() / ENTRY_SIZE;
+        }
+
+        if (mEntryCount + entries > capacity) {
+            capacity = Math.max(capacity * 2, mEntryCount + entries);
+            mJournal = mFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, (long) capacity * ENTRY_SIZE);
+        }
+    }
+
+    /**
+     * Appends a batch of entries to the journal, and forces them to storage.
+     *
+     * @param type    the entry type.
+     * @param records the records.
+     * @throws IOException if the journal cannot be written.
+     */
+    private void append(byte type, List<ShareRecord> records) throws IOException {
+        if (records.isEmpty()) {
+            return;
+        }
+
+        // Make room for the whole batch first, so it is never partially written.
+        ensureCapacity(records.size());
+
+        mJournal.position(mEntryCount * ENTRY_SIZE);
+        for (int i = 0; i < records.size(); i++) {
+            writeEntry(type, records.size() - 1 - i, records.get(i));
+            mJournal.put(mEntry.array());
+        }
+        mEntryCount += records.size();
+
+        mJournal.force();
+    }
+
+    /**
+     * Stores new snapshots of records.
+     *
+     * @param records the snapshots.
+     * @return true if successful; false otherwise, in which case no record is changed.
+     */
+    private boolean put(List<ShareRecord> records) {
+        try {
+            append(TYPE_PUT, records);
+        } catch (IOException e) {
+            return false;
+        }
+
+        for (ShareRecord record : records) {
+            index(record);
+        }
+        return true;
+    }
+
+    /**
+     * Deletes records or dead letters.
+     *
+     * @param records the records.
+     * @return true if successful; false otherwise, in which case no record is deleted.
+     */
+    private boolean delete(List<ShareRecord> records) {
+        try {
+            append(TYPE_DELETE, records);
+        } catch (IOException e) {
+            return false;
+        }
+
+        for (ShareRecord record : records) {
+            mCounts.replace(mRecords.remove(record.mId), null);
+            mDeadLetters.remove(record.mId);
+        }
+        return true;
+    }
+
+    /**
+     * Marks the results of processing records as a single batch. Only records still processing are updated, so a
+     * result that arrives after the lease is reclaimed does not overwrite the record.
+     *
+     * @param successfulIds the ids of the records successfully processed.
+     * @param failedIds     the ids of the records that failed to process.
+     * @param failureType   the {@link UploadResult} type of the failures.
+     * @return the number of records updated; or -1 if an error occurred, in which case no record is updated.
+     */
+    private synchronized int markResults(int[] successfulIds, int[] failedIds, int failureType) {
+        List<ShareRecord> records = new ArrayList<ShareRecord>();
+        for (int id : successfulIds) {
+            ShareRecord record = mRecords.get(id);
+            if (record != null && record.mState == ShareRequest.STATE_PROCESSING) {
+                records.add(record.toProcessed());
+            }
+        }
+
+        long now = System.currentTimeMillis();
+        for (int id : failedIds) {
+            ShareRecord record = mRecords.get(id);
+            if (record != null && record.mState == ShareRequest.STATE_PROCESSING) {
+                records.add(record.toFailed(now, failureType));
+            }
+        }
+
+        return put(records) ? records.size() : -1;
+    }
+
+    /**
+     * Checks whether a file path fits in a journal entry.
+     *
+     * @param filePath the local path to the file to share.
+     * @return true if it fits; false otherwise.
+     */
+    private static boolean isValidFilePath(String filePath) {
+        return filePath != null && filePath.getBytes(UTF_8).length <= MAX_PATH_BYTES;
+    }
+
+    //
+    // Public methods.
+    //
+
+    @Override
+    public synchronized boolean createShareRequest(String filePath, Destination destination, int priority) {
+        if (!isValidFilePath(filePath)) {
+            return false;
+        }
+
+        ShareRecord record = ShareRecord.create(mNextId, filePath, destination.getHash(), System.currentTimeMillis(),
+                priority, null);
+        if (put(Collections.singletonList(record))) {
+            mNextId++;
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public synchronized List<String> createShareRequests(Collection<String> filePaths, Destination destination,
+                                                         int priority) {
+        List<String> createdFilePaths = new ArrayList<String>();
+        List<ShareRecord> records = new ArrayList<ShareRecord>();
+        long timeCreated = System.currentTimeMillis();
+        for (String filePath : filePaths) {
+            if (isValidFilePath(filePath)) {
+                records.add(ShareRecord.create(mNextId + records.size(), filePath, destination.getHash(), timeCreated,
+                        priority, null));
+                createdFilePaths.add(filePath);
+            }
+        }
+
+        if (!put(records)) {
+            // Nothing is created if the batch is not written.
+            createdFilePaths.clear();
+            return createdFilePaths;
+        }
+        mNextId += records.size();
+
+        return createdFilePaths;
+    }
+
+    @Override
+    public synchronized boolean createShareRequests(String filePath, Collection<Destination> destinations,
+                                                    int priority) {
+        if (!isValidFilePath(filePath)) {
+            return false;
+        }
+
+        List<ShareRecord> records = new ArrayList<ShareRecord>();
+        long timeCreated = System.currentTimeMillis();
+        for (Destination destination : destinations) {
+            records.add(ShareRecord.create(mNextId + records.size(), filePath, destination.getHash(), timeCreated,
+                    priority, null));
+        }
+
+        if (put(records)) {
+            mNextId += records.size();
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public synchronized int createUniqueShareRequest(String filePath, Destination destination, int priority,
+                                                     String contentHash) {
+        if (!isValidFilePath(filePath) || contentHash == null
+                || contentHash.getBytes(UTF_8).length != ContentHash.LENGTH
+                || ShareRecord.findByContentHash(mRecords.values(), destination.getHash(), contentHash) != null) {
+            return -1;
+        }
+
+        ShareRecord record = ShareRecord.create(mNextId, filePath, destination.getHash(), System.currentTimeMillis(),
+                priority, contentHash);
+        if (put(Collections.singletonList(record))) {
+            mNextId++;
+            return record.mId;
+        }
+        return -1;
+    }
+
+    @Override
+    public synchronized int findShareRequest(Destination destination, String contentHash) {
+        ShareRecord record = ShareRecord.findByContentHash(mRecords.values(), destination.getHash(), contentHash);
+        return record == null ? -1 : record.mId;
+    }
+
+    @Override
+    public List<ShareRequest> checkoutShareRequests(Destination destination) {
+        return checkoutShareRequests(destination, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public List<ShareRequest> checkoutShareRequests(Destination destination, int maxBatch) {
+        return checkoutShareRequests(destination, maxBatch, ShareCheckout.ORDER_FIFO, ShareCheckout.UNLIMITED_BYTES);
+    }
+
+    @Override
+    public synchronized List<ShareRequest> checkoutShareRequests(Destination destination, int maxBatch, int order,
+                                                                 long maxBytes) {
+        List<ShareRequest> shareRequests = new ArrayList<ShareRequest>();
+        long now = System.currentTimeMillis();
+
+        List<ShareRecord> records = new ArrayList<ShareRecord>();
+        for (ShareRecord record : ShareRecord.selectDue(mRecords.values(), destination.getHash(), now, maxBatch, order,
+                maxBytes)) {
+            records.add(record.toProcessing(mLeaseOwner, now));
+        }
+
+        if (put(records)) {
+            for (ShareRecord record : records) {
+                shareRequests.add(record.toShareRequest());
+            }
+        }
+
+        return shareRequests;
+    }
+
+    @Override
+    public synchronized void deleteShareRequests(Destination destination) {
+        int destinationHash = destination.getHash();
+        List<ShareRecord> records = new ArrayList<ShareRecord>();
+        for (ShareRecord record : mRecords.values()) {
+            if (record.mDestinationHash == destinationHash) {
+                records.add(record);
+            }
+        }
+        delete(records);
+    }
+
+    @Override
+    public synchronized void deleteEndpointShareRequests(int endpointId) {
+        List<ShareRecord> records = new ArrayList<ShareRecord>();
+        for (ShareRecord record : mRecords.values()) {
+            if (record.mEndpointId == endpointId) {
+                records.add(record);
+            }
+        }
+        delete(records);
+    }
+
+    @Override
+    public synchronized boolean discardPendingShareRequest(int id) {
+        ShareRecord record = mRecords.get(id);
+        return record != null && record.mState == ShareRequest.STATE_PENDING
+                && delete(Collections.singletonList(record));
+    }
+
+    @Override
+    public synchronized int dropOldestShareRequests(Destination destination, int count, boolean isFailedOnly) {
+        int destinationHash = destination.getHash();
+        List<ShareRecord> records = new ArrayList<ShareRecord>();
+        for (ShareRecord record : mRecords.values()) {
+            if (records.size() >= count) {
+                break;
+            }
+            if (record.mDestinationHash == destinationHash && record.mState == ShareRequest.STATE_PENDING
+                    && (!isFailedOnly || record.mFails > 0)) {
+                records.add(record);
+            }
+        }
+
+        return delete(records) ? records.size() : -1;
+    }
+
+    @Override
+    public boolean markSuccessful(int id) {
+        return markResults(new int[]{id}, new int[0]) == 1;
+    }
+
+    @Override
+    public boolean markFailed(int id) {
+        return markResults(new int[0], new int[]{id}) == 1;
+    }
+
+    @Override
+    public int markSuccessful(int[] ids) {
+        return markResults(ids, new int[0]);
+    }
+
+    @Override
+    public int markFailed(int[] ids) {
+        return markResults(new int[0], ids);
+    }
+
+    @Override
+    public int markFailed(int[] ids, int failureType) {
+        return markResults(new int[0], ids, failureType);
+    }
+
+    @Override
+    public int markResults(int[] successfulIds, int[] failedIds) {
+        return markResults(successfulIds, failedIds, UploadResult.TYPE_TRANSIENT_FAILURE);
+    }
+
+    @Override
+    public synchronized int markRejected(int[] ids) {
+        List<ShareRecord> records = new ArrayList<ShareRecord>();
+        long now = System.currentTimeMillis();
+        for (int id : ids) {
+            ShareRecord record = mRecords.get(id);
+            if (record != null && record.mState == ShareRequest.STATE_PROCESSING) {
+                records.add(record.toRejected(now));
+            }
+        }
+
+        return put(records) ? records.size() : -1;
+    }
+
+    @Override
+    public ShareResults getShareResults() {
+        return mShareResults;
+    }
+
+    @Override
+    public synchronized int reclaimExpiredLeases() {
+        List<ShareRecord> records = new ArrayList<ShareRecord>();
+        long now = System.currentTimeMillis();
+        for (ShareRecord record : mRecords.values()) {
+            if (record.isReclaimable(mLeaseOwner, now)) {
+                records.add(record.toPending());
+            }
+        }
+
+        return put(records) ? records.size() : -1;
+    }
+
+    @Override
+    public synchronized int purge() {
+        List<ShareRecord> deadRecords = new ArrayList<ShareRecord>();
+        List<ShareRecord> records = new ArrayList<ShareRecord>();
+        long earliestValidTime = System.currentTimeMillis() - WingsDbHelper.RECORD_EXPIRY_TIME;
+        for (ShareRecord record : mRecords.values()) {
+            if (record.isPurgeable(earliestValidTime)) {
+                if (record.isDeadLetterOnPurge()) {
+                    deadRecords.add(record.toDead());
+                } else {
+                    records.add(record);
+                }
+            }
+        }
+
+        // Move the records given up on to the dead letters, then delete the processed ones.
+        if (!put(deadRecords) || !delete(records)) {
+            return -1;
+        }
+
+        if (isCompactionDue()) {
+            try {
+                compact();
+            } catch (IOException e) {
+                // Do nothing. The journal is still valid, just larger than it needs to be.
+            }
+        }
+
+        return mRecords.size();
+    }
+
+    @Override
+    public synchronized List<DeadLetter> getDeadLetters() {
+        List<DeadLetter> deadLetters = new ArrayList<DeadLetter>();
+        for (ShareRecord record : mDeadLetters.values()) {
+            deadLetters.add(record.toDeadLetter());
+        }
+        return deadLetters;
+    }
+
+    @Override
+    public synchronized int countDeadLetters() {
+        return mDeadLetters.size();
+    }
+
+    @Override
+    public synchronized int requeueDeadLetters(int[] ids) {
+        List<ShareRecord> records = new ArrayList<ShareRecord>();
+        long now = System.currentTimeMillis();
+        for (int id : ids) {
+            ShareRecord record = mDeadLetters.get(id);
+            if (record != null) {
+                records.add(record.toRequeued(now));
+            }
+        }
+
+        return put(records) ? records.size() : -1;
+    }
+
+    @Override
+    public synchronized int discardDeadLetters(int[] ids) {
+        List<ShareRecord> records = new ArrayList<ShareRecord>();
+        for (int id : ids) {
+            ShareRecord record = mDeadLetters.get(id);
+            if (record != null) {
+                records.add(record);
+            }
+        }
+
+        return delete(records) ? records.size() : -1;
+    }
+
+    @Override
+    public synchronized int countShareRequests() {
+        return mRecords.size();
+    }
+
+    @Override
+    public synchronized QueueStats getQueueStats() {
+        return mCounts.getQueueStats(System.currentTimeMillis());
+    }
+
+    @Override
+    public synchronized QueueStats getQueueStats(Destination destination) {
+        return mCounts.getQueueStats(System.currentTimeMillis(), destination);
+    }
+
+    /**
+     * Closes the journal file. This should only be called on shutdown, since no other method may be called after.
+     */
+    public synchronized void close() {
+        try {
+            mFile.close();
+        } catch (IOException e) {
+            // Do nothing.
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2015 Benedict Lau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groundupworks.wings.core;
+
+/**
+ * The maximum depth of the share queue for each destination, what to do when a share would exceed it, and the
+ * watermarks at which a {@link QueueWatermarkEvent} is emitted. The depth of a destination is the number of its
+ * {@link ShareRequest} records that are pending or processing.
+ *
+ * @author Benedict Lau
+ */
+public class QueueCapacity {
+
+    /**
+     * Overflow policy that rejects new shares while the destination is full.
+     */
+    public static final int OVERFLOW_REJECT_NEW = 0;
+
+    /**
+     * Overflow policy that drops the oldest pending shares of the destination to make room for new shares.
+     */
+    public static final int OVERFLOW_DROP_OLDEST = 1;
+
+    /**
+     * Overflow policy that drops the oldest pending shares of the destination that already failed at least once to
+     * make room for new shares, and rejects new shares if there are none. Shares that have never been attempted are
+     * never dropped.
+     */
+    public static final int OVERFLOW_DEGRADE = 2;
+
+    /**
+     * A capacity with no maximum depth and no watermarks.
+     */
+    public static final QueueCapacity UNBOUNDED = new QueueCapacity(Integer.MAX_VALUE, OVERFLOW_REJECT_NEW,
+            Integer.MAX_VALUE, Integer.MAX_VALUE - 1);
+
+    /**
+     * The high watermark by default, as a percentage of the maximum depth.
+     */
+    private static final int DEFAULT_HIGH_WATERMARK_PERCENT = 80;
+
+    /**
+     * The low watermark by default, as a percentage of the maximum depth.
+     */
+    private static final int DEFAULT_LOW_WATERMARK_PERCENT = 50;
+
+    /**
+     * The maximum depth of each destination.
+     */
+    private final int mMaxDepth;
+
+    /**
+     * The overflow policy.
+     */
+    private final int mOverflowPolicy;
+
+    /**
+     * The depth at or above which a destination is reported as filling up.
+     */
+    private final int mHighWatermark;
+
+    /**
+     * The depth at or below which a destination that filled up is reported as drained.
+     */
+    private final int mLowWatermark;
+
+    /**
+     * Constructor with the watermarks at 80% and 50% of the maximum depth, or as close as the maximum depth allows.
+     *
+     * @param maxDepth       the maximum depth of each destination. Must be positive.
+     * @param overflowPolicy one of {@link #OVERFLOW_REJECT_NEW}, {@link #OVERFLOW_DROP_OLDEST} or
+     *                       {@link #OVERFLOW_DEGRADE}.
+     * @throws IllegalArgumentException if an argument is invalid.
+     */
+    public QueueCapacity(int maxDepth, int overflowPolicy) throws IllegalArgumentException {
+        this(maxDepth, overflowPolicy, getHighWatermark(maxDepth), getLowWatermark(maxDepth));
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param maxDepth       the maximum depth of each destination. Must be positive.
+     * @param overflowPolicy one of {@link #OVERFLOW_REJECT_NEW}, {@link #OVERFLOW_DROP_OLDEST} or
+     *                       {@link #OVERFLOW_DEGRADE}.
+     * @param highWatermark  the depth at or above which a destination is reported as filling up.
+     * @param lowWatermark   the depth at or below which a destination that filled up is reported as drained. Must be
+     *                       less than the high watermark.
+     * @throws IllegalArgumentException if an argument is invalid.
+     */
+    public QueueCapacity(int maxDepth, int overflowPolicy, int highWatermark, int lowWatermark)
+            throws IllegalArgumentException {
+        if (maxDepth <= 0) {
+            throw new IllegalArgumentException("maxDepth must be positive");
+        }
+        if (overflowPolicy != OVERFLOW_REJECT_NEW && overflowPolicy != OVERFLOW_DROP_OLDEST
+                && overflowPolicy != OVERFLOW_DEGRADE) {
+            throw new IllegalArgumentException("Unknown overflowPolicy " + overflowPolicy);
+        }
+        if (lowWatermark < 0 || lowWatermark >= highWatermark) {
+            throw new IllegalArgumentException("lowWatermark must be non-negative and less than highWatermark");
+        }
+
+        mMaxDepth = maxDepth;
+        mOverflowPolicy = overflowPolicy;
+        mHighWatermark = highWatermark;
+        mLowWatermark = lowWatermark;
+    }
+
+    //
+    // Private methods.
+    //
+
+    /**
+     * Gets the default high watermark.
+     *
+     * @param maxDepth the maximum depth of each destination.
+     * @return the high watermark.
+     */
+    private static int getHighWatermark(int maxDepth) {
+        return Math.max(1, (int) ((long) maxDepth * DEFAULT_HIGH_WATERMARK_PERCENT / 100));
+    }
+
+    /**
+     * Gets the default low watermark, which is always less than the default high watermark.
+     *
+     * @param maxDepth the maximum depth of each destination.
+     * @return the low watermark.
+     */
+    private static int getLowWatermark(int maxDepth) {
+        return Math.min(getHighWatermark(maxDepth) - 1, (int) ((long) maxDepth * DEFAULT_LOW_WATERMARK_PERCENT / 100));
+    }
+
+    //
+    // Public methods.
+    //
+
+    /**
+     * @return the maximum depth of each destination.
+     */
+    public int getMaxDepth() {
+        return mMaxDepth;
+    }
+
+    /**
+     * @return the overflow policy.
+     */
+    public int getOverflowPolicy() {
+        return mOverflowPolicy;
+    }
+
+    /**
+     * @return the depth at or above which a destination is reported as filling up.
+     */
+    public int getHighWatermark() {
+        return mHighWatermark;
+    }
+
+    /**
+     * @return the depth at or below which a destination that filled up is reported as drained.
+     */
+    public int getLowWatermark() {
+        return mLowWatermark;
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright (C) 2015 Benedict Lau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groundupworks.wings.core;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An immutable snapshot of the {@link ShareRequest} records in a {@link ShareQueue}, counted by destination and state.
+ * A record counts as failed if it failed at least once and is still waiting to be processed successfully.
+ *
+ * @author Benedict Lau
+ */
+public class QueueStats {
+
+    /**
+     * The time the snapshot is taken.
+     */
+    private final long mTime;
+
+    /**
+     * The counts, keyed by destination hash.
+     */
+    private final Map<Integer, Counts> mCounts = new HashMap<Integer, Counts>();
+
+    /**
+     * The counts across all destinations.
+     */
+    private final Counts mTotal = new Counts();
+
+    /**
+     * Constructor.
+     *
+     * @param time   the time the snapshot is taken.
+     * @param counts the counts, keyed by destination hash, which are copied.
+     */
+    QueueStats(long time, Map<Integer, Counts> counts) {
+        mTime = time;
+        for (Map.Entry<Integer, Counts> entry : counts.entrySet()) {
+            Counts destinationCounts = new Counts(entry.getValue());
+            mCounts.put(entry.getKey(), destinationCounts);
+            mTotal.add(destinationCounts);
+        }
+    }
+
+    //
+    // Private methods.
+    //
+
+    /**
+     * Gets the counts of a destination.
+     *
+     * @param destination the destination.
+     * @return the counts; or empty counts if the destination has no records.
+     */
+    private Counts getCounts(Destination destination) {
+        Counts counts = mCounts.get(destination.getHash());
+        return counts == null ? new Counts() : counts;
+    }
+
+    /**
+     * Gets the age of the oldest pending record.
+     *
+     * @param counts the counts.
+     * @return the age in milliseconds; or 0 if there is no pending record.
+     */
+    private long getOldestPendingAge(Counts counts) {
+        return counts.mPending > 0 ? Math.max(0L, mTime - counts.mOldestPendingTime) : 0L;
+    }
+
+    //
+    // Public methods.
+    //
+
+    /**
+     * Gets the time the snapshot is taken.
+     *
+     * @return the time in milliseconds since epoch.
+     */
+    public long getTime() {
+        return mTime;
+    }
+
+    /**
+     * Gets the destinations that have records.
+     *
+     * @return the set of destinations; may be empty.
+     */
+    public Set<Destination> getDestinations() {
+        Set<Destination> destinations = new HashSet<Destination>();
+        for (Integer destinationHash : mCounts.keySet()) {
+            destinations.add(Destination.from(destinationHash));
+        }
+        return destinations;
+    }
+
+    /**
+     * Gets the number of records waiting to be processed, across all destinations.
+     *
+     * @return the number of pending records.
+     */
+    public int getPendingCount() {
+        return mTotal.mPending;
+    }
+
+    /**
+     * Gets the number of records waiting to be processed for a destination.
+     *
+     * @param destination the destination.
+     * @return the number of pending records.
+     */
+    public int getPendingCount(Destination destination) {
+        return getCounts(destination).mPending;
+    }
+
+    /**
+     * Gets the number of high priority records waiting to be processed, across all destinations.
+     *
+     * @return the number of pending records with {@link ShareRequest#PRIORITY_HIGH}.
+     */
+    public int getHighPriorityPendingCount() {
+        return mTotal.mHighPriorityPending;
+    }
+
+    /**
+     * Gets the number of high priority records waiting to be processed for a destination.
+     *
+     * @param destination the destination.
+     * @return the number of pending records with {@link ShareRequest#PRIORITY_HIGH}.
+     */
+    public int getHighPriorityPendingCount(Destination destination) {
+        return getCounts(destination).mHighPriorityPending;
+    }
+
+    /**
+     * Gets the number of records being processed, across all destinations.
+     *
+     * @return the number of processing records.
+     */
+    public int getProcessingCount() {
+        return mTotal.mProcessing;
+    }
+
+    /**
+     * Gets the number of records being processed for a destination.
+     *
+     * @param destination the destination.
+     * @return the number of processing records.
+     */
+    public int getProcessingCount(Destination destination) {
+        return getCounts(destination).mProcessing;
+    }
+
+    /**
+     * Gets the number of records that failed at least once and are not yet processed, across all destinations.
+     *
+     * @return the number of failed records.
+     */
+    public int getFailedCount() {
+        return mTotal.mFailed;
+    }
+
+    /**
+     * Gets the number of records that failed at least once and are not yet processed for a destination.
+     *
+     * @param destination the destination.
+     * @return the number of failed records.
+     */
+    public int getFailedCount(Destination destination) {
+        return getCounts(destination).mFailed;
+    }
+
+    /**
+     * Gets the age of the oldest pending record, across all destinations.
+     *
+     * @return the age in milliseconds at the time of the snapshot; or 0 if there is no pending record.
+     */
+    public long getOldestPendingAge() {
+        return getOldestPendingAge(mTotal);
+    }
+
+    /**
+     * Gets the age of the oldest pending record for a destination.
+     *
+     * @param destination the destination.
+     * @return the age in milliseconds at the time of the snapshot; or 0 if there is no pending record.
+     */
+    public long getOldestPendingAge(Destination destination) {
+        return getOldestPendingAge(getCounts(destination));
+    }
+
+    //
+    // Package private classes.
+    //
+
+    /**
+     * Mutable counts of the records of a single destination, kept by the {@link ShareQueue} implementations.
+     */
+    static final class Counts {
+
+        int mPending = 0;
+
+        int mProcessing = 0;
+
+        int mProcessed = 0;
+
+        int mFailed = 0;
+
+        int mHighPriorityPending = 0;
+
+        /**
+         * The creation time of the oldest pending record; or {@link Long#MAX_VALUE} if unknown or none.
+         */
+        long mOldestPendingTime = Long.MAX_VALUE;
+
+        /**
+         * Constructor.
+         */
+        Counts() {
+        }
+
+        /**
+         * Copy constructor.
+         *
+         * @param counts the counts to copy.
+         */
+        Counts(Counts counts) {
+            add(counts);
+        }
+
+        /**
+         * Adds records in a state.
+         *
+         * @param state             the state.
+         * @param count             the number of records.
+         * @param failedCount       the number of those records that failed at least once.
+         * @param highPriorityCount the number of those records with a priority above normal.
+         * @param timeCreated       the creation time of the oldest of those records.
+         */
+        void add(int state, int count, int failedCount, int highPriorityCount, long timeCreated) {
+            if (state == ShareRequest.STATE_PENDING) {
+                mPending += count;
+                mFailed += failedCount;
+                mHighPriorityPending += highPriorityCount;
+                mOldestPendingTime = Math.min(mOldestPendingTime, timeCreated);
+            } else if (state == ShareRequest.STATE_PROCESSING) {
+                mProcessing += count;
+                mFailed += failedCount;
+            } else {
+                mProcessed += count;
+            }
+        }
+
+        /**
+         * Adds other counts.
+         *
+         * @param counts the counts to add.
+         */
+        void add(Counts counts) {
+            mPending += counts.mPending;
+            mProcessing += counts.mProcessing;
+            mProcessed += counts.mProcessed;
+            mFailed += counts.mFailed;
+            mHighPriorityPending += counts.mHighPriorityPending;
+            mOldestPendingTime = Math.min(mOldestPendingTime, counts.mOldestPendingTime);
+        }
+
+        /**
+         * @return the number of records in any state.
+         */
+        int getTotal() {
+            return mPending + mProcessing + mProcessed;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2015 Benedict Lau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groundupworks.wings.core;
+
+/**
+ * An event emitted on the main thread when the depth of a destination reaches the high watermark of the
+ * {@link QueueCapacity}, and again when it drains back down to the low watermark.
+ *
+ * @author Benedict Lau
+ */
+public class QueueWatermarkEvent {
+
+    /**
+     * The destination whose depth crossed a watermark.
+     */
+    private final Destination mDestination;
+
+    /**
+     * The depth of the destination.
+     */
+    private final int mDepth;
+
+    /**
+     * Whether the high watermark is reached.
+     */
+    private final boolean mIsHigh;
+
+    /**
+     * Constructor.
+     *
+     * @param destination the destination whose depth crossed a watermark.
+     * @param depth       the depth of the destination.
+     * @param isHigh      true if the high watermark is reached; false if the low watermark is reached.
+     */
+    QueueWatermarkEvent(Destination destination, int depth, boolean isHigh) {
+        mDestination = destination;
+        mDepth = depth;
+        mIsHigh = isHigh;
+    }
+
+    /**
+     * Gets the destination whose depth crossed a watermark.
+     *
+     * @return the {@link Destination}.
+     */
+    public Destination getDestination() {
+        return mDestination;
+    }
+
+    /**
+     * Gets the depth of the destination when the watermark is crossed.
+     *
+     * @return the number of pending and processing records.
+     */
+    public int getDepth() {
+        return mDepth;
+    }
+
+    /**
+     * Checks which watermark is crossed.
+     *
+     * @return true if the high watermark is reached, so the client should throttle new shares; false if the low
+     * watermark is reached, so the client may resume.
+     */
+    public boolean isHigh() {
+        return mIsHigh;
+    }
+}
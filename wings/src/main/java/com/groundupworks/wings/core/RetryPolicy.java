@@ -35,6 +35,26 @@ public class RetryPolicy {
      */
     private static final long MINUTE_TO_MILLIS = 60000L;
 
+    //
+    // Share request backoff params. Package private because they are used by the queue implementations.
+    //
+
+    /**
+     * The delay before the next attempt on a share request that failed for the first time. Doubled on every subsequent
+     * failure of the same share request. In milliseconds.
+     */
+    static final long SHARE_REQUEST_BASE_DELAY = MINUTE_TO_MILLIS;
+
+    /**
+     * The maximum number of times {@link #SHARE_REQUEST_BASE_DELAY} is doubled.
+     */
+    static final int SHARE_REQUEST_MAX_DOUBLINGS = 6;
+
+    /**
+     * The maximum delay before the next attempt on a failed share request. 1 hour in milliseconds.
+     */
+    static final long SHARE_REQUEST_MAX_DELAY = 3600000L;
+
     //
     // Private methods.
     //
@@ -82,13 +102,29 @@ public class RetryPolicy {
         return getFibonacci(consecutiveFails) * MINUTE_TO_MILLIS;
     }
 
+    /**
+     * Gets how long to wait before the next attempt on a single {@link ShareRequest}, based on the number of times that
+     * share request already failed. Unlike {@link #incrementAndGetTime(Context)}, this keeps no state.
+     *
+     * @param fails the number of times the share request failed, not counting the current failure.
+     * @return the delay in milliseconds.
+     */
+    static long getShareRequestDelay(int fails) {
+        return Math.min(SHARE_REQUEST_MAX_DELAY,
+                SHARE_REQUEST_BASE_DELAY << Math.min(Math.max(fails, 0), SHARE_REQUEST_MAX_DOUBLINGS));
+    }
+
+    //
+    // Public methods.
+    //
+
     /**
      * Resets the internal counter. This should be called whenever a new record is added, and whenever all
      * {@link ShareRequest} completed successfully.
      *
      * @param context the {@link Context}.
      */
-    static void reset(Context context) {
+    public static void reset(Context context) {
         Context appContext = context.getApplicationContext();
         String key = appContext.getString(R.string.wings__retry_policy_consecutive_fails);
 
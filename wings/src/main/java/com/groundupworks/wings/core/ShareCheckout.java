@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2015 Benedict Lau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groundupworks.wings.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Streams the {@link ShareRequest} of a destination that need to be processed, checking them out of a
+ * {@link ShareQueue} one page at a time. The next page is only checked out once the current one is consumed, so memory
+ * stays flat regardless of the size of the backlog, processing starts after the first page, and each lease starts
+ * when its record is about to be processed. The checkout ends at the first page that is not full, or once the total
+ * size of the files checked out reaches the byte budget of the pass.
+ * <p/>
+ * Records are checked out in order of creation by default. {@link #ORDER_SMALLEST_FIRST} keeps a large file from
+ * holding up the small ones behind it, while a byte budget bounds how long a single pass takes on a slow uplink. Each
+ * page puts high priority records first, so a high priority share created during a pass is picked up by the next page.
+ * <p/>
+ * Single use: {@link #iterator()} returns this instance, so it can be consumed by a for-each loop exactly once.
+ *
+ * @author Benedict Lau
+ */
+public class ShareCheckout implements Iterable<ShareRequest>, Iterator<ShareRequest> {
+
+    /**
+     * The default number of {@link ShareRequest} checked out per page.
+     */
+    public static final int DEFAULT_PAGE_SIZE = 50;
+
+    /**
+     * Checkout order from the earliest to the most recent {@link ShareRequest}.
+     */
+    public static final int ORDER_FIFO = 0;
+
+    /**
+     * Checkout order from the smallest to the largest file, then from the earliest to the most recent
+     * {@link ShareRequest}. Files whose size is unknown come first.
+     */
+    public static final int ORDER_SMALLEST_FIRST = 1;
+
+    /**
+     * The byte budget of a pass with no limit.
+     */
+    public static final long UNLIMITED_BYTES = Long.MAX_VALUE;
+
+    /**
+     * The queue to checkout from.
+     */
+    private final ShareQueue mShareQueue;
+
+    /**
+     * The destination of the {@link ShareRequest} to checkout.
+     */
+    private final Destination mDestination;
+
+    /**
+     * The number of {@link ShareRequest} checked out per page.
+     */
+    private final int mPageSize;
+
+    /**
+     * The checkout order.
+     */
+    private final int mOrder;
+
+    /**
+     * The total file size after which no more {@link ShareRequest} are checked out.
+     */
+    private final long mMaxBytes;
+
+    /**
+     * The total file size of the {@link ShareRequest} checked out so far.
+     */
+    private long mBytes = 0L;
+
+    /**
+     * The current page.
+     */
+    private List<ShareRequest> mPage = Collections.emptyList();
+
+    /**
+     * The position of the next {@link ShareRequest} in the current page.
+     */
+    private int mPosition = 0;
+
+    /**
+     * Whether the last page has been checked out.
+     */
+    private boolean mIsLastPage = false;
+
+    /**
+     * Constructor for a checkout in order of creation with no byte budget.
+     *
+     * @param shareQueue  the queue to checkout from.
+     * @param destination the destination of the {@link ShareRequest} to checkout.
+     * @param pageSize    the number of {@link ShareRequest} checked out per page. Must be positive.
+     */
+    public ShareCheckout(ShareQueue shareQueue, Destination destination, int pageSize) {
+        this(shareQueue, destination, pageSize, ORDER_FIFO, UNLIMITED_BYTES);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param shareQueue  the queue to checkout from.
+     * @param destination the destination of the {@link ShareRequest} to checkout.
+     * @param pageSize    the number of {@link ShareRequest} checked out per page. Must be positive.
+     * @param order       one of {@link #ORDER_FIFO} or {@link #ORDER_SMALLEST_FIRST}.
+     * @param maxBytes    the total file size after which no more {@link ShareRequest} are checked out in this pass.
+     *                    The last one may go over, so a file larger than the budget is still processed.
+     */
+    public ShareCheckout(ShareQueue shareQueue, Destination destination, int pageSize, int order, long maxBytes) {
+        mShareQueue = shareQueue;
+        mDestination = destination;
+        mPageSize = pageSize;
+        mOrder = order;
+        mMaxBytes = maxBytes;
+    }
+
+    @Override
+    public Iterator<ShareRequest> iterator() {
+        return this;
+    }
+
+    /**
+     * Checks whether there is another {@link ShareRequest}, checking out the next page if the current one is consumed.
+     *
+     * @return true if there is another {@link ShareRequest}; false otherwise.
+     */
+    @Override
+    public boolean hasNext() {
+        if (mPosition < mPage.size()) {
+            return true;
+        }
+        if (mIsLastPage || mBytes >= mMaxBytes) {
+            return false;
+        }
+
+        // Drop the consumed page before checking out the next one, within what is left of the byte budget.
+        mPage = Collections.emptyList();
+        mPage = mShareQueue.checkoutShareRequests(mDestination, mPageSize, mOrder, mMaxBytes - mBytes);
+        mPosition = 0;
+        mIsLastPage = mPage.size() < mPageSize;
+        for (ShareRequest shareRequest : mPage) {
+            mBytes += shareRequest.getFileSize();
+        }
+        return !mPage.isEmpty();
+    }
+
+    @Override
+    public ShareRequest next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return mPage.get(mPosition++);
+    }
+
+    /**
+     * Ends the checkout early, without checking out another page. The rest of the current page is already checked out,
+     * so the caller must record a result for each, or they stay processing until their leases expire.
+     *
+     * @return the {@link ShareRequest} left in the current page; may be empty.
+     */
+    public List<ShareRequest> drainPage() {
+        List<ShareRequest> shareRequests = new ArrayList<ShareRequest>(mPage.subList(mPosition, mPage.size()));
+        mPage = Collections.emptyList();
+        mPosition = 0;
+        mIsLastPage = true;
+        return shareRequests;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+}
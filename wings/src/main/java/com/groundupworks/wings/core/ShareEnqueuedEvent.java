@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2015 Benedict Lau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groundupworks.wings.core;
+
+/**
+ * An event emitted on the main thread once a share passed to {@link ShareEnqueuer} is enqueued, or found to be a
+ * duplicate of a share already in the queue.
+ *
+ * @author Benedict Lau
+ */
+public class ShareEnqueuedEvent {
+
+    /**
+     * The local path to the file to share.
+     */
+    private final String mFilePath;
+
+    /**
+     * The destination of the share.
+     */
+    private final Destination mDestination;
+
+    /**
+     * The id of the share; or -1 if the share could not be enqueued.
+     */
+    private final int mShareRequestId;
+
+    /**
+     * Whether the share is a duplicate of one already in the queue.
+     */
+    private final boolean mIsDuplicate;
+
+    /**
+     * Constructor.
+     *
+     * @param filePath       the local path to the file to share.
+     * @param destination    the destination of the share.
+     * @param shareRequestId the id of the share; or -1 if the share could not be enqueued.
+     * @param isDuplicate    true if the share is a duplicate of one already in the queue; false otherwise.
+     */
+    ShareEnqueuedEvent(String filePath, Destination destination, int shareRequestId, boolean isDuplicate) {
+        mFilePath = filePath;
+        mDestination = destination;
+        mShareRequestId = shareRequestId;
+        mIsDuplicate = isDuplicate;
+    }
+
+    /**
+     * Gets the local path to the file to share.
+     *
+     * @return the file path.
+     */
+    public String getFilePath() {
+        return mFilePath;
+    }
+
+    /**
+     * Gets the destination of the share.
+     *
+     * @return the {@link Destination}.
+     */
+    public Destination getDestination() {
+        return mDestination;
+    }
+
+    /**
+     * Gets the id of the share. For a duplicate, this is the id of the share already in the queue.
+     *
+     * @return the id; or -1 if the file could not be read or the share could not be enqueued.
+     */
+    public int getShareRequestId() {
+        return mShareRequestId;
+    }
+
+    /**
+     * Checks whether the share is a duplicate of one already in the queue, in which case nothing new is enqueued.
+     *
+     * @return true if the share is a duplicate; false otherwise.
+     */
+    public boolean isDuplicate() {
+        return mIsDuplicate;
+    }
+}
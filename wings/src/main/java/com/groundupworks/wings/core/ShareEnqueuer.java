@@ -0,0 +1,288 @@
+/*
+ * Copyright (C) 2015 Benedict Lau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groundupworks.wings.core;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.squareup.otto.Bus;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Enqueues shares that need work on their file before they can be enqueued, such as hashing the content to skip
+ * duplicates or coalescing bursts. The work runs on the worker {@link Looper}, so the caller thread never reads the
+ * file, and the outcome of each share is posted to the {@link Bus} on the main thread as a
+ * {@link ShareEnqueuedEvent}.
+ *
+ * @author Benedict Lau
+ */
+public class ShareEnqueuer {
+
+    /**
+     * The {@link Context} to start the {@link WingsService}.
+     */
+    private final Context mContext;
+
+    /**
+     * The queue to enqueue shares to.
+     */
+    private final ShareQueue mShareQueue;
+
+    /**
+     * The event bus to post the outcome of each share to.
+     */
+    private final Bus mBus;
+
+    /**
+     * The {@link Handler} to run the work on the worker thread.
+     */
+    private final Handler mWorkerHandler;
+
+    /**
+     * The {@link Handler} to post events on the main thread.
+     */
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * The burst suppression of each endpoint, keyed by endpoint id. Absent for endpoints without one.
+     */
+    private final Map<Integer, BurstSuppression> mBurstSuppressions =
+            new ConcurrentHashMap<Integer, BurstSuppression>();
+
+    /**
+     * The frame kept from the latest burst to each destination, keyed by destination hash. Only accessed on the worker
+     * thread.
+     */
+    private final Map<Integer, Burst> mBursts = new HashMap<Integer, Burst>();
+
+    /**
+     * The destinations of shares held back until their burst settles. Only accessed on the worker thread.
+     */
+    private final Set<Destination> mHeldDestinations = new HashSet<Destination>();
+
+    /**
+     * Starts the {@link WingsService} for the held destinations once a burst has settled.
+     */
+    private final Runnable mStartServiceRunnable = new Runnable() {
+        @Override
+        public void run() {
+            WingsService.startWakefulService(mContext, new ArrayList<Destination>(mHeldDestinations));
+            mHeldDestinations.clear();
+        }
+    };
+
+    /**
+     * Constructor.
+     *
+     * @param context      the {@link Context} to start the {@link WingsService}.
+     * @param shareQueue   the queue to enqueue shares to.
+     * @param workerLooper the {@link Looper} to run the work on.
+     * @param bus          the event bus to post the outcome of each share to.
+     */
+    public ShareEnqueuer(Context context, ShareQueue shareQueue, Looper workerLooper, Bus bus) {
+        mContext = context;
+        mShareQueue = shareQueue;
+        mWorkerHandler = new Handler(workerLooper);
+        mBus = bus;
+    }
+
+    //
+    // Private methods.
+    //
+
+    /**
+     * Enqueues a share unless its content is already queued for the destination. Must be called on the worker thread.
+     *
+     * @param filePath    the local path to the file to share.
+     * @param destination the destination of the share.
+     * @param priority    the priority of the share.
+     */
+    private void enqueueUniqueShareRequest(String filePath, Destination destination, int priority) {
+        int id = -1;
+        boolean isDuplicate = false;
+
+        String contentHash = ContentHash.compute(filePath);
+        if (contentHash != null) {
+            // The lookup is a single indexed query, so a duplicate costs no write.
+            id = mShareQueue.findShareRequest(destination, contentHash);
+            isDuplicate = id >= 0;
+            if (!isDuplicate) {
+                id = mShareQueue.createUniqueShareRequest(filePath, destination, priority, contentHash);
+                if (id < 0) {
+                    // The same content may have been enqueued by another thread since the lookup.
+                    id = mShareQueue.findShareRequest(destination, contentHash);
+                    isDuplicate = id >= 0;
+                }
+            }
+        }
+
+        post(new ShareEnqueuedEvent(filePath, destination, id, isDuplicate));
+
+        if (id >= 0 && !isDuplicate) {
+            RetryPolicy.reset(mContext);
+
+            BurstSuppression suppression = mBurstSuppressions.get(destination.getEndpointId());
+            if (suppression != null) {
+                suppressBurst(filePath, destination, id, suppression);
+
+                // Hold the service back until the burst settles, so a frame is not uploaded before a better one shows.
+                mHeldDestinations.add(destination);
+                mWorkerHandler.removeCallbacks(mStartServiceRunnable);
+                mWorkerHandler.postDelayed(mStartServiceRunnable, suppression.getWindow());
+            } else {
+                WingsService.startWakefulService(mContext, destination);
+            }
+        }
+    }
+
+    /**
+     * Coalesces a new share with the frame kept from the latest burst to its destination, if the two are
+     * near-duplicates. The frame that is not kept is discarded from the queue, unless it is already being processed.
+     * Must be called on the worker thread.
+     *
+     * @param filePath    the local path to the file of the new share.
+     * @param destination the destination of the new share.
+     * @param id          the id of the new share.
+     * @param suppression the {@link BurstSuppression} of the endpoint.
+     */
+    private void suppressBurst(String filePath, Destination destination, int id, BurstSuppression suppression) {
+        boolean isKeepSharpest = suppression.getKeep() == BurstSuppression.KEEP_SHARPEST;
+        ImageFingerprint fingerprint = ImageFingerprint.compute(filePath, isKeepSharpest);
+        if (fingerprint == null) {
+            // Not an image, so never part of a burst.
+            return;
+        }
+
+        int destinationHash = destination.getHash();
+        long now = SystemClock.elapsedRealtime();
+        Burst burst = mBursts.get(destinationHash);
+        if (burst == null || now - burst.mLastFrameAt > suppression.getWindow()
+                || fingerprint.getDistance(burst.mFingerprint) > suppression.getMaxDistance()) {
+            // Start a new burst.
+            mBursts.put(destinationHash, new Burst(id, fingerprint, now));
+            return;
+        }
+
+        if (!isKeepSharpest || fingerprint.mSharpness > burst.mFingerprint.mSharpness) {
+            if (mShareQueue.discardPendingShareRequest(burst.mKeptId)) {
+                post(new ShareSuppressedEvent(destination, burst.mKeptId, id));
+            }
+            mBursts.put(destinationHash, new Burst(id, fingerprint, now));
+        } else if (mShareQueue.discardPendingShareRequest(id)) {
+            post(new ShareSuppressedEvent(destination, id, burst.mKeptId));
+            burst.mLastFrameAt = now;
+        } else {
+            // Shares cannot be discarded once processing, so keep both and compare later frames with the new one.
+            mBursts.put(destinationHash, new Burst(id, fingerprint, now));
+        }
+    }
+
+    /**
+     * Posts an event to the {@link Bus} on the main thread.
+     *
+     * @param event the event.
+     */
+    private void post(final Object event) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mBus.post(event);
+            }
+        });
+    }
+
+    //
+    // Public methods.
+    //
+
+    /**
+     * Enqueues a share unless a share with the same file content is already queued for the destination. The file is
+     * hashed on the worker thread, then a {@link ShareEnqueuedEvent} is posted with the id of the new share, or the id
+     * of the existing one if the share is a duplicate.
+     *
+     * @param filePath    the local path to the file to share.
+     * @param destination the destination of the share.
+     * @param priority    one of {@link ShareRequest#PRIORITY_NORMAL} or {@link ShareRequest#PRIORITY_HIGH}.
+     */
+    public void enqueueUnique(final String filePath, final Destination destination, final int priority) {
+        mWorkerHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                enqueueUniqueShareRequest(filePath, destination, priority);
+            }
+        });
+    }
+
+    /**
+     * Sets the burst suppression applied to unique shares to an endpoint.
+     *
+     * @param endpointId  the id of the endpoint.
+     * @param suppression the {@link BurstSuppression}; or null to disable it.
+     */
+    public void setBurstSuppression(int endpointId, BurstSuppression suppression) {
+        if (suppression != null) {
+            mBurstSuppressions.put(endpointId, suppression);
+        } else {
+            mBurstSuppressions.remove(endpointId);
+        }
+    }
+
+    //
+    // Private classes.
+    //
+
+    /**
+     * The frame kept from the latest burst to a destination.
+     */
+    private static class Burst {
+
+        /**
+         * The id of the share of the kept frame.
+         */
+        private final int mKeptId;
+
+        /**
+         * The fingerprint of the kept frame.
+         */
+        private final ImageFingerprint mFingerprint;
+
+        /**
+         * The time of the latest frame of the burst, in {@link SystemClock#elapsedRealtime()} milliseconds.
+         */
+        private long mLastFrameAt;
+
+        /**
+         * Constructor.
+         *
+         * @param keptId      the id of the share of the kept frame.
+         * @param fingerprint the fingerprint of the kept frame.
+         * @param lastFrameAt the time of the latest frame of the burst.
+         */
+        private Burst(int keptId, ImageFingerprint fingerprint, long lastFrameAt) {
+            mKeptId = keptId;
+            mFingerprint = fingerprint;
+            mLastFrameAt = lastFrameAt;
+        }
+    }
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright (C) 2015 Benedict Lau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groundupworks.wings.core;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The storage for {@link ShareRequest} records, which manages the state of those records. A record is created pending,
+ * checked out into a processing state under a lease, then marked as either successful or failed. Failed records return
+ * to pending after a delay, and records are eventually removed by {@link #purge()}.
+ * <p/>
+ * The implementation is optionally provided by the {@link com.groundupworks.wings.IWingsModule}, and must be safe to
+ * call from multiple threads. {@link WingsDbHelper} is the default implementation; {@link InMemoryShareQueue}
+ * and {@link MappedJournalShareQueue} are the alternatives.
+ *
+ * @author Benedict Lau
+ */
+public interface ShareQueue {
+
+    /**
+     * Creates a new {@link ShareRequest}.
+     *
+     * @param filePath    the local path to the file to share.
+     * @param destination the destination of the share.
+     * @param priority    one of {@link ShareRequest#PRIORITY_NORMAL} or {@link ShareRequest#PRIORITY_HIGH}.
+     * @return true if successful; false otherwise.
+     */
+    public boolean createShareRequest(String filePath, Destination destination, int priority);
+
+    /**
+     * Creates a new {@link ShareRequest} for each file, all to the same destination.
+     *
+     * @param filePaths   the local paths to the files to share.
+     * @param destination the destination of the shares.
+     * @param priority    one of {@link ShareRequest#PRIORITY_NORMAL} or {@link ShareRequest#PRIORITY_HIGH}.
+     * @return the list of file paths for which a {@link ShareRequest} is created, in the order they were passed; may
+     * be empty.
+     */
+    public List<String> createShareRequests(Collection<String> filePaths, Destination destination, int priority);
+
+    /**
+     * Creates a new {@link ShareRequest} for the same file to each destination. Either all or none of the
+     * {@link ShareRequest} are created.
+     *
+     * @param filePath     the local path to the file to share.
+     * @param destinations the destinations of the shares.
+     * @param priority     one of {@link ShareRequest#PRIORITY_NORMAL} or {@link ShareRequest#PRIORITY_HIGH}.
+     * @return true if successful; false otherwise.
+     */
+    public boolean createShareRequests(String filePath, Collection<Destination> destinations, int priority);
+
+    /**
+     * Creates a new {@link ShareRequest} that is unique by content for its destination. Creation fails if a record of
+     * the destination already has the same content hash; use {@link #findShareRequest(Destination, String)} to get
+     * its id.
+     *
+     * @param filePath    the local path to the file to share.
+     * @param destination the destination of the share.
+     * @param priority    one of {@link ShareRequest#PRIORITY_NORMAL} or {@link ShareRequest#PRIORITY_HIGH}.
+     * @param contentHash the hash of the file content, from {@link ContentHash#compute(String)}.
+     * @return the id of the new record; or -1 if a record with the same content exists or an error occurred.
+     */
+    public int createUniqueShareRequest(String filePath, Destination destination, int priority, String contentHash);
+
+    /**
+     * Finds the {@link ShareRequest} of a destination with the same file content, in any state. Records that were
+     * purged or moved to the dead letters are no longer found.
+     *
+     * @param destination the destination of the share.
+     * @param contentHash the hash of the file content, from {@link ContentHash#compute(String)}.
+     * @return the id of the record; or -1 if none has the same content or an error occurred.
+     */
+    public int findShareRequest(Destination destination, String contentHash);
+
+    /**
+     * Checks out all {@link ShareRequest} that are due to be processed, filtered by destination. See
+     * {@link #checkoutShareRequests(Destination, int)}. The whole list is held in memory, so processing a large backlog
+     * should stream pages through a {@link ShareCheckout} instead.
+     *
+     * @param destination the destination of the {@link ShareRequest} to checkout.
+     * @return the list of {@link ShareRequest}; may be empty.
+     */
+    public List<ShareRequest> checkoutShareRequests(Destination destination);
+
+    /**
+     * Checks out a bounded list of {@link ShareRequest} that are due to be processed, filtered by destination. The list
+     * holds the high priority records first, then the normal priority ones, each sorted by time of creation from the
+     * earliest to most recent. A share of {@code maxBatch} is reserved for normal priority records, so they are not
+     * starved by a steady stream of high priority ones. The checked out records are leased in a
+     * processing state, so a call to {@link #markSuccessful(int)} or {@link #markFailed(int)} is expected to be called
+     * on each of those records.
+     *
+     * @param destination the destination of the {@link ShareRequest} to checkout.
+     * @param maxBatch    the maximum number of {@link ShareRequest} to checkout.
+     * @return the list of {@link ShareRequest}, containing at most {@code maxBatch} records; may be empty.
+     */
+    public List<ShareRequest> checkoutShareRequests(Destination destination, int maxBatch);
+
+    /**
+     * Checks out a bounded list of {@link ShareRequest} that are due to be processed, filtered by destination, in a
+     * given order and up to a total file size. Records are taken in order until either bound is reached; the last one
+     * may go over {@code maxBytes}, so a file larger than the budget is never starved. Otherwise this behaves like
+     * {@link #checkoutShareRequests(Destination, int)}.
+     *
+     * @param destination the destination of the {@link ShareRequest} to checkout.
+     * @param maxBatch    the maximum number of {@link ShareRequest} to checkout.
+     * @param order       one of {@link ShareCheckout#ORDER_FIFO} or {@link ShareCheckout#ORDER_SMALLEST_FIRST}.
+     * @param maxBytes    the total file size after which no more {@link ShareRequest} are checked out.
+     * @return the list of {@link ShareRequest}, containing at most {@code maxBatch} records; may be empty.
+     */
+    public List<ShareRequest> checkoutShareRequests(Destination destination, int maxBatch, int order, long maxBytes);
+
+    /**
+     * Deletes all {@link ShareRequest} based on destination.
+     *
+     * @param destination the destination of the list of {@link ShareRequest} to delete.
+     */
+    public void deleteShareRequests(Destination destination);
+
+    /**
+     * Deletes all {@link ShareRequest} of an endpoint, regardless of destination.
+     *
+     * @param endpointId the id of the endpoint of the list of {@link ShareRequest} to delete.
+     */
+    public void deleteEndpointShareRequests(int endpointId);
+
+    /**
+     * Deletes a {@link ShareRequest} only if it is still pending, so a share that is being or has been processed is
+     * never taken back.
+     *
+     * @param id the id of the {@link ShareRequest}.
+     * @return true if the record is deleted; false if it is not pending, does not exist or an error occurred.
+     */
+    public boolean discardPendingShareRequest(int id);
+
+    /**
+     * Drops the oldest pending {@link ShareRequest} of a destination, to make room for new ones.
+     *
+     * @param destination  the destination of the {@link ShareRequest} to drop.
+     * @param count        the maximum number of {@link ShareRequest} to drop.
+     * @param isFailedOnly true to only drop {@link ShareRequest} that failed at least once; false to drop any.
+     * @return the number of records dropped; or -1 if an error occurred.
+     */
+    public int dropOldestShareRequests(Destination destination, int count, boolean isFailedOnly);
+
+    /**
+     * Marks a {@link ShareRequest} as successfully processed, releasing its lease.
+     *
+     * @param id the id of the {@link ShareRequest}.
+     * @return true if successful; false otherwise.
+     */
+    public boolean markSuccessful(int id);
+
+    /**
+     * Marks a {@link ShareRequest} as failed to process, releasing its lease. The record returns to pending, but is not
+     * due for its next attempt until after a delay given by {@link RetryPolicy#getShareRequestDelay(int)}.
+     *
+     * @param id the id of the {@link ShareRequest}.
+     * @return true if successful; false otherwise.
+     */
+    public boolean markFailed(int id);
+
+    /**
+     * Marks a list of {@link ShareRequest} as successfully processed.
+     *
+     * @param ids the ids of the {@link ShareRequest}.
+     * @return the number of records updated; or -1 if an error occurred.
+     */
+    public int markSuccessful(int[] ids);
+
+    /**
+     * Marks a list of {@link ShareRequest} as failed to process, with a transient failure.
+     *
+     * @param ids the ids of the {@link ShareRequest}.
+     * @return the number of records updated; or -1 if an error occurred.
+     */
+    public int markFailed(int[] ids);
+
+    /**
+     * Marks a list of {@link ShareRequest} as failed to process, recording the type of failure so it can be told apart
+     * once the records become {@link DeadLetter}.
+     *
+     * @param ids         the ids of the {@link ShareRequest}.
+     * @param failureType the {@link UploadResult} type of the failure, either
+     *                    {@link UploadResult#TYPE_TRANSIENT_FAILURE} or {@link UploadResult#TYPE_AUTH_FAILURE}.
+     * @return the number of records updated; or -1 if an error occurred.
+     */
+    public int markFailed(int[] ids, int failureType);
+
+    /**
+     * Marks the results of processing a list of {@link ShareRequest} at once.
+     *
+     * @param successfulIds the ids of the {@link ShareRequest} successfully processed.
+     * @param failedIds     the ids of the {@link ShareRequest} that failed to process, with a transient failure.
+     * @return the number of records updated; or -1 if an error occurred.
+     */
+    public int markResults(int[] successfulIds, int[] failedIds);
+
+    /**
+     * Marks a list of {@link ShareRequest} as failed for good, releasing their leases. The records are not attempted
+     * again, and the next {@link #purge()} moves them to the dead letters.
+     *
+     * @param ids the ids of the {@link ShareRequest}.
+     * @return the number of records updated; or -1 if an error occurred.
+     */
+    public int markRejected(int[] ids);
+
+    /**
+     * Gets the accumulator that batches the results of processing {@link ShareRequest} into this queue.
+     *
+     * @return the {@link ShareResults}.
+     */
+    public ShareResults getShareResults();
+
+    /**
+     * Reclaims records in a processing state whose lease has expired, or was taken by a previous process, by resetting
+     * them back to pending.
+     *
+     * @return the number of records reclaimed; or -1 if an error occurred.
+     */
+    public int reclaimExpiredLeases();
+
+    /**
+     * Purges the queue based on the purge policy, which removes processed records and moves expired and repeatedly
+     * failed records to the dead letters.
+     *
+     * @return the number of records remaining after the purge; or -1 if an error occurred.
+     */
+    public int purge();
+
+    /**
+     * Gets the records that the purge policy gave up on, in order of creation.
+     *
+     * @return the list of {@link DeadLetter}; may be empty.
+     */
+    public List<DeadLetter> getDeadLetters();
+
+    /**
+     * Counts the records that the purge policy gave up on.
+     *
+     * @return the number of dead letters; or -1 if an error occurred.
+     */
+    public int countDeadLetters();
+
+    /**
+     * Moves dead letters back into the queue as new pending records with the same ids, so they are attempted again
+     * with a fresh expiry and no failures.
+     *
+     * @param ids the ids of the {@link DeadLetter}.
+     * @return the number of records requeued; or -1 if an error occurred.
+     */
+    public int requeueDeadLetters(int[] ids);
+
+    /**
+     * Deletes dead letters for good.
+     *
+     * @param ids the ids of the {@link DeadLetter}.
+     * @return the number of records discarded; or -1 if an error occurred.
+     */
+    public int discardDeadLetters(int[] ids);
+
+    /**
+     * Counts the records in the queue, in any state.
+     *
+     * @return the number of records; or -1 if an error occurred.
+     */
+    public int countShareRequests();
+
+    /**
+     * Gets the number of records by destination and state, and the age of the oldest pending record. This must be
+     * cheap enough to poll frequently, so it should not read storage on every call.
+     *
+     * @return the {@link QueueStats}.
+     */
+    public QueueStats getQueueStats();
+
+    /**
+     * Gets the number of records of a single destination by state, and the age of its oldest pending record. See
+     * {@link #getQueueStats()}.
+     *
+     * @param destination the destination.
+     * @return the {@link QueueStats}, with the counts of that destination only.
+     */
+    public QueueStats getQueueStats(Destination destination);
+}
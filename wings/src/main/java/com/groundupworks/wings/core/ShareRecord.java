@@ -0,0 +1,363 @@
+/*
+ * Copyright (C) 2015 Benedict Lau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groundupworks.wings.core;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * An immutable snapshot of a {@link ShareRequest} record, for the {@link ShareQueue} implementations that manage their
+ * records outside of SQLite. Every state change creates a new snapshot, following the same rules as
+ * {@link WingsDbHelper}.
+ *
+ * @author Benedict Lau
+ */
+final class ShareRecord {
+
+    /**
+     * State of a record that the purge policy gave up on. Never handed out on checkout nor counted in
+     * {@link QueueStats}.
+     */
+    static final int STATE_DEAD_LETTER = 3;
+
+    final int mId;
+
+    final String mFilePath;
+
+    final int mDestinationHash;
+
+    final int mEndpointId;
+
+    final long mTimeCreated;
+
+    /**
+     * The size of the file at the time the record is created, in bytes; or 0 if unknown.
+     */
+    final long mFileSize;
+
+    /**
+     * The time the file was last modified at the time the record is created; or 0 if unknown.
+     */
+    final long mFileModifiedAt;
+
+    /**
+     * The priority, which does not change over the life of the record.
+     */
+    final int mPriority;
+
+    /**
+     * The hash of the file content, unique per destination; or null if the record is not deduplicated.
+     */
+    final String mContentHash;
+
+    final int mState;
+
+    final int mFails;
+
+    final long mLastFailedAt;
+
+    /**
+     * The {@link UploadResult} type of the last failure; or {@link UploadResult#TYPE_SUCCESS} if never failed.
+     */
+    final int mLastFailureType;
+
+    /**
+     * The owner of the lease; or null if the record is not leased, or the owner is unknown.
+     */
+    final Object mLeaseOwner;
+
+    final long mLeaseExpiresAt;
+
+    final long mNextAttemptAt;
+
+    /**
+     * Constructor for a new record in the pending state.
+     *
+     * @param id              the id of the record.
+     * @param filePath        the local path to the file to share.
+     * @param destinationHash the hash of the destination of the share.
+     * @param timeCreated     the time the record is created.
+     * @param fileSize        the size of the file, in bytes.
+     * @param fileModifiedAt  the time the file was last modified.
+     * @param priority        the priority.
+     * @param contentHash     the hash of the file content; or null.
+     */
+    ShareRecord(int id, String filePath, int destinationHash, long timeCreated, long fileSize, long fileModifiedAt,
+                int priority, String contentHash) {
+        this(id, filePath, destinationHash, timeCreated, fileSize, fileModifiedAt, priority, contentHash,
+                ShareRequest.STATE_PENDING, 0, 0L, UploadResult.TYPE_SUCCESS, null, 0L, 0L);
+    }
+
+    /**
+     * Constructor.
+     */
+    ShareRecord(int id, String filePath, int destinationHash, long timeCreated, long fileSize, long fileModifiedAt,
+                int priority, String contentHash, int state, int fails, long lastFailedAt, int lastFailureType,
+                Object leaseOwner, long leaseExpiresAt, long nextAttemptAt) {
+        mId = id;
+        mFilePath = filePath;
+        mDestinationHash = destinationHash;
+        mEndpointId = Destination.from(destinationHash).getEndpointId();
+        mTimeCreated = timeCreated;
+        mFileSize = fileSize;
+        mFileModifiedAt = fileModifiedAt;
+        mPriority = priority;
+        mContentHash = contentHash;
+        mState = state;
+        mFails = fails;
+        mLastFailedAt = lastFailedAt;
+        mLastFailureType = lastFailureType;
+        mLeaseOwner = leaseOwner;
+        mLeaseExpiresAt = leaseExpiresAt;
+        mNextAttemptAt = nextAttemptAt;
+    }
+
+    /**
+     * Creates a new record in the pending state, reading the size and modification time of the file.
+     *
+     * @param id              the id of the record.
+     * @param filePath        the local path to the file to share.
+     * @param destinationHash the hash of the destination of the share.
+     * @param timeCreated     the time the record is created.
+     * @param priority        the priority.
+     * @param contentHash     the hash of the file content; or null.
+     * @return the record.
+     */
+    static ShareRecord create(int id, String filePath, int destinationHash, long timeCreated, int priority,
+                              String contentHash) {
+        File file = new File(filePath);
+        return new ShareRecord(id, filePath, destinationHash, timeCreated, file.length(), file.lastModified(),
+                priority, contentHash);
+    }
+
+    /**
+     * Finds the live record of a destination with the same file content, following the same rules as
+     * {@link WingsDbHelper#findShareRequest(Destination, String)}.
+     *
+     * @param records         the records.
+     * @param destinationHash the hash of the destination.
+     * @param contentHash     the hash of the file content.
+     * @return the record; or null if none has the same content.
+     */
+    static ShareRecord findByContentHash(Iterable<ShareRecord> records, int destinationHash, String contentHash) {
+        for (ShareRecord record : records) {
+            if (record.mDestinationHash == destinationHash && contentHash.equals(record.mContentHash)
+                    && record.mState != STATE_DEAD_LETTER) {
+                return record;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Selects the records of a destination that are due, following the same rules as
+     * {@link WingsDbHelper#checkoutShareRequests(Destination, int, int, long)}.
+     *
+     * @param records         the records, in order of creation.
+     * @param destinationHash the hash of the destination.
+     * @param now             the current time.
+     * @param maxBatch        the maximum number of records to select.
+     * @param order           the checkout order within each priority lane.
+     * @param maxBytes        the total file size after which no more records are selected.
+     * @return the selected records; may be empty.
+     */
+    static List<ShareRecord> selectDue(Iterable<ShareRecord> records, int destinationHash, long now, int maxBatch,
+                                       int order, long maxBytes) {
+        List<ShareRecord> highLane = new ArrayList<ShareRecord>();
+        List<ShareRecord> normalLane = new ArrayList<ShareRecord>();
+        for (ShareRecord record : records) {
+            if (record.isDue(destinationHash, now)) {
+                List<ShareRecord> lane = record.mPriority > ShareRequest.PRIORITY_NORMAL ? highLane : normalLane;
+                if (order != ShareCheckout.ORDER_FIFO || lane.size() < maxBatch) {
+                    lane.add(record);
+                }
+            }
+        }
+
+        if (order == ShareCheckout.ORDER_SMALLEST_FIRST) {
+            // Stable, so records of the same size stay in order of creation.
+            Comparator<ShareRecord> comparator = new Comparator<ShareRecord>() {
+                @Override
+                public int compare(ShareRecord lhs, ShareRecord rhs) {
+                    return lhs.mFileSize < rhs.mFileSize ? -1 : (lhs.mFileSize == rhs.mFileSize ? 0 : 1);
+                }
+            };
+            Collections.sort(highLane, comparator);
+            Collections.sort(normalLane, comparator);
+        }
+
+        return selectFromLanes(highLane, normalLane, maxBatch, maxBytes);
+    }
+
+    /**
+     * Selects records from the priority lanes, each already in checkout order. High priority records come first, but
+     * {@link WingsDbHelper#NORMAL_PRIORITY_RESERVE_PERCENT} of the batch, and at least one record of any batch larger
+     * than one, is reserved for normal priority records, so the normal lane keeps moving while the high lane is busy. Records are then taken in that order until the total
+     * file size reaches {@code maxBytes}.
+     *
+     * @param highLane   the due high priority records, in checkout order.
+     * @param normalLane the due normal priority records, in checkout order.
+     * @param maxBatch   the maximum number of records to select.
+     * @param maxBytes   the total file size after which no more records are selected.
+     * @return the selected records; may be empty.
+     */
+    static List<ShareRecord> selectFromLanes(List<ShareRecord> highLane, List<ShareRecord> normalLane, int maxBatch,
+                                             long maxBytes) {
+        int normalReserve = maxBatch > 1
+                ? Math.max(1, (int) ((long) maxBatch * WingsDbHelper.NORMAL_PRIORITY_RESERVE_PERCENT / 100)) : 0;
+        int normalCount = Math.min(normalLane.size(), Math.max(maxBatch - highLane.size(), normalReserve));
+        int highCount = Math.min(highLane.size(), maxBatch - normalCount);
+
+        List<ShareRecord> lanes = new ArrayList<ShareRecord>(highLane.subList(0, highCount));
+        lanes.addAll(normalLane.subList(0, normalCount));
+
+        List<ShareRecord> selectedRecords = new ArrayList<ShareRecord>();
+        long bytes = 0L;
+        for (ShareRecord record : lanes) {
+            if (bytes >= maxBytes) {
+                break;
+            }
+            selectedRecords.add(record);
+            bytes += record.mFileSize;
+        }
+        return selectedRecords;
+    }
+
+    /**
+     * Checks whether the record is pending for a destination and due for its next attempt.
+     *
+     * @param destinationHash the hash of the destination.
+     * @param now             the current time.
+     * @return true if due; false otherwise.
+     */
+    boolean isDue(int destinationHash, long now) {
+        return mDestinationHash == destinationHash && mState == ShareRequest.STATE_PENDING && mNextAttemptAt <= now;
+    }
+
+    /**
+     * Checks whether the record is processing under a lease that is expired, or held by another owner.
+     *
+     * @param leaseOwner the owner of the leases taken by the caller.
+     * @param now        the current time.
+     * @return true if reclaimable; false otherwise.
+     */
+    boolean isReclaimable(Object leaseOwner, long now) {
+        return mState == ShareRequest.STATE_PROCESSING && (mLeaseOwner != leaseOwner || mLeaseExpiresAt < now);
+    }
+
+    /**
+     * Checks whether the record should be purged, following the same policy as {@link WingsDbHelper#purge()}.
+     *
+     * @param earliestValidTime the creation time before which records expire.
+     * @return true if purgeable; false otherwise.
+     */
+    boolean isPurgeable(long earliestValidTime) {
+        return mTimeCreated < earliestValidTime || mState == ShareRequest.STATE_PROCESSED
+                || mFails > WingsDbHelper.RECORD_MAX_FAILS;
+    }
+
+    /**
+     * Checks whether the record should be moved to the dead letters when purged, rather than deleted.
+     *
+     * @return true if the record was never processed successfully; false otherwise.
+     */
+    boolean isDeadLetterOnPurge() {
+        return mState == ShareRequest.STATE_PENDING || mState == ShareRequest.STATE_PROCESSING;
+    }
+
+    /**
+     * @return the {@link DeadLetter} to hand out to the client.
+     */
+    DeadLetter toDeadLetter() {
+        return new DeadLetter(mId, mFilePath, Destination.from(mDestinationHash), mTimeCreated, mFails, mLastFailedAt,
+                DeadLetter.getReason(mFails, mLastFailureType), mLastFailureType);
+    }
+
+    /**
+     * @return the {@link ShareRequest} to hand out on checkout.
+     */
+    ShareRequest toShareRequest() {
+        return new ShareRequest(mId, mFilePath, Destination.from(mDestinationHash), mFileSize, mPriority);
+    }
+
+    /**
+     * @return a copy in the processing state, leased to the owner.
+     */
+    ShareRecord toProcessing(Object leaseOwner, long now) {
+        return new ShareRecord(mId, mFilePath, mDestinationHash, mTimeCreated, mFileSize, mFileModifiedAt,
+                mPriority, mContentHash, ShareRequest.STATE_PROCESSING, mFails, mLastFailedAt, mLastFailureType,
+                leaseOwner, now + WingsDbHelper.LEASE_DURATION, mNextAttemptAt);
+    }
+
+    /**
+     * @return a copy in the processed state, with the lease released.
+     */
+    ShareRecord toProcessed() {
+        return new ShareRecord(mId, mFilePath, mDestinationHash, mTimeCreated, mFileSize, mFileModifiedAt,
+                mPriority, mContentHash, ShareRequest.STATE_PROCESSED, mFails, mLastFailedAt, mLastFailureType, null,
+                0L, mNextAttemptAt);
+    }
+
+    /**
+     * @return a copy back in the pending state after a failure of a given {@link UploadResult} type, with the next
+     * attempt delayed.
+     */
+    ShareRecord toFailed(long now, int failureType) {
+        return new ShareRecord(mId, mFilePath, mDestinationHash, mTimeCreated, mFileSize, mFileModifiedAt,
+                mPriority, mContentHash, ShareRequest.STATE_PENDING, mFails + 1, now, failureType, null, 0L,
+                now + RetryPolicy.getShareRequestDelay(mFails));
+    }
+
+    /**
+     * @return a copy back in the pending state after a failure that is not worth retrying, with more fails than the
+     * purge policy allows and no next attempt.
+     */
+    ShareRecord toRejected(long now) {
+        return new ShareRecord(mId, mFilePath, mDestinationHash, mTimeCreated, mFileSize, mFileModifiedAt,
+                mPriority, mContentHash, ShareRequest.STATE_PENDING, WingsDbHelper.RECORD_MAX_FAILS + 1, now,
+                UploadResult.TYPE_PERMANENT_FAILURE, null, 0L, Long.MAX_VALUE);
+    }
+
+    /**
+     * @return a copy in the dead letter state, with the lease released.
+     */
+    ShareRecord toDead() {
+        return new ShareRecord(mId, mFilePath, mDestinationHash, mTimeCreated, mFileSize, mFileModifiedAt,
+                mPriority, mContentHash, STATE_DEAD_LETTER, mFails, mLastFailedAt, mLastFailureType, null, 0L,
+                mNextAttemptAt);
+    }
+
+    /**
+     * @return a new record in the pending state with the same id and normal priority, as if it were created now. The
+     * content hash is dropped, since a record with the same content may have been created in the meantime.
+     */
+    ShareRecord toRequeued(long now) {
+        return new ShareRecord(mId, mFilePath, mDestinationHash, now, mFileSize, mFileModifiedAt,
+                ShareRequest.PRIORITY_NORMAL, null);
+    }
+
+    /**
+     * @return a copy back in the pending state, with the lease released.
+     */
+    ShareRecord toPending() {
+        return new ShareRecord(mId, mFilePath, mDestinationHash, mTimeCreated, mFileSize, mFileModifiedAt,
+                mPriority, mContentHash, ShareRequest.STATE_PENDING, mFails, mLastFailedAt, mLastFailureType, null, 0L,
+                mNextAttemptAt);
+    }
+}
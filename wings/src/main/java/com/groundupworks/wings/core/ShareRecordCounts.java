@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2015 Benedict Lau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groundupworks.wings.core;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The {@link QueueStats.Counts} of a {@link ShareQueue} that keeps its records in memory, kept up to date as records
+ * change, so a {@link QueueStats} snapshot costs one copy per destination instead of a scan of every record. Each
+ * change is applied as the removal of the old snapshot of a record and the addition of the new one. These updates
+ * commute, so the counts converge even if concurrent changes are applied out of order.
+ *
+ * @author Benedict Lau
+ */
+final class ShareRecordCounts {
+
+    /**
+     * The counts, keyed by destination hash. The oldest pending time is filled in from {@link #mPendingTimes} when a
+     * snapshot is taken.
+     */
+    private final Map<Integer, QueueStats.Counts> mCounts = new HashMap<Integer, QueueStats.Counts>();
+
+    /**
+     * The number of pending records by creation time, keyed by destination hash.
+     */
+    private final Map<Integer, TreeMap<Long, Integer>> mPendingTimes = new HashMap<Integer, TreeMap<Long, Integer>>();
+
+    //
+    // Private methods.
+    //
+
+    /**
+     * Adds a record to the counts, or removes it.
+     *
+     * @param record the snapshot of the record.
+     * @param delta  1 to add the record; -1 to remove it.
+     */
+    private void count(ShareRecord record, int delta) {
+        QueueStats.Counts counts = mCounts.get(record.mDestinationHash);
+        if (counts == null) {
+            counts = new QueueStats.Counts();
+            mCounts.put(record.mDestinationHash, counts);
+        }
+        counts.add(record.mState, delta, record.mFails > 0 ? delta : 0,
+                record.mPriority > ShareRequest.PRIORITY_NORMAL ? delta : 0, Long.MAX_VALUE);
+        if (counts.mPending == 0 && counts.mProcessing == 0 && counts.mProcessed == 0 && counts.mFailed == 0
+                && counts.mHighPriorityPending == 0) {
+            mCounts.remove(record.mDestinationHash);
+        }
+
+        if (record.mState == ShareRequest.STATE_PENDING) {
+            TreeMap<Long, Integer> pendingTimes = mPendingTimes.get(record.mDestinationHash);
+            if (pendingTimes == null) {
+                pendingTimes = new TreeMap<Long, Integer>();
+                mPendingTimes.put(record.mDestinationHash, pendingTimes);
+            }
+
+            Integer pendingCount = pendingTimes.get(record.mTimeCreated);
+            int newPendingCount = (pendingCount == null ? 0 : pendingCount) + delta;
+            if (newPendingCount == 0) {
+                pendingTimes.remove(record.mTimeCreated);
+                if (pendingTimes.isEmpty()) {
+                    mPendingTimes.remove(record.mDestinationHash);
+                }
+            } else {
+                pendingTimes.put(record.mTimeCreated, newPendingCount);
+            }
+        }
+    }
+
+    /**
+     * Copies the counts of a destination into a snapshot.
+     *
+     * @param snapshot        the counts of the snapshot, keyed by destination hash.
+     * @param destinationHash the destination hash.
+     */
+    private void copy(Map<Integer, QueueStats.Counts> snapshot, int destinationHash) {
+        QueueStats.Counts counts = mCounts.get(destinationHash);
+        if (counts == null) {
+            return;
+        }
+
+        QueueStats.Counts destinationCounts = new QueueStats.Counts(counts);
+        TreeMap<Long, Integer> pendingTimes = mPendingTimes.get(destinationHash);
+        if (pendingTimes != null) {
+            destinationCounts.mOldestPendingTime = pendingTimes.firstKey();
+        }
+        snapshot.put(destinationHash, destinationCounts);
+    }
+
+    //
+    // Package private methods.
+    //
+
+    /**
+     * Updates the counts for a record that changed.
+     *
+     * @param oldRecord the snapshot the record had; or null if the record is new.
+     * @param newRecord the snapshot the record has; or null if the record is removed.
+     */
+    synchronized void replace(ShareRecord oldRecord, ShareRecord newRecord) {
+        if (oldRecord != null) {
+            count(oldRecord, -1);
+        }
+        if (newRecord != null) {
+            count(newRecord, 1);
+        }
+    }
+
+    /**
+     * Takes a snapshot of the counts.
+     *
+     * @param time the time the snapshot is taken.
+     * @return the {@link QueueStats}.
+     */
+    synchronized QueueStats getQueueStats(long time) {
+        Map<Integer, QueueStats.Counts> snapshot = new HashMap<Integer, QueueStats.Counts>();
+        for (int destinationHash : mCounts.keySet()) {
+            copy(snapshot, destinationHash);
+        }
+        return new QueueStats(time, snapshot);
+    }
+
+    /**
+     * Takes a snapshot of the counts of a destination.
+     *
+     * @param time        the time the snapshot is taken.
+     * @param destination the destination.
+     * @return the {@link QueueStats}.
+     */
+    synchronized QueueStats getQueueStats(long time, Destination destination) {
+        Map<Integer, QueueStats.Counts> snapshot = new HashMap<Integer, QueueStats.Counts>();
+        copy(snapshot, destination.getHash());
+        return new QueueStats(time, snapshot);
+    }
+}
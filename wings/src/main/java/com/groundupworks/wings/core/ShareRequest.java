@@ -32,6 +32,21 @@ public class ShareRequest {
 
     static final int STATE_PROCESSED = 2;
 
+    //
+    // Valid values for priority.
+    //
+
+    /**
+     * Priority for background shares, which are processed in order of creation.
+     */
+    public static final int PRIORITY_NORMAL = 0;
+
+    /**
+     * Priority for interactive shares, which jump ahead of the normal priority backlog. A share of every checkout is
+     * still reserved for normal priority, so the normal lane is never starved.
+     */
+    public static final int PRIORITY_HIGH = 1;
+
     /**
      * The record id.
      */
@@ -48,16 +63,53 @@ public class ShareRequest {
     private Destination mDestination;
 
     /**
-     * Package private constructor.
+     * The size of the file when the share was requested, in bytes.
+     */
+    private long mFileSize;
+
+    /**
+     * The priority of the share.
+     */
+    private int mPriority;
+
+    /**
+     * Constructor.
      *
      * @param id          the record id.
      * @param filePath    the local path to the file to share.
      * @param destination the destination of the share.
      */
-    ShareRequest(int id, String filePath, Destination destination) {
+    public ShareRequest(int id, String filePath, Destination destination) {
+        this(id, filePath, destination, 0L);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param id          the record id.
+     * @param filePath    the local path to the file to share.
+     * @param destination the destination of the share.
+     * @param fileSize    the size of the file when the share was requested, in bytes; or 0 if unknown.
+     */
+    public ShareRequest(int id, String filePath, Destination destination, long fileSize) {
+        this(id, filePath, destination, fileSize, PRIORITY_NORMAL);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param id          the record id.
+     * @param filePath    the local path to the file to share.
+     * @param destination the destination of the share.
+     * @param fileSize    the size of the file when the share was requested, in bytes; or 0 if unknown.
+     * @param priority    one of {@link #PRIORITY_NORMAL} or {@link #PRIORITY_HIGH}.
+     */
+    public ShareRequest(int id, String filePath, Destination destination, long fileSize, int priority) {
         mId = id;
         mFilePath = filePath;
         mDestination = destination;
+        mFileSize = fileSize;
+        mPriority = priority;
     }
 
     //
@@ -84,4 +136,18 @@ public class ShareRequest {
     public Destination getDestination() {
         return mDestination;
     }
+
+    /**
+     * @return the size of the file when the share was requested, in bytes; or 0 if unknown.
+     */
+    public long getFileSize() {
+        return mFileSize;
+    }
+
+    /**
+     * @return the priority of the share; one of {@link #PRIORITY_NORMAL} or {@link #PRIORITY_HIGH}.
+     */
+    public int getPriority() {
+        return mPriority;
+    }
 }
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2015 Benedict Lau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groundupworks.wings.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Accumulates the results of processing {@link ShareRequest} during a pass, and commits them to a {@link ShareQueue} in
+ * batches. Results are flushed in a single transaction whenever the flush threshold is reached, and by the
+ * {@link WingsService} at the end of each pass. Until flushed, the records remain in the processing state.
+ *
+ * @author Benedict Lau
+ */
+public class ShareResults {
+
+    /**
+     * The default number of accumulated results that triggers a flush.
+     */
+    static final int DEFAULT_FLUSH_THRESHOLD = 50;
+
+    /**
+     * The queue to commit results to.
+     */
+    private final ShareQueue mShareQueue;
+
+    /**
+     * The number of accumulated results that triggers a flush.
+     */
+    private final int mFlushThreshold;
+
+    /**
+     * The ids of the {@link ShareRequest} successfully processed since the last flush.
+     */
+    private final List<Integer> mSuccessfulIds = new ArrayList<Integer>();
+
+    /**
+     * The ids of the {@link ShareRequest} that failed to process since the last flush.
+     */
+    private final List<Integer> mFailedIds = new ArrayList<Integer>();
+
+    /**
+     * The ids of the {@link ShareRequest} that failed to authenticate since the last flush.
+     */
+    private final List<Integer> mAuthFailedIds = new ArrayList<Integer>();
+
+    /**
+     * The ids of the {@link ShareRequest} that failed for good since the last flush.
+     */
+    private final List<Integer> mRejectedIds = new ArrayList<Integer>();
+
+    /**
+     * Constructor.
+     *
+     * @param shareQueue the queue to commit results to.
+     */
+    public ShareResults(ShareQueue shareQueue) {
+        this(shareQueue, DEFAULT_FLUSH_THRESHOLD);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param shareQueue     the queue to commit results to.
+     * @param flushThreshold the number of accumulated results that triggers a flush.
+     */
+    public ShareResults(ShareQueue shareQueue, int flushThreshold) {
+        mShareQueue = shareQueue;
+        mFlushThreshold = flushThreshold;
+    }
+
+    //
+    // Private methods.
+    //
+
+    /**
+     * Converts a list of ids to an array.
+     *
+     * @param ids the list of ids.
+     * @return the array of ids.
+     */
+    private static int[] toArray(List<Integer> ids) {
+        int[] array = new int[ids.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = ids.get(i);
+        }
+        return array;
+    }
+
+    /**
+     * Flushes if the number of accumulated results reached the threshold.
+     */
+    private void flushIfFull() {
+        if (mSuccessfulIds.size() + mFailedIds.size() + mAuthFailedIds.size() + mRejectedIds.size()
+                >= mFlushThreshold) {
+            flush();
+        }
+    }
+
+    //
+    // Public methods.
+    //
+
+    /**
+     * Records a {@link ShareRequest} as successfully processed.
+     *
+     * @param id the id of the {@link ShareRequest}.
+     */
+    public synchronized void markSuccessful(int id) {
+        mSuccessfulIds.add(id);
+        flushIfFull();
+    }
+
+    /**
+     * Records a {@link ShareRequest} as failed to process.
+     *
+     * @param id the id of the {@link ShareRequest}.
+     */
+    public synchronized void markFailed(int id) {
+        mFailedIds.add(id);
+        flushIfFull();
+    }
+
+    /**
+     * Records a {@link ShareRequest} as failed to process with a given type of failure, so it can be told apart once
+     * it becomes a {@link DeadLetter}.
+     *
+     * @param id          the id of the {@link ShareRequest}.
+     * @param failureType the {@link UploadResult} type of the failure. A {@link UploadResult#TYPE_PERMANENT_FAILURE}
+     *                    is recorded as with {@link #markRejected(int)}.
+     */
+    public synchronized void markFailed(int id, int failureType) {
+        if (failureType == UploadResult.TYPE_PERMANENT_FAILURE) {
+            mRejectedIds.add(id);
+        } else if (failureType == UploadResult.TYPE_AUTH_FAILURE) {
+            mAuthFailedIds.add(id);
+        } else {
+            mFailedIds.add(id);
+        }
+        flushIfFull();
+    }
+
+    /**
+     * Records a {@link ShareRequest} as failed for good, so it is not attempted again.
+     *
+     * @param id the id of the {@link ShareRequest}.
+     */
+    public synchronized void markRejected(int id) {
+        mRejectedIds.add(id);
+        flushIfFull();
+    }
+
+    /**
+     * Commits all accumulated results to the queue at once. The accumulated results are cleared
+     * even if the commit fails, in which case the records are left in the processing state to be reset.
+     *
+     * @return true if successful; false otherwise.
+     */
+    public synchronized boolean flush() {
+        if (mSuccessfulIds.isEmpty() && mFailedIds.isEmpty() && mAuthFailedIds.isEmpty() && mRejectedIds.isEmpty()) {
+            return true;
+        }
+
+        int[] successfulIds = toArray(mSuccessfulIds);
+        int[] failedIds = toArray(mFailedIds);
+        int[] authFailedIds = toArray(mAuthFailedIds);
+        int[] rejectedIds = toArray(mRejectedIds);
+        mSuccessfulIds.clear();
+        mFailedIds.clear();
+        mAuthFailedIds.clear();
+        mRejectedIds.clear();
+
+        boolean isSuccessful = mShareQueue.markResults(successfulIds, failedIds) >= 0;
+        if (authFailedIds.length > 0) {
+            isSuccessful = mShareQueue.markFailed(authFailedIds, UploadResult.TYPE_AUTH_FAILURE) >= 0 && isSuccessful;
+        }
+        if (rejectedIds.length > 0) {
+            isSuccessful = mShareQueue.markRejected(rejectedIds) >= 0 && isSuccessful;
+        }
+        return isSuccessful;
+    }
+}
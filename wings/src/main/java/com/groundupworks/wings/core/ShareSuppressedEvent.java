@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2015 Benedict Lau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groundupworks.wings.core;
+
+/**
+ * An event emitted on the main thread when {@link ShareEnqueuer} discards a share as a near-duplicate of another frame
+ * of the same burst. See {@link BurstSuppression}.
+ *
+ * @author Benedict Lau
+ */
+public class ShareSuppressedEvent {
+
+    /**
+     * The destination of the shares.
+     */
+    private final Destination mDestination;
+
+    /**
+     * The id of the share that is discarded.
+     */
+    private final int mSuppressedId;
+
+    /**
+     * The id of the share that is kept in its place.
+     */
+    private final int mKeptId;
+
+    /**
+     * Constructor.
+     *
+     * @param destination  the destination of the shares.
+     * @param suppressedId the id of the share that is discarded.
+     * @param keptId       the id of the share that is kept in its place.
+     */
+    ShareSuppressedEvent(Destination destination, int suppressedId, int keptId) {
+        mDestination = destination;
+        mSuppressedId = suppressedId;
+        mKeptId = keptId;
+    }
+
+    /**
+     * Gets the destination of the shares.
+     *
+     * @return the {@link Destination}.
+     */
+    public Destination getDestination() {
+        return mDestination;
+    }
+
+    /**
+     * Gets the id of the share that is discarded, as reported by {@link ShareEnqueuedEvent#getShareRequestId()}.
+     *
+     * @return the id.
+     */
+    public int getSuppressedId() {
+        return mSuppressedId;
+    }
+
+    /**
+     * Gets the id of the share that is kept in place of the discarded one.
+     *
+     * @return the id.
+     */
+    public int getKeptId() {
+        return mKeptId;
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2015 Benedict Lau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groundupworks.wings.core;
+
+/**
+ * Uploads a single {@link ShareRequest} for {@link UploadDispatcher}. Implementations may be called from several
+ * threads at once, so must be thread-safe.
+ *
+ * @author Benedict Lau
+ */
+public interface ShareUploader {
+
+    /**
+     * Uploads a share request. Called on a background thread.
+     *
+     * @param shareRequest the {@link ShareRequest} to upload.
+     * @return the {@link UploadResult}.
+     * @throws Exception if the upload failed, which is recorded as a transient failure.
+     */
+    UploadResult upload(ShareRequest shareRequest) throws Exception;
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2015 Benedict Lau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groundupworks.wings.core;
+
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Uploads the share requests of an endpoint with up to a given number of uploads in flight, recording the result of
+ * each in {@link ShareResults} as soon as it completes. Share requests are drawn from the checkout on the calling
+ * thread only as upload slots free up, so a {@link ShareCheckout} keeps streaming one page at a time.
+ *
+ * @author Benedict Lau
+ */
+public final class UploadDispatcher {
+
+    /**
+     * The maximum number of uploads in flight across all endpoints.
+     */
+    private static final int MAX_UPLOAD_THREADS = 8;
+
+    /**
+     * How long an idle upload thread is kept alive, in milliseconds.
+     */
+    private static final long UPLOAD_THREAD_KEEP_ALIVE = 30000L;
+
+    /**
+     * The executor shared by all endpoints to run concurrent uploads on.
+     */
+    private static final ThreadPoolExecutor sUploadExecutor = createUploadExecutor();
+
+    /**
+     * Private constructor to ensure this class cannot be instantiated.
+     */
+    private UploadDispatcher() {
+    }
+
+    //
+    // Private methods.
+    //
+
+    /**
+     * Creates the executor to run uploads on. Idle threads time out, so no thread is kept between passes.
+     *
+     * @return the {@link ThreadPoolExecutor}.
+     */
+    private static ThreadPoolExecutor createUploadExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_UPLOAD_THREADS, MAX_UPLOAD_THREADS,
+                UPLOAD_THREAD_KEEP_ALIVE, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Uploads a share request and records the result.
+     *
+     * @param shareRequest the {@link ShareRequest} to upload.
+     * @param uploader     the {@link ShareUploader}.
+     * @param shareResults the {@link ShareResults} to record the result in.
+     * @return the {@link UploadResult}.
+     */
+    private static UploadResult upload(ShareRequest shareRequest, ShareUploader uploader, ShareResults shareResults) {
+        UploadResult result = null;
+        try {
+            result = uploader.upload(shareRequest);
+        } catch (Exception e) {
+            // Safety.
+        }
+        if (result == null) {
+            result = UploadResult.transientFailure();
+        }
+
+        if (result.getType() == UploadResult.TYPE_SUCCESS) {
+            shareResults.markSuccessful(shareRequest.getId());
+        } else {
+            shareResults.markFailed(shareRequest.getId(), result.getType());
+        }
+        return result;
+    }
+
+    /**
+     * Marks the share requests that were checked out but will not be uploaded as failed, so they are retried instead
+     * of staying processing until their leases expire. A {@link ShareCheckout} only gives up the rest of its current
+     * page, without checking out another.
+     *
+     * @param shareRequests the share requests left.
+     * @param shareResults  the {@link ShareResults} to record the failures in.
+     */
+    private static void releaseRemaining(Iterator<ShareRequest> shareRequests, ShareResults shareResults) {
+        if (shareRequests instanceof ShareCheckout) {
+            for (ShareRequest shareRequest : ((ShareCheckout) shareRequests).drainPage()) {
+                shareResults.markFailed(shareRequest.getId());
+            }
+        } else {
+            while (shareRequests.hasNext()) {
+                shareResults.markFailed(shareRequests.next().getId());
+            }
+        }
+    }
+
+    //
+    // Public methods.
+    //
+
+    /**
+     * Uploads share requests with up to {@code maxConcurrentUploads} in flight. With a single upload in flight, all
+     * uploads run in order on the calling thread. After an auth failure or an interrupt no more share requests are
+     * checked out, and those already checked out but not uploaded are marked as failed. Must be called on a background
+     * thread.
+     *
+     * @param shareRequests        the share requests to upload.
+     * @param uploader             the {@link ShareUploader}.
+     * @param maxConcurrentUploads the maximum number of uploads in flight.
+     * @param shareResults         the {@link ShareResults} to record the result of each upload in.
+     * @return the {@link Summary} of the uploads.
+     * @throws InterruptedException if the calling thread is interrupted while waiting for an upload. Uploads in flight
+     *                              still record their results.
+     */
+    public static Summary dispatch(Iterator<ShareRequest> shareRequests, final ShareUploader uploader,
+                                   int maxConcurrentUploads, final ShareResults shareResults)
+            throws InterruptedException {
+        Summary summary = new Summary();
+        if (maxConcurrentUploads <= 1) {
+            while (!summary.mIsAuthFailed && shareRequests.hasNext()) {
+                summary.add(upload(shareRequests.next(), uploader, shareResults));
+            }
+            if (summary.mIsAuthFailed) {
+                releaseRemaining(shareRequests, shareResults);
+            }
+            return summary;
+        }
+
+        CompletionService<UploadResult> completionService = new ExecutorCompletionService<UploadResult>(
+                sUploadExecutor);
+        int inFlight = 0;
+        while (inFlight > 0 || (!summary.mIsAuthFailed && shareRequests.hasNext())) {
+            // Fill the free upload slots.
+            while (inFlight < maxConcurrentUploads && !summary.mIsAuthFailed && shareRequests.hasNext()) {
+                final ShareRequest shareRequest = shareRequests.next();
+                completionService.submit(new Callable<UploadResult>() {
+                    @Override
+                    public UploadResult call() {
+                        return upload(shareRequest, uploader, shareResults);
+                    }
+                });
+                inFlight++;
+            }
+
+            // Wait for the next upload to complete.
+            try {
+                summary.add(completionService.take().get());
+            } catch (ExecutionException e) {
+                // Do nothing. The upload records its own result.
+            } catch (InterruptedException e) {
+                releaseRemaining(shareRequests, shareResults);
+                throw e;
+            }
+            inFlight--;
+        }
+        if (summary.mIsAuthFailed) {
+            releaseRemaining(shareRequests, shareResults);
+        }
+        return summary;
+    }
+
+    //
+    // Public classes.
+    //
+
+    /**
+     * The summary of the uploads of a {@link #dispatch(Iterator, ShareUploader, int, ShareResults)}, from which an
+     * endpoint builds its notification.
+     */
+    public static class Summary {
+
+        /**
+         * The number of successful uploads.
+         */
+        private int mSharedCount = 0;
+
+        /**
+         * The remote id of the first successful upload that reported one.
+         */
+        private String mRemoteId = null;
+
+        /**
+         * Whether an upload failed because the endpoint is no longer authorized.
+         */
+        private boolean mIsAuthFailed = false;
+
+        /**
+         * Adds the result of an upload.
+         *
+         * @param result the {@link UploadResult}.
+         */
+        private void add(UploadResult result) {
+            if (result.getType() == UploadResult.TYPE_SUCCESS) {
+                mSharedCount++;
+                if (mRemoteId == null) {
+                    mRemoteId = result.getRemoteId();
+                }
+            } else if (result.getType() == UploadResult.TYPE_AUTH_FAILURE) {
+                mIsAuthFailed = true;
+            }
+        }
+
+        /**
+         * @return the number of successful uploads.
+         */
+        public int getSharedCount() {
+            return mSharedCount;
+        }
+
+        /**
+         * @return the remote id of the first successful upload that reported one; or null if none did.
+         */
+        public String getRemoteId() {
+            return mRemoteId;
+        }
+
+        /**
+         * @return true if an upload failed because the endpoint is no longer authorized; false otherwise.
+         */
+        public boolean isAuthFailed() {
+            return mIsAuthFailed;
+        }
+    }
+}
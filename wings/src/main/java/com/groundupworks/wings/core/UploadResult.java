@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2015 Benedict Lau
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.groundupworks.wings.core;
+
+/**
+ * The outcome of uploading a single {@link ShareRequest}, from which the core decides what happens to the share.
+ *
+ * @author Benedict Lau
+ */
+public class UploadResult {
+
+    /**
+     * The share was uploaded.
+     */
+    public static final int TYPE_SUCCESS = 0;
+
+    /**
+     * The upload failed for a reason that may go away, such as a timeout. The share is retried after a delay.
+     */
+    public static final int TYPE_TRANSIENT_FAILURE = 1;
+
+    /**
+     * The upload failed for a reason that will not go away, such as a missing file or a rejected format. The share is
+     * not retried, and is moved to the dead letters.
+     */
+    public static final int TYPE_PERMANENT_FAILURE = 2;
+
+    /**
+     * The upload failed because the endpoint is no longer authorized. The share is retried after a delay, and no more
+     * shares to the endpoint are uploaded in the same pass.
+     */
+    public static final int TYPE_AUTH_FAILURE = 3;
+
+    /**
+     * The transient failure, shared since it carries no data.
+     */
+    private static final UploadResult TRANSIENT_FAILURE = new UploadResult(TYPE_TRANSIENT_FAILURE, null);
+
+    /**
+     * The permanent failure, shared since it carries no data.
+     */
+    private static final UploadResult PERMANENT_FAILURE = new UploadResult(TYPE_PERMANENT_FAILURE, null);
+
+    /**
+     * The auth failure, shared since it carries no data.
+     */
+    private static final UploadResult AUTH_FAILURE = new UploadResult(TYPE_AUTH_FAILURE, null);
+
+    /**
+     * The type of outcome.
+     */
+    private final int mType;
+
+    /**
+     * The id of the uploaded content at the endpoint; or null if unknown or the upload failed.
+     */
+    private final String mRemoteId;
+
+    /**
+     * Private constructor. Use the static factory methods.
+     *
+     * @param type     the type of outcome.
+     * @param remoteId the id of the uploaded content at the endpoint. May be null.
+     */
+    private UploadResult(int type, String remoteId) {
+        mType = type;
+        mRemoteId = remoteId;
+    }
+
+    /**
+     * Creates the result of a successful upload.
+     *
+     * @param remoteId the id of the uploaded content at the endpoint. May be null if unknown.
+     * @return the {@link UploadResult}.
+     */
+    public static UploadResult success(String remoteId) {
+        return new UploadResult(TYPE_SUCCESS, remoteId);
+    }
+
+    /**
+     * Gets the result of an upload that failed for a reason that may go away.
+     *
+     * @return the {@link UploadResult}.
+     */
+    public static UploadResult transientFailure() {
+        return TRANSIENT_FAILURE;
+    }
+
+    /**
+     * Gets the result of an upload that failed for a reason that will not go away.
+     *
+     * @return the {@link UploadResult}.
+     */
+    public static UploadResult permanentFailure() {
+        return PERMANENT_FAILURE;
+    }
+
+    /**
+     * Gets the result of an upload that failed because the endpoint is no longer authorized.
+     *
+     * @return the {@link UploadResult}.
+     */
+    public static UploadResult authFailure() {
+        return AUTH_FAILURE;
+    }
+
+    /**
+     * @return one of {@link #TYPE_SUCCESS}, {@link #TYPE_TRANSIENT_FAILURE}, {@link #TYPE_PERMANENT_FAILURE} or
+     * {@link #TYPE_AUTH_FAILURE}.
+     */
+    public int getType() {
+        return mType;
+    }
+
+    /**
+     * @return the id of the uploaded content at the endpoint; or null if unknown or the upload failed.
+     */
+    public String getRemoteId() {
+        return mRemoteId;
+    }
+}
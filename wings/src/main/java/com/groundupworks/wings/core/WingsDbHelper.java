@@ -18,57 +18,113 @@ package com.groundupworks.wings.core;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
 
 import com.groundupworks.wings.IWingsLogger;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
 /**
- * The Wings database helper that stores {@link ShareRequest} records and manages the state of those records.
+ * The Wings database helper that stores {@link ShareRequest} records and manages the state of those records. This is
+ * the default {@link ShareQueue} implementation. A single write-ahead logging connection is opened lazily and kept for
+ * the lifetime of the helper, until {@link #close()}.
  *
  * @author Benedict Lau
  */
 @Singleton
-public class WingsDbHelper extends SQLiteOpenHelper {
+public class WingsDbHelper extends SQLiteOpenHelper implements ShareQueue {
 
     private static final String DB_NAME = "wings.db";
 
-    private static final int DB_VERSION = 1;
+    private static final int DB_VERSION = 10;
 
     private static final long ID_ERROR = -1L;
 
+    /**
+     * The destination id that version 1 records are migrated to, combined with the one bit of their destination id that
+     * version 1 kept. Reserved, so no endpoint may use 0xfffe or 0xffff as a destination id.
+     */
+    private static final int LEGACY_DESTINATION_ID = 0xfffe;
+
+    /**
+     * The lowest hash of a legacy destination, as a signed int.
+     */
+    private static final int LEGACY_DESTINATION_HASH_MIN = LEGACY_DESTINATION_ID << 16;
+
+    /**
+     * SQL query for the number of records changed by the last statement.
+     */
+    private static final String SQL_CHANGES = "SELECT changes()";
+
     //
     // SQL where clauses.
     //
 
     /**
-     * SQL where clause by id.
+     * SQL where clause by destination.
      */
-    private static final String WHERE_CLAUSE_BY_ID = ShareRequestTable.COLUMN_ID + "=?";
+    private static final String WHERE_CLAUSE_BY_DESTINATION = ShareRequestTable.COLUMN_DESTINATION + "=?";
 
     /**
-     * SQL where clause by destination.
+     * SQL where clause by endpoint id.
      */
-    private static final String WHERE_CLAUSE_BY_DESTINATION = ShareRequestTable.COLUMN_DESTINATION + "=?";
+    private static final String WHERE_CLAUSE_BY_ENDPOINT_ID = ShareRequestTable.COLUMN_ENDPOINT_ID + "=?";
 
     /**
      * SQL where clause by state.
      */
     private static final String WHERE_CLAUSE_BY_STATE = ShareRequestTable.COLUMN_STATE + "=?";
 
+    /**
+     * SQL where clause for records in a state with a lease that is expired, missing, or held by another owner.
+     */
+    private static final String WHERE_CLAUSE_BY_STATE_AND_RECLAIMABLE_LEASE = ShareRequestTable.COLUMN_STATE
+            + "=? AND (" + ShareRequestTable.COLUMN_LEASE_EXPIRES_AT + " IS NULL OR "
+            + ShareRequestTable.COLUMN_LEASE_EXPIRES_AT + "<? OR " + ShareRequestTable.COLUMN_LEASE_OWNER
+            + " IS NULL OR " + ShareRequestTable.COLUMN_LEASE_OWNER + "!=?)";
+
     /**
      * SQL where clause by destination and state.
      */
     private static final String WHERE_CLAUSE_BY_DESTINATION_AND_STATE = ShareRequestTable.COLUMN_DESTINATION
             + "=? AND " + ShareRequestTable.COLUMN_STATE + "=?";
 
+    /**
+     * SQL where clause by destination and content hash.
+     */
+    private static final String WHERE_CLAUSE_BY_DESTINATION_AND_CONTENT_HASH = ShareRequestTable.COLUMN_DESTINATION
+            + "=? AND " + ShareRequestTable.COLUMN_CONTENT_HASH + "=?";
+
+    /**
+     * SQL where clause by destination and state, for records that are due for their next attempt at a certain time.
+     */
+    private static final String WHERE_CLAUSE_BY_DESTINATION_AND_STATE_AND_DUE = WHERE_CLAUSE_BY_DESTINATION_AND_STATE
+            + " AND " + ShareRequestTable.COLUMN_NEXT_ATTEMPT_AT + "<=?";
+
+    /**
+     * SQL where clause by destination, state and priority, for records that are due for their next attempt at a
+     * certain time.
+     */
+    private static final String WHERE_CLAUSE_BY_DESTINATION_AND_STATE_AND_PRIORITY_AND_DUE =
+            WHERE_CLAUSE_BY_DESTINATION_AND_STATE + " AND " + ShareRequestTable.COLUMN_PRIORITY + "=? AND "
+                    + ShareRequestTable.COLUMN_NEXT_ATTEMPT_AT + "<=?";
+
     /**
      * SQL where clause that describes the purge policy. A query with this where clause will return all records
      * satisfying one or more of the following conditions:
@@ -82,26 +138,81 @@ public class WingsDbHelper extends SQLiteOpenHelper {
     private static final String WHERE_CLAUSE_PURGE_POLICY = ShareRequestTable.COLUMN_TIME_CREATED + "<? OR "
             + ShareRequestTable.COLUMN_STATE + "=? OR " + ShareRequestTable.COLUMN_FAILS + ">?";
 
+    /**
+     * SQL where clause for the earliest records by destination and state that failed at least a certain number of
+     * times, up to a certain number of records.
+     */
+    private static final String WHERE_CLAUSE_OLDEST_BY_DESTINATION_AND_STATE_AND_FAILS = String.format(
+            "%s IN (SELECT %s FROM %s WHERE %s=? AND %s=? AND %s>=? ORDER BY %s ASC LIMIT ?)",
+            ShareRequestTable.COLUMN_ID, ShareRequestTable.COLUMN_ID, ShareRequestTable.NAME,
+            ShareRequestTable.COLUMN_DESTINATION, ShareRequestTable.COLUMN_STATE, ShareRequestTable.COLUMN_FAILS,
+            ShareRequestTable.COLUMN_TIME_CREATED);
+
+    /**
+     * SQL where clause by id and state.
+     */
+    private static final String WHERE_CLAUSE_BY_ID_AND_STATE = ShareRequestTable.COLUMN_ID + "=? AND "
+            + ShareRequestTable.COLUMN_STATE + "=?";
+
+    /**
+     * SQL where clause for dead letters by id.
+     */
+    private static final String WHERE_CLAUSE_DEAD_LETTER_BY_ID = DeadLetterTable.COLUMN_ID + "=?";
+
     /**
      * SQL sort order by creation time of creation, from earliest to the most recent.
      */
     private static final String SORT_ORDER_TIME_CREATED = ShareRequestTable.COLUMN_TIME_CREATED + " ASC";
 
+    /**
+     * SQL sort order by file size, from the smallest to the largest, then by time of creation.
+     */
+    private static final String SORT_ORDER_FILE_SIZE = ShareRequestTable.COLUMN_FILE_SIZE + " ASC, "
+            + SORT_ORDER_TIME_CREATED;
+
+    /**
+     * SQL expression for the delay before the next attempt on a record, based on the number of times it already
+     * failed. Equivalent to {@link RetryPolicy#getShareRequestDelay(int)}.
+     */
+    private static final String SQL_RETRY_DELAY = String.format("MIN(%d, %d << MIN(%s, %d))",
+            RetryPolicy.SHARE_REQUEST_MAX_DELAY, RetryPolicy.SHARE_REQUEST_BASE_DELAY, ShareRequestTable.COLUMN_FAILS,
+            RetryPolicy.SHARE_REQUEST_MAX_DOUBLINGS);
+
     //
-    // Purge policy params.
+    // Purge policy params. Package private because they are shared by all queue implementations.
     //
 
     /**
      * Records expire after 2 days. In milliseconds.
      */
-    private static long RECORD_EXPIRY_TIME = 172800000L;
+    static final long RECORD_EXPIRY_TIME = 172800000L;
 
     /**
      * The number of times a record may fail to process, beyond which it will be purged. Too small of a number is
      * dangerous as every new record creation will trigger a retry, and the number of fails can build up quickly when
      * the device has no connectivity.
      */
-    private static int RECORD_MAX_FAILS = 500;
+    static final int RECORD_MAX_FAILS = 500;
+
+    //
+    // Lease params. Package private because they are shared by all queue implementations.
+    //
+
+    /**
+     * Checked out records are leased for 30 minutes, after which they may be reclaimed by another pass. In
+     * milliseconds.
+     */
+    static final long LEASE_DURATION = 1800000L;
+
+    //
+    // Priority params. Package private because they are shared by all queue implementations.
+    //
+
+    /**
+     * The percentage of each checkout reserved for normal priority records, so a steady stream of high priority records
+     * slows the normal lane down rather than starving it.
+     */
+    static final int NORMAL_PRIORITY_RESERVE_PERCENT = 25;
 
     /**
      * The logger for debug messages.
@@ -110,9 +221,62 @@ public class WingsDbHelper extends SQLiteOpenHelper {
     static IWingsLogger sLogger;
 
     /**
-     * The {@link Context}.
+     * The owner of the leases taken by this instance. Unique to the process, so leases held by any other owner were
+     * left behind by a previous process.
+     */
+    private final String mLeaseOwner = UUID.randomUUID().toString();
+
+    /**
+     * The accumulator that batches results into this database.
+     */
+    private final ShareResults mShareResults = new ShareResults(this);
+
+    /**
+     * The counts of records by destination hash, kept up to date by each change and reconciled with the table by
+     * {@link #reconcileCounts(SQLiteDatabase)}.
+     */
+    private final Map<Integer, QueueStats.Counts> mCounts = new HashMap<Integer, QueueStats.Counts>();
+
+    /**
+     * The records checked out by this instance, by id, so their counts can be updated when they are marked.
+     */
+    private final Map<Integer, ShareRecord> mCheckedOutRecords = new HashMap<Integer, ShareRecord>();
+
+    /**
+     * Whether {@link #mCounts} may no longer match the table, and must be reconciled before it is read.
      */
-    private Context mContext;
+    private boolean mIsCountsStale = true;
+
+    /**
+     * Whether records migrated from version 1 may still be waiting under a legacy destination. Checked on the first
+     * checkout, then only while some are left.
+     */
+    private boolean mHasLegacyShareRequests = true;
+
+    /**
+     * The database connection that the precompiled statements are compiled against.
+     */
+    private SQLiteDatabase mCompiledDatabase = null;
+
+    /**
+     * The precompiled statement to insert a new record.
+     */
+    private SQLiteStatement mInsertStatement = null;
+
+    /**
+     * The precompiled statement to mark a record as successfully processed.
+     */
+    private SQLiteStatement mMarkSuccessfulStatement = null;
+
+    /**
+     * The precompiled statement to mark a record as failed.
+     */
+    private SQLiteStatement mMarkFailedStatement = null;
+
+    /**
+     * The precompiled statement to claim a record on checkout.
+     */
+    private SQLiteStatement mClaimStatement = null;
 
     /**
      * Static initializer.
@@ -128,19 +292,79 @@ public class WingsDbHelper extends SQLiteOpenHelper {
      * @param context the {@link Context}.
      */
     @Inject
-    WingsDbHelper(Context context) {
+    public WingsDbHelper(Context context) {
         super(context, DB_NAME, null, DB_VERSION);
-        mContext = context;
+
+        // Use write-ahead logging so readers do not block on the writer.
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            setWriteAheadLoggingEnabled(true);
+        }
     }
 
     @Override
     public void onCreate(SQLiteDatabase db) {
         db.execSQL(ShareRequestTable.CREATE_SQL);
+        db.execSQL(ShareRequestTable.CREATE_INDEX_DESTINATION_STATE_PRIORITY_TIME_CREATED_SQL);
+        db.execSQL(ShareRequestTable.CREATE_INDEX_ENDPOINT_ID_SQL);
+        db.execSQL(ShareRequestTable.CREATE_INDEX_DESTINATION_STATE_PRIORITY_FILE_SIZE_SQL);
+        db.execSQL(ShareRequestTable.CREATE_UNIQUE_INDEX_DESTINATION_CONTENT_HASH_SQL);
+        db.execSQL(DeadLetterTable.CREATE_SQL);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // Do nothing.
+        // Migrate one version at a time, within the transaction of the caller.
+        if (oldVersion < 2) {
+            upgradeToVersion2(db);
+        }
+        if (oldVersion < 3) {
+            upgradeToVersion3(db);
+        }
+        if (oldVersion < 4) {
+            upgradeToVersion4(db);
+        }
+        if (oldVersion < 5) {
+            upgradeToVersion5(db);
+        }
+        if (oldVersion < 6) {
+            upgradeToVersion6(db);
+        }
+        if (oldVersion < 7) {
+            upgradeToVersion7(db);
+        }
+        if (oldVersion < 8) {
+            upgradeToVersion8(db);
+        }
+        if (oldVersion < 9) {
+            upgradeToVersion9(db);
+        }
+        if (oldVersion < 10) {
+            upgradeToVersion10(db);
+        }
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+
+        // Prior to Jelly Bean, write-ahead logging can only be enabled on an open connection.
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                && Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN && !db.isReadOnly()) {
+            db.enableWriteAheadLogging();
+        }
+    }
+
+    /**
+     * Closes the long-lived database connection. This should only be called on shutdown, since every other method
+     * reuses the same connection and would have to reopen it.
+     */
+    @Override
+    public synchronized void close() {
+        closeStatements();
+
+        super.close();
+
+        sLogger.log(WingsDbHelper.class, "close", "Database closed");
     }
 
     //
@@ -152,176 +376,192 @@ public class WingsDbHelper extends SQLiteOpenHelper {
      *
      * @param filePath    the local path to the file to share.
      * @param destination the destination of the share.
+     * @param priority    one of {@link ShareRequest#PRIORITY_NORMAL} or {@link ShareRequest#PRIORITY_HIGH}.
      * @return true if successful; false otherwise.
      */
-    public synchronized boolean createShareRequest(String filePath, Destination destination) {
+    @Override
+    public synchronized boolean createShareRequest(String filePath, Destination destination, int priority) {
         boolean isSuccessful = false;
 
-        SQLiteDatabase db = null;
         try {
-            db = getWritableDatabase();
+            getCompiledDatabase();
 
             // Create new record.
-            ContentValues values = new ContentValues();
-            values.put(ShareRequestTable.COLUMN_FILE_PATH, filePath);
-            values.put(ShareRequestTable.COLUMN_DESTINATION, destination.getHash());
-            values.put(ShareRequestTable.COLUMN_TIME_CREATED, System.currentTimeMillis());
-            values.put(ShareRequestTable.COLUMN_STATE, ShareRequest.STATE_PENDING);
-            values.put(ShareRequestTable.COLUMN_FAILS, 0);
-
-            isSuccessful = db.insert(ShareRequestTable.NAME, null, values) != ID_ERROR;
+            long timeCreated = System.currentTimeMillis();
+            isSuccessful = insertShareRequest(filePath, destination, timeCreated, priority, null) != ID_ERROR;
+            if (isSuccessful) {
+                getCounts(destination.getHash()).add(ShareRequest.STATE_PENDING, 1, 0,
+                        getHighPriorityCount(priority, 1), timeCreated);
+            }
 
             sLogger.log(WingsDbHelper.class, "createShareRequest", "isSuccessful=" + isSuccessful + " filePath="
-                    + filePath + " destination=" + destination.getHash());
+                    + filePath + " destination=" + destination.getHash() + " priority=" + priority);
         } catch (SQLException e) {
             // Do nothing.
-        } finally {
-            db.close();
         }
 
-        // Reset retry policy because a new record is created.
-        RetryPolicy.reset(mContext);
-
         return isSuccessful;
     }
 
     /**
-     * Checks out a list of {@link ShareRequest} that need to be processed, filtered by destination. The list is sorted
-     * by time of creation, from the earliest to most recent. This method internally changes the checked out records to
-     * a processing state, so a call to {@link #markSuccessful(int)} or {@link #markFailed(int)} is expected to be
-     * called on each of those records.
+     * Creates a new {@link ShareRequest} for each file, all to the same destination, within a single transaction.
      *
-     * @param destination the destination of the {@link ShareRequest} to checkout.
-     * @return the list of {@link ShareRequest}; may be empty.
+     * @param filePaths   the local paths to the files to share.
+     * @param destination the destination of the shares.
+     * @param priority    one of {@link ShareRequest#PRIORITY_NORMAL} or {@link ShareRequest#PRIORITY_HIGH}.
+     * @return the list of file paths for which a {@link ShareRequest} is created, in the order they were passed; may
+     * be empty.
      */
-    public synchronized List<ShareRequest> checkoutShareRequests(Destination destination) {
-        List<ShareRequest> shareRequests = new ArrayList<ShareRequest>();
+    @Override
+    public synchronized List<String> createShareRequests(Collection<String> filePaths, Destination destination,
+                                                         int priority) {
+        List<String> createdFilePaths = new ArrayList<String>();
+        long timeCreated = System.currentTimeMillis();
 
-        SQLiteDatabase db = null;
-        Cursor cursor = null;
         try {
-            db = getWritableDatabase();
-
-            // Get all records for the requested destination in the pending state.
-            cursor = db.query(ShareRequestTable.NAME, new String[]{ShareRequestTable.COLUMN_ID,
-                            ShareRequestTable.COLUMN_FILE_PATH, ShareRequestTable.COLUMN_DESTINATION},
-                    WHERE_CLAUSE_BY_DESTINATION_AND_STATE, new String[]{String.valueOf(destination.getHash()),
-                            String.valueOf(ShareRequest.STATE_PENDING)}, null, null, SORT_ORDER_TIME_CREATED
-            );
-
-            if (cursor != null && cursor.moveToFirst()) {
-                do {
-                    int id = cursor.getInt(cursor.getColumnIndex(ShareRequestTable.COLUMN_ID));
-                    String filePath = cursor.getString(cursor.getColumnIndex(ShareRequestTable.COLUMN_FILE_PATH));
-                    int destinationHash = cursor.getInt(cursor.getColumnIndex(ShareRequestTable.COLUMN_DESTINATION));
-
-                    // Update state back to processing.
-                    ContentValues values = new ContentValues();
-                    values.put(ShareRequestTable.COLUMN_STATE, ShareRequest.STATE_PROCESSING);
-
-                    if (db.update(ShareRequestTable.NAME, values, WHERE_CLAUSE_BY_ID,
-                            new String[]{String.valueOf(id)}) > 0) {
-                        // Add record to list.
-                        Destination resultDestination = Destination.from(destinationHash);
-                        shareRequests.add(new ShareRequest(id, filePath, resultDestination));
-
-                        sLogger.log(WingsDbHelper.class, "checkoutShareRequests", "id=" + id + " filePath="
-                                + filePath + " destination=" + resultDestination.getHash());
+            SQLiteDatabase db = getCompiledDatabase();
+            db.beginTransaction();
+            try {
+                // Create new records with the same creation time.
+                for (String filePath : filePaths) {
+                    if (insertShareRequest(filePath, destination, timeCreated, priority, null) != ID_ERROR) {
+                        createdFilePaths.add(filePath);
                     }
-                } while (cursor.moveToNext());
+                }
+
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
             }
+
+            getCounts(destination.getHash()).add(ShareRequest.STATE_PENDING, createdFilePaths.size(), 0,
+                    getHighPriorityCount(priority, createdFilePaths.size()), timeCreated);
+
+            sLogger.log(WingsDbHelper.class, "createShareRequests", "created=" + createdFilePaths.size() + " of "
+                    + filePaths.size() + " destination=" + destination.getHash() + " priority=" + priority);
         } catch (SQLException e) {
-            // Do nothing.
-        } finally {
-            if (cursor != null) {
-                cursor.close();
-            }
-            db.close();
+            // Nothing is created if the transaction is rolled back.
+            createdFilePaths.clear();
         }
 
-        return shareRequests;
+        return createdFilePaths;
     }
 
     /**
-     * Deletes all {@link ShareRequest} based on destination.
+     * Creates a new {@link ShareRequest} for the same file to each destination, within a single transaction. Either all
+     * or none of the {@link ShareRequest} are created.
      *
-     * @param destination the destination of the list of {@link ShareRequest} to delete.
+     * @param filePath     the local path to the file to share.
+     * @param destinations the destinations of the shares.
+     * @param priority     one of {@link ShareRequest#PRIORITY_NORMAL} or {@link ShareRequest#PRIORITY_HIGH}.
+     * @return true if successful; false otherwise.
      */
-    public synchronized void deleteShareRequests(Destination destination) {
-        SQLiteDatabase db = null;
+    @Override
+    public synchronized boolean createShareRequests(String filePath, Collection<Destination> destinations,
+                                                    int priority) {
+        boolean isSuccessful = false;
+        long timeCreated = System.currentTimeMillis();
+
         try {
-            db = getWritableDatabase();
+            SQLiteDatabase db = getCompiledDatabase();
+            db.beginTransaction();
+            try {
+                // Create new records with the same creation time, rolling back if any fails.
+                boolean isAllCreated = true;
+                for (Destination destination : destinations) {
+                    if (insertShareRequest(filePath, destination, timeCreated, priority, null) == ID_ERROR) {
+                        isAllCreated = false;
+                        break;
+                    }
+                }
+
+                if (isAllCreated) {
+                    db.setTransactionSuccessful();
+                }
+                isSuccessful = isAllCreated;
+            } finally {
+                db.endTransaction();
+            }
 
-            int recordsDeleted = db.delete(ShareRequestTable.NAME, WHERE_CLAUSE_BY_DESTINATION,
-                    new String[]{String.valueOf(destination.getHash())});
+            if (isSuccessful) {
+                for (Destination destination : destinations) {
+                    getCounts(destination.getHash()).add(ShareRequest.STATE_PENDING, 1, 0,
+                            getHighPriorityCount(priority, 1), timeCreated);
+                }
+            }
 
-            sLogger.log(WingsDbHelper.class, "deleteShareRequests", "destination=" + destination.getHash()
-                    + " rowsDeleted=" + recordsDeleted);
+            sLogger.log(WingsDbHelper.class, "createShareRequests", "isSuccessful=" + isSuccessful + " filePath="
+                    + filePath + " destinations=" + destinations.size() + " priority=" + priority);
         } catch (SQLException e) {
-            // Do nothing.
-        } finally {
-            db.close();
+            isSuccessful = false;
         }
+
+        return isSuccessful;
     }
 
     /**
-     * Marks a {@link ShareRequest} as successfully processed.
+     * Creates a new {@link ShareRequest} that is unique by content for its destination. Uniqueness is enforced by a
+     * unique index on the destination and content hash, so a duplicate fails to insert without a prior lookup.
      *
-     * @param id the id of the {@link ShareRequest}.
-     * @return true if successful; false otherwise.
+     * @param filePath    the local path to the file to share.
+     * @param destination the destination of the share.
+     * @param priority    one of {@link ShareRequest#PRIORITY_NORMAL} or {@link ShareRequest#PRIORITY_HIGH}.
+     * @param contentHash the hash of the file content, from {@link ContentHash#compute(String)}.
+     * @return the id of the new record; or -1 if a record with the same content exists or an error occurred.
      */
-    public synchronized boolean markSuccessful(int id) {
-        boolean isSuccessful = false;
+    @Override
+    public synchronized int createUniqueShareRequest(String filePath, Destination destination, int priority,
+                                                     String contentHash) {
+        int id = -1;
+        if (contentHash == null) {
+            return id;
+        }
 
-        SQLiteDatabase db = null;
         try {
-            db = getWritableDatabase();
-
-            // Set state to processed.
-            ContentValues values = new ContentValues();
-            values.put(ShareRequestTable.COLUMN_STATE, ShareRequest.STATE_PROCESSED);
-
-            isSuccessful = db.update(ShareRequestTable.NAME, values, WHERE_CLAUSE_BY_ID,
-                    new String[]{String.valueOf(id)}) > 0;
+            getCompiledDatabase();
+
+            // Create new record, which fails on the unique index if the content is already shared to the destination.
+            long timeCreated = System.currentTimeMillis();
+            long rowId = insertShareRequest(filePath, destination, timeCreated, priority, contentHash);
+            if (rowId != ID_ERROR) {
+                id = (int) rowId;
+                getCounts(destination.getHash()).add(ShareRequest.STATE_PENDING, 1, 0,
+                        getHighPriorityCount(priority, 1), timeCreated);
+            }
 
-            sLogger.log(WingsDbHelper.class, "markSuccessful", "isSuccessful=" + isSuccessful + " id=" + id);
+            sLogger.log(WingsDbHelper.class, "createUniqueShareRequest", "id=" + id + " filePath=" + filePath
+                    + " destination=" + destination.getHash() + " priority=" + priority);
         } catch (SQLException e) {
             // Do nothing.
-        } finally {
-            db.close();
         }
-        return isSuccessful;
+
+        return id;
     }
 
     /**
-     * Marks a {@link ShareRequest} as failed to process.
+     * Finds the {@link ShareRequest} of a destination with the same file content, in any state, using the unique index
+     * on the destination and content hash.
      *
-     * @param id the id of the {@link ShareRequest}.
-     * @return true if successful; false otherwise.
+     * @param destination the destination of the share.
+     * @param contentHash the hash of the file content, from {@link ContentHash#compute(String)}.
+     * @return the id of the record; or -1 if none has the same content or an error occurred.
      */
-    public synchronized boolean markFailed(int id) {
-        boolean isSuccessful = false;
+    @Override
+    public synchronized int findShareRequest(Destination destination, String contentHash) {
+        int id = -1;
+        if (contentHash == null) {
+            return id;
+        }
 
-        SQLiteDatabase db = null;
         Cursor cursor = null;
         try {
-            db = getWritableDatabase();
+            SQLiteDatabase db = getWritableDatabase();
 
-            // Get number of times this record has already failed to process.
-            cursor = db.query(ShareRequestTable.NAME, new String[]{ShareRequestTable.COLUMN_FAILS},
-                    WHERE_CLAUSE_BY_ID, new String[]{String.valueOf(id)}, null, null, null);
+            cursor = db.query(ShareRequestTable.NAME, new String[]{ShareRequestTable.COLUMN_ID},
+                    WHERE_CLAUSE_BY_DESTINATION_AND_CONTENT_HASH, new String[]{String.valueOf(destination.getHash()),
+                            contentHash}, null, null, null, "1");
             if (cursor != null && cursor.moveToFirst()) {
-                int fails = cursor.getInt(cursor.getColumnIndex(ShareRequestTable.COLUMN_FAILS));
-
-                // Reset state back to pending and increment fails.
-                ContentValues values = new ContentValues();
-                values.put(ShareRequestTable.COLUMN_STATE, ShareRequest.STATE_PENDING);
-                values.put(ShareRequestTable.COLUMN_FAILS, fails + 1);
-
-                isSuccessful = db.update(ShareRequestTable.NAME, values, WHERE_CLAUSE_BY_ID,
-                        new String[]{String.valueOf(id)}) > 0;
-
-                sLogger.log(WingsDbHelper.class, "markFailed", "isSuccessful=" + isSuccessful + " id=" + id);
+                id = cursor.getInt(0);
             }
         } catch (SQLException e) {
             // Do nothing.
@@ -329,97 +569,1391 @@ public class WingsDbHelper extends SQLiteOpenHelper {
             if (cursor != null) {
                 cursor.close();
             }
-            db.close();
         }
 
-        return isSuccessful;
+        return id;
     }
 
     /**
-     * Purges the database based on the purge policy.
+     * Checks out a list of {@link ShareRequest} that need to be processed, filtered by destination. The list holds the
+     * high priority records first, then the normal priority ones, each sorted by time of creation from the earliest to
+     * most recent. This method internally changes the checked out records to
+     * a processing state, so a call to {@link #markSuccessful(int)} or {@link #markFailed(int)} is expected to be
+     * called on each of those records.
      *
-     * @return the number of records remaining after the purge; or -1 if an error occurred.
+     * @param destination the destination of the {@link ShareRequest} to checkout.
+     * @return the list of {@link ShareRequest}; may be empty.
      */
-    public synchronized int purge() {
-        int recordsRemaining = -1;
-        SQLiteDatabase db = null;
-        Cursor cursor = null;
+    @Override
+    public List<ShareRequest> checkoutShareRequests(Destination destination) {
+        return checkoutShareRequests(destination, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Checks out a bounded list of {@link ShareRequest} that need to be processed, filtered by destination. The records
+     * are read and changed to a processing state within a single transaction, so either all or none of them are checked
+     * out. Records that recently failed are skipped until they are due for their next attempt, which is delayed
+     * exponentially by the number of times each of them failed. Each checked out record is leased to this instance
+     * until it is marked, or until the lease expires and the record is reclaimed by {@link #reclaimExpiredLeases()}.
+     * Otherwise this behaves like {@link #checkoutShareRequests(Destination)}.
+     *
+     * @param destination the destination of the {@link ShareRequest} to checkout.
+     * @param maxBatch    the maximum number of {@link ShareRequest} to checkout.
+     * @return the list of {@link ShareRequest}, containing at most {@code maxBatch} records; may be empty.
+     */
+    @Override
+    public List<ShareRequest> checkoutShareRequests(Destination destination, int maxBatch) {
+        return checkoutShareRequests(destination, maxBatch, ShareCheckout.ORDER_FIFO, ShareCheckout.UNLIMITED_BYTES);
+    }
+
+    /**
+     * Checks out a bounded list of {@link ShareRequest} that need to be processed, filtered by destination, in a given
+     * order and up to a total file size. The file sizes are recorded when the records are created, so the order and
+     * the byte budget are applied without touching the files. Each priority lane is read with its own indexed query,
+     * in the given order, then the lanes are merged by {@link ShareRecord#selectFromLanes(List, List, int, long)}.
+     * Otherwise this behaves like {@link #checkoutShareRequests(Destination, int)}.
+     *
+     * @param destination the destination of the {@link ShareRequest} to checkout.
+     * @param maxBatch    the maximum number of {@link ShareRequest} to checkout.
+     * @param order       one of {@link ShareCheckout#ORDER_FIFO} or {@link ShareCheckout#ORDER_SMALLEST_FIRST}.
+     * @param maxBytes    the total file size after which no more {@link ShareRequest} are checked out.
+     * @return the list of {@link ShareRequest}, containing at most {@code maxBatch} records; may be empty.
+     */
+    @Override
+    public synchronized List<ShareRequest> checkoutShareRequests(Destination destination, int maxBatch, int order,
+                                                                 long maxBytes) {
+        List<ShareRequest> shareRequests = new ArrayList<ShareRequest>();
+        if (maxBatch <= 0 || maxBytes <= 0) {
+            return shareRequests;
+        }
+
+        List<ShareRecord> records = new ArrayList<ShareRecord>();
+        StringBuilder ids = new StringBuilder();
         try {
-            db = getWritableDatabase();
+            SQLiteDatabase db = getCompiledDatabase();
+            db.beginTransaction();
+            try {
+                if (mHasLegacyShareRequests) {
+                    adoptLegacyShareRequests(db, destination);
+                }
+
+                // Get the due records of each priority lane for the requested destination, then merge the lanes.
+                long now = System.currentTimeMillis();
+                records = ShareRecord.selectFromLanes(
+                        queryDueShareRequests(db, destination, ShareRequest.PRIORITY_HIGH, now, maxBatch, order),
+                        queryDueShareRequests(db, destination, ShareRequest.PRIORITY_NORMAL, now, maxBatch, order),
+                        maxBatch, maxBytes);
+
+                // Update state of each record to processing and take its lease.
+                long leaseExpiresAt = now + LEASE_DURATION;
+                for (ShareRecord record : records) {
+                    mClaimStatement.bindLong(1, ShareRequest.STATE_PROCESSING);
+                    mClaimStatement.bindString(2, mLeaseOwner);
+                    mClaimStatement.bindLong(3, leaseExpiresAt);
+                    mClaimStatement.bindLong(4, record.mId);
+                    mClaimStatement.execute();
+
+                    if (ids.length() > 0) {
+                        ids.append(',');
+                    }
+                    ids.append(record.mId);
+                }
 
-            // Purge records.
-            long earliestValidTime = System.currentTimeMillis() - RECORD_EXPIRY_TIME;
-            int recordsDeleted = db.delete(ShareRequestTable.NAME, WHERE_CLAUSE_PURGE_POLICY,
-                    new String[]{String.valueOf(earliestValidTime), String.valueOf(ShareRequest.STATE_PROCESSED),
-                            String.valueOf(RECORD_MAX_FAILS)}
-            );
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
 
-            // Check number of records remaining in the table.
-            cursor = db.query(ShareRequestTable.NAME, new String[]{ShareRequestTable.COLUMN_ID}, null, null, null,
-                    null, null);
-            if (cursor != null) {
-                recordsRemaining = cursor.getCount();
+            if (!records.isEmpty()) {
+                // Track the checked out records, and move them from the pending to the processing counts.
+                QueueStats.Counts counts = getCounts(destination.getHash());
+                boolean isOldestPendingClaimed = false;
+                for (ShareRecord record : records) {
+                    mCheckedOutRecords.put(record.mId, record);
+                    shareRequests.add(record.toShareRequest());
+
+                    counts.mPending--;
+                    counts.mProcessing++;
+                    counts.mHighPriorityPending -= getHighPriorityCount(record.mPriority, 1);
+                    isOldestPendingClaimed = isOldestPendingClaimed
+                            || record.mTimeCreated <= counts.mOldestPendingTime;
+                }
+
+                // Only look up the oldest pending record again if it was just checked out.
+                if (isOldestPendingClaimed && !mIsCountsStale) {
+                    counts.mOldestPendingTime = queryOldestPendingTime(db, destination);
+                }
             }
 
-            sLogger.log(WingsDbHelper.class, "purge", "recordsDeleted=" + recordsDeleted + " recordsRemaining="
-                    + recordsRemaining);
+            sLogger.log(WingsDbHelper.class, "checkoutShareRequests", "destination=" + destination.getHash()
+                    + " maxBatch=" + maxBatch + " order=" + order + " maxBytes=" + maxBytes + " ids=" + ids);
         } catch (SQLException e) {
-            // Do nothing.
-        } finally {
-            if (cursor != null) {
-                cursor.close();
-            }
-            db.close();
+            // Nothing is checked out if the transaction is rolled back.
+            shareRequests.clear();
         }
 
-        return recordsRemaining;
+        return shareRequests;
     }
 
     /**
-     * Reset all records that somehow got stuck in a processing state.
+     * Deletes all {@link ShareRequest} based on destination.
+     *
+     * @param destination the destination of the list of {@link ShareRequest} to delete.
      */
-    public synchronized void resetProcessingShareRequests() {
-        SQLiteDatabase db = null;
+    @Override
+    public synchronized void deleteShareRequests(Destination destination) {
         try {
-            db = getWritableDatabase();
+            SQLiteDatabase db = getWritableDatabase();
 
-            // Update state back to pending.
-            ContentValues values = new ContentValues();
-            values.put(ShareRequestTable.COLUMN_STATE, ShareRequest.STATE_PENDING);
+            int recordsDeleted = db.delete(ShareRequestTable.NAME, WHERE_CLAUSE_BY_DESTINATION,
+                    new String[]{String.valueOf(destination.getHash())});
 
-            int recordsUpdated = db.update(ShareRequestTable.NAME, values, WHERE_CLAUSE_BY_STATE,
-                    new String[]{String.valueOf(ShareRequest.STATE_PROCESSING)});
+            // Drop the counts and checked out records of the destination.
+            mCounts.remove(destination.getHash());
+            Iterator<ShareRecord> iterator = mCheckedOutRecords.values().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().mDestinationHash == destination.getHash()) {
+                    iterator.remove();
+                }
+            }
 
-            sLogger.log(WingsDbHelper.class, "resetProcessingShareRequests", "recordsUpdated=" + recordsUpdated);
+            sLogger.log(WingsDbHelper.class, "deleteShareRequests", "destination=" + destination.getHash()
+                    + " rowsDeleted=" + recordsDeleted);
         } catch (SQLException e) {
             // Do nothing.
-        } finally {
-            db.close();
         }
     }
 
-    //
-    // Private classes.
-    //
-
     /**
-     * Table with each record representing a share request that needs to be processed.
+     * Deletes all {@link ShareRequest} of an endpoint, regardless of destination.
+     *
+     * @param endpointId the id of the endpoint of the list of {@link ShareRequest} to delete.
      */
-    private static class ShareRequestTable {
+    @Override
+    public synchronized void deleteEndpointShareRequests(int endpointId) {
+        try {
+            SQLiteDatabase db = getWritableDatabase();
 
-        /**
-         * Table name.
-         */
-        private static final String NAME = "shares";
+            int recordsDeleted = db.delete(ShareRequestTable.NAME, WHERE_CLAUSE_BY_ENDPOINT_ID,
+                    new String[]{String.valueOf(endpointId)});
 
-        /**
-         * SQL statement to create table.
-         */
-        private static final String CREATE_SQL = String
-                .format("CREATE TABLE %s (%s INTEGER PRIMARY KEY AUTOINCREMENT, %s TEXT NOT NULL, %s INTEGER NOT NULL, %s INTEGER NOT NULL, %s INTEGER NOT NULL, %s INTEGER NOT NULL)",
+            // Drop the counts and checked out records of the endpoint.
+            Iterator<Integer> destinationHashes = mCounts.keySet().iterator();
+            while (destinationHashes.hasNext()) {
+                if (Destination.from(destinationHashes.next()).getEndpointId() == endpointId) {
+                    destinationHashes.remove();
+                }
+            }
+            Iterator<ShareRecord> iterator = mCheckedOutRecords.values().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().mEndpointId == endpointId) {
+                    iterator.remove();
+                }
+            }
+
+            sLogger.log(WingsDbHelper.class, "deleteEndpointShareRequests", "endpointId=" + endpointId
+                    + " rowsDeleted=" + recordsDeleted);
+        } catch (SQLException e) {
+            // Do nothing.
+        }
+    }
+
+    /**
+     * Deletes a {@link ShareRequest} only if it is still pending, in a single statement so a concurrent checkout either
+     * claims the record first or never sees it.
+     *
+     * @param id the id of the {@link ShareRequest}.
+     * @return true if the record is deleted; false if it is not pending, does not exist or an error occurred.
+     */
+    @Override
+    public synchronized boolean discardPendingShareRequest(int id) {
+        boolean isSuccessful = false;
+        try {
+            SQLiteDatabase db = getWritableDatabase();
+
+            isSuccessful = db.delete(ShareRequestTable.NAME, WHERE_CLAUSE_BY_ID_AND_STATE, new String[]{
+                    String.valueOf(id), String.valueOf(ShareRequest.STATE_PENDING)}) > 0;
+            if (isSuccessful) {
+                // The record may have been the oldest pending one.
+                mIsCountsStale = true;
+            }
+
+            sLogger.log(WingsDbHelper.class, "discardPendingShareRequest", "isSuccessful=" + isSuccessful + " id="
+                    + id);
+        } catch (SQLException e) {
+            // Do nothing.
+        }
+
+        return isSuccessful;
+    }
+
+    /**
+     * Drops the oldest pending {@link ShareRequest} of a destination, to make room for new ones.
+     *
+     * @param destination  the destination of the {@link ShareRequest} to drop.
+     * @param count        the maximum number of {@link ShareRequest} to drop.
+     * @param isFailedOnly true to only drop {@link ShareRequest} that failed at least once; false to drop any.
+     * @return the number of records dropped; or -1 if an error occurred.
+     */
+    @Override
+    public synchronized int dropOldestShareRequests(Destination destination, int count, boolean isFailedOnly) {
+        int recordsDropped = -1;
+        try {
+            SQLiteDatabase db = getWritableDatabase();
+
+            recordsDropped = db.delete(ShareRequestTable.NAME, WHERE_CLAUSE_OLDEST_BY_DESTINATION_AND_STATE_AND_FAILS,
+                    new String[]{String.valueOf(destination.getHash()), String.valueOf(ShareRequest.STATE_PENDING),
+                            isFailedOnly ? "1" : "0", String.valueOf(count)});
+            if (recordsDropped > 0) {
+                // The oldest pending records are gone.
+                mIsCountsStale = true;
+            }
+
+            sLogger.log(WingsDbHelper.class, "dropOldestShareRequests", "destination=" + destination.getHash()
+                    + " count=" + count + " isFailedOnly=" + isFailedOnly + " recordsDropped=" + recordsDropped);
+        } catch (SQLException e) {
+            // Do nothing.
+        }
+
+        return recordsDropped;
+    }
+
+    /**
+     * Marks a {@link ShareRequest} as successfully processed.
+     *
+     * @param id the id of the {@link ShareRequest}.
+     * @return true if successful; false otherwise.
+     */
+    @Override
+    public synchronized boolean markSuccessful(int id) {
+        boolean isSuccessful = false;
+
+        try {
+            SQLiteDatabase db = getCompiledDatabase();
+
+            // Set state to processed and release the lease.
+            isSuccessful = markSuccessful(db, id) > 0;
+
+            sLogger.log(WingsDbHelper.class, "markSuccessful", "isSuccessful=" + isSuccessful + " id=" + id);
+        } catch (SQLException e) {
+            // Do nothing.
+        }
+        return isSuccessful;
+    }
+
+    /**
+     * Marks a {@link ShareRequest} as failed to process.
+     *
+     * @param id the id of the {@link ShareRequest}.
+     * @return true if successful; false otherwise.
+     */
+    @Override
+    public synchronized boolean markFailed(int id) {
+        boolean isSuccessful = false;
+
+        try {
+            SQLiteDatabase db = getCompiledDatabase();
+
+            // Reset state back to pending, increment fails, record the time of failure, delay the next attempt and
+            // release the lease in a single statement.
+            isSuccessful = markFailed(db, id, System.currentTimeMillis(), UploadResult.TYPE_TRANSIENT_FAILURE) > 0;
+
+            sLogger.log(WingsDbHelper.class, "markFailed", "isSuccessful=" + isSuccessful + " id=" + id);
+        } catch (SQLException e) {
+            // Do nothing.
+        }
+
+        return isSuccessful;
+    }
+
+    /**
+     * Marks a list of {@link ShareRequest} as successfully processed, within a single transaction.
+     *
+     * @param ids the ids of the {@link ShareRequest}.
+     * @return the number of records updated; or -1 if an error occurred.
+     */
+    @Override
+    public int markSuccessful(int[] ids) {
+        return markResults(ids, new int[0]);
+    }
+
+    /**
+     * Marks a list of {@link ShareRequest} as failed to process, within a single transaction.
+     *
+     * @param ids the ids of the {@link ShareRequest}.
+     * @return the number of records updated; or -1 if an error occurred.
+     */
+    @Override
+    public int markFailed(int[] ids) {
+        return markResults(new int[0], ids);
+    }
+
+    /**
+     * Marks a list of {@link ShareRequest} as failed to process with a given type of failure, within a single
+     * transaction.
+     *
+     * @param ids         the ids of the {@link ShareRequest}.
+     * @param failureType the {@link UploadResult} type of the failure.
+     * @return the number of records updated; or -1 if an error occurred.
+     */
+    @Override
+    public int markFailed(int[] ids, int failureType) {
+        return markResults(new int[0], ids, failureType);
+    }
+
+    /**
+     * Marks the results of processing a list of {@link ShareRequest} within a single transaction.
+     *
+     * @param successfulIds the ids of the {@link ShareRequest} successfully processed.
+     * @param failedIds     the ids of the {@link ShareRequest} that failed to process, with a transient failure.
+     * @return the number of records updated; or -1 if an error occurred, in which case no record is updated.
+     */
+    @Override
+    public int markResults(int[] successfulIds, int[] failedIds) {
+        return markResults(successfulIds, failedIds, UploadResult.TYPE_TRANSIENT_FAILURE);
+    }
+
+    /**
+     * Marks the results of processing a list of {@link ShareRequest} within a single transaction.
+     *
+     * @param successfulIds the ids of the {@link ShareRequest} successfully processed.
+     * @param failedIds     the ids of the {@link ShareRequest} that failed to process.
+     * @param failureType   the {@link UploadResult} type of the failures.
+     * @return the number of records updated; or -1 if an error occurred, in which case no record is updated.
+     */
+    private synchronized int markResults(int[] successfulIds, int[] failedIds, int failureType) {
+        int recordsUpdated = 0;
+        if (successfulIds.length == 0 && failedIds.length == 0) {
+            return recordsUpdated;
+        }
+
+        try {
+            SQLiteDatabase db = getCompiledDatabase();
+            db.beginTransaction();
+            try {
+                // Set state to processed and release the leases.
+                for (int id : successfulIds) {
+                    recordsUpdated += markSuccessful(db, id);
+                }
+
+                // Reset state back to pending, increment fails, record the time and type of failure, delay the next
+                // attempt and release the leases.
+                long now = System.currentTimeMillis();
+                for (int id : failedIds) {
+                    recordsUpdated += markFailed(db, id, now, failureType);
+                }
+
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+
+            sLogger.log(WingsDbHelper.class, "markResults", "successful=" + successfulIds.length + " failed="
+                    + failedIds.length + " recordsUpdated=" + recordsUpdated);
+        } catch (SQLException e) {
+            // The counts already include the results that are rolled back.
+            mIsCountsStale = true;
+            recordsUpdated = -1;
+        }
+
+        return recordsUpdated;
+    }
+
+    /**
+     * Marks a list of {@link ShareRequest} as failed for good within a single transaction. Only records still
+     * processing are updated.
+     *
+     * @param ids the ids of the {@link ShareRequest}.
+     * @return the number of records updated; or -1 if an error occurred, in which case no record is updated.
+     */
+    @Override
+    public synchronized int markRejected(int[] ids) {
+        int recordsUpdated = 0;
+        if (ids.length == 0) {
+            return recordsUpdated;
+        }
+
+        try {
+            SQLiteDatabase db = getWritableDatabase();
+
+            // Reset state back to pending with more fails than the purge policy allows, and never attempt again.
+            ContentValues values = new ContentValues();
+            values.put(ShareRequestTable.COLUMN_STATE, ShareRequest.STATE_PENDING);
+            values.put(ShareRequestTable.COLUMN_FAILS, RECORD_MAX_FAILS + 1);
+            values.put(ShareRequestTable.COLUMN_LAST_FAILED_AT, System.currentTimeMillis());
+            values.put(ShareRequestTable.COLUMN_LAST_FAILURE_TYPE, UploadResult.TYPE_PERMANENT_FAILURE);
+            values.put(ShareRequestTable.COLUMN_NEXT_ATTEMPT_AT, Long.MAX_VALUE);
+            values.putNull(ShareRequestTable.COLUMN_LEASE_OWNER);
+            values.putNull(ShareRequestTable.COLUMN_LEASE_EXPIRES_AT);
+
+            db.beginTransaction();
+            try {
+                for (int id : ids) {
+                    if (db.update(ShareRequestTable.NAME, values, WHERE_CLAUSE_BY_ID_AND_STATE,
+                            new String[]{String.valueOf(id), String.valueOf(ShareRequest.STATE_PROCESSING)}) > 0) {
+                        countResult(id, false);
+                        recordsUpdated++;
+                    }
+                }
+
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+
+            sLogger.log(WingsDbHelper.class, "markRejected", "rejected=" + ids.length + " recordsUpdated="
+                    + recordsUpdated);
+        } catch (SQLException e) {
+            // The counts already include the results that are rolled back.
+            mIsCountsStale = true;
+            recordsUpdated = -1;
+        }
+
+        return recordsUpdated;
+    }
+
+    /**
+     * Gets the accumulator that batches the results of processing {@link ShareRequest} into this database.
+     *
+     * @return the {@link ShareResults}.
+     */
+    @Override
+    public ShareResults getShareResults() {
+        return mShareResults;
+    }
+
+    /**
+     * Purges the database based on the purge policy. Expired and repeatedly failed records that were never processed
+     * are moved to the dead letter table in the same transaction, so the share table only holds live records.
+     *
+     * @return the number of records remaining after the purge; or -1 if an error occurred.
+     */
+    @Override
+    public synchronized int purge() {
+        int recordsRemaining = -1;
+        try {
+            SQLiteDatabase db = getWritableDatabase();
+
+            long earliestValidTime = System.currentTimeMillis() - RECORD_EXPIRY_TIME;
+            int recordsDeadLettered;
+            int recordsDeleted;
+            db.beginTransaction();
+            try {
+                // Move the records given up on to the dead letters.
+                db.execSQL(DeadLetterTable.MOVE_SQL, new Object[]{ShareRequest.STATE_PROCESSED, earliestValidTime,
+                        RECORD_MAX_FAILS});
+                recordsDeadLettered = (int) DatabaseUtils.longForQuery(db, SQL_CHANGES, null);
+
+                // Purge records.
+                recordsDeleted = db.delete(ShareRequestTable.NAME, WHERE_CLAUSE_PURGE_POLICY,
+                        new String[]{String.valueOf(earliestValidTime), String.valueOf(ShareRequest.STATE_PROCESSED),
+                                String.valueOf(RECORD_MAX_FAILS)}
+                );
+
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+
+            // Recount the records remaining in the table.
+            recordsRemaining = reconcileCounts(db);
+
+            sLogger.log(WingsDbHelper.class, "purge", "recordsDeleted=" + recordsDeleted + " recordsDeadLettered="
+                    + recordsDeadLettered + " recordsRemaining=" + recordsRemaining);
+        } catch (SQLException e) {
+            // Do nothing.
+        }
+
+        return recordsRemaining;
+    }
+
+    /**
+     * Gets the records that the purge policy gave up on, in order of creation.
+     *
+     * @return the list of {@link DeadLetter}; may be empty.
+     */
+    @Override
+    public synchronized List<DeadLetter> getDeadLetters() {
+        List<DeadLetter> deadLetters = new ArrayList<DeadLetter>();
+
+        Cursor cursor = null;
+        try {
+            SQLiteDatabase db = getWritableDatabase();
+            cursor = db.query(DeadLetterTable.NAME, new String[]{DeadLetterTable.COLUMN_ID,
+                            DeadLetterTable.COLUMN_FILE_PATH, DeadLetterTable.COLUMN_DESTINATION,
+                            DeadLetterTable.COLUMN_TIME_CREATED, DeadLetterTable.COLUMN_FAILS,
+                            DeadLetterTable.COLUMN_LAST_FAILED_AT, DeadLetterTable.COLUMN_REASON,
+                            DeadLetterTable.COLUMN_LAST_FAILURE_TYPE}, null, null, null, null,
+                    DeadLetterTable.COLUMN_ID + " ASC");
+
+            if (cursor != null && cursor.moveToFirst()) {
+                do {
+                    deadLetters.add(new DeadLetter(cursor.getInt(0), cursor.getString(1),
+                            Destination.from(cursor.getInt(2)), cursor.getLong(3), cursor.getInt(4),
+                            cursor.getLong(5), cursor.getInt(6), cursor.getInt(7)));
+                } while (cursor.moveToNext());
+            }
+        } catch (SQLException e) {
+            // Do nothing.
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+
+        return deadLetters;
+    }
+
+    /**
+     * Counts the records that the purge policy gave up on.
+     *
+     * @return the number of dead letters; or -1 if an error occurred.
+     */
+    @Override
+    public synchronized int countDeadLetters() {
+        int deadLetterCount = -1;
+        try {
+            deadLetterCount = (int) DatabaseUtils.queryNumEntries(getWritableDatabase(), DeadLetterTable.NAME);
+        } catch (SQLException e) {
+            // Do nothing.
+        }
+        return deadLetterCount;
+    }
+
+    /**
+     * Moves dead letters back into the share table as new pending records with the same ids, within a single
+     * transaction.
+     *
+     * @param ids the ids of the {@link DeadLetter}.
+     * @return the number of records requeued; or -1 if an error occurred, in which case no record is requeued.
+     */
+    @Override
+    public synchronized int requeueDeadLetters(int[] ids) {
+        int recordsRequeued = 0;
+        if (ids.length == 0) {
+            return recordsRequeued;
+        }
+
+        SQLiteStatement requeueStatement = null;
+        try {
+            SQLiteDatabase db = getWritableDatabase();
+            db.beginTransaction();
+            try {
+                requeueStatement = db.compileStatement(DeadLetterTable.REQUEUE_SQL);
+                long timeCreated = System.currentTimeMillis();
+                for (int id : ids) {
+                    requeueStatement.bindLong(1, timeCreated);
+                    requeueStatement.bindLong(2, ShareRequest.STATE_PENDING);
+                    requeueStatement.bindLong(3, id);
+                    if (executeUpdateDelete(db, requeueStatement) > 0) {
+                        db.delete(DeadLetterTable.NAME, WHERE_CLAUSE_DEAD_LETTER_BY_ID,
+                                new String[]{String.valueOf(id)});
+                        recordsRequeued++;
+                    }
+                }
+
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+
+            if (recordsRequeued > 0) {
+                // Dead letters migrated from version 1 come back under their legacy destination.
+                mIsCountsStale = true;
+                mHasLegacyShareRequests = true;
+            }
+
+            sLogger.log(WingsDbHelper.class, "requeueDeadLetters", "ids=" + ids.length + " recordsRequeued="
+                    + recordsRequeued);
+        } catch (SQLException e) {
+            recordsRequeued = -1;
+        } finally {
+            if (requeueStatement != null) {
+                requeueStatement.close();
+            }
+        }
+
+        return recordsRequeued;
+    }
+
+    /**
+     * Deletes dead letters for good, within a single transaction.
+     *
+     * @param ids the ids of the {@link DeadLetter}.
+     * @return the number of records discarded; or -1 if an error occurred, in which case no record is discarded.
+     */
+    @Override
+    public synchronized int discardDeadLetters(int[] ids) {
+        int recordsDiscarded = 0;
+        if (ids.length == 0) {
+            return recordsDiscarded;
+        }
+
+        try {
+            SQLiteDatabase db = getWritableDatabase();
+            db.beginTransaction();
+            try {
+                for (int id : ids) {
+                    recordsDiscarded += db.delete(DeadLetterTable.NAME, WHERE_CLAUSE_DEAD_LETTER_BY_ID,
+                            new String[]{String.valueOf(id)});
+                }
+
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+
+            sLogger.log(WingsDbHelper.class, "discardDeadLetters", "ids=" + ids.length + " recordsDiscarded="
+                    + recordsDiscarded);
+        } catch (SQLException e) {
+            recordsDiscarded = -1;
+        }
+
+        return recordsDiscarded;
+    }
+
+    /**
+     * Counts the records in the table, in any state.
+     *
+     * @return the number of records; or -1 if an error occurred.
+     */
+    @Override
+    public synchronized int countShareRequests() {
+        int recordCount = -1;
+        try {
+            recordCount = (int) DatabaseUtils.queryNumEntries(getWritableDatabase(), ShareRequestTable.NAME);
+        } catch (SQLException e) {
+            // Do nothing.
+        }
+        return recordCount;
+    }
+
+    /**
+     * Gets the number of records by destination and state, and the age of the oldest pending record. Served from
+     * counts kept in memory, which are only reconciled with the table when they may have drifted.
+     *
+     * @return the {@link QueueStats}.
+     */
+    @Override
+    public synchronized QueueStats getQueueStats() {
+        reconcileStaleCounts();
+        return new QueueStats(System.currentTimeMillis(), mCounts);
+    }
+
+    /**
+     * Gets the number of records of a single destination by state, and the age of its oldest pending record. Only the
+     * counts of that destination are copied. Otherwise this behaves like {@link #getQueueStats()}.
+     *
+     * @param destination the destination.
+     * @return the {@link QueueStats}.
+     */
+    @Override
+    public synchronized QueueStats getQueueStats(Destination destination) {
+        reconcileStaleCounts();
+        QueueStats.Counts counts = mCounts.get(destination.getHash());
+        Map<Integer, QueueStats.Counts> destinationCounts = counts == null
+                ? Collections.<Integer, QueueStats.Counts>emptyMap()
+                : Collections.singletonMap(destination.getHash(), counts);
+        return new QueueStats(System.currentTimeMillis(), destinationCounts);
+    }
+
+    /**
+     * Reclaims records in a processing state whose lease has expired, or was taken by a previous process, by resetting
+     * them back to pending. Records leased by this instance that have not expired are left untouched, so a pass calling
+     * this method never interferes with another pass still processing its records.
+     *
+     * @return the number of records reclaimed; or -1 if an error occurred.
+     */
+    @Override
+    public synchronized int reclaimExpiredLeases() {
+        int recordsReclaimed = -1;
+        try {
+            SQLiteDatabase db = getWritableDatabase();
+
+            // Update state back to pending and release the leases.
+            ContentValues values = new ContentValues();
+            values.put(ShareRequestTable.COLUMN_STATE, ShareRequest.STATE_PENDING);
+            values.putNull(ShareRequestTable.COLUMN_LEASE_OWNER);
+            values.putNull(ShareRequestTable.COLUMN_LEASE_EXPIRES_AT);
+
+            recordsReclaimed = db.update(ShareRequestTable.NAME, values, WHERE_CLAUSE_BY_STATE_AND_RECLAIMABLE_LEASE,
+                    new String[]{String.valueOf(ShareRequest.STATE_PROCESSING),
+                            String.valueOf(System.currentTimeMillis()), mLeaseOwner});
+
+            if (recordsReclaimed > 0) {
+                // Records checked out by this instance may be among those reclaimed.
+                mCheckedOutRecords.clear();
+                reconcileCounts(db);
+            }
+
+            sLogger.log(WingsDbHelper.class, "reclaimExpiredLeases", "recordsReclaimed=" + recordsReclaimed);
+        } catch (SQLException e) {
+            // Do nothing.
+        }
+
+        return recordsReclaimed;
+    }
+
+    /**
+     * Reset all records that somehow got stuck in a processing state.
+     *
+     * @deprecated resets records regardless of their leases, so it is unsafe while another pass is processing. Use
+     * {@link #reclaimExpiredLeases()} instead.
+     */
+    @Deprecated
+    public synchronized void resetProcessingShareRequests() {
+        try {
+            SQLiteDatabase db = getWritableDatabase();
+
+            // Update state back to pending and release the leases.
+            ContentValues values = new ContentValues();
+            values.put(ShareRequestTable.COLUMN_STATE, ShareRequest.STATE_PENDING);
+            values.putNull(ShareRequestTable.COLUMN_LEASE_OWNER);
+            values.putNull(ShareRequestTable.COLUMN_LEASE_EXPIRES_AT);
+
+            int recordsUpdated = db.update(ShareRequestTable.NAME, values, WHERE_CLAUSE_BY_STATE,
+                    new String[]{String.valueOf(ShareRequest.STATE_PROCESSING)});
+            mCheckedOutRecords.clear();
+            mIsCountsStale = true;
+
+            sLogger.log(WingsDbHelper.class, "resetProcessingShareRequests", "recordsUpdated=" + recordsUpdated);
+        } catch (SQLException e) {
+            // Do nothing.
+        }
+    }
+
+    //
+    // Private methods.
+    //
+
+    /**
+     * Gets the writable database, compiling the precompiled statements if the connection has changed.
+     *
+     * @return the database.
+     */
+    private SQLiteDatabase getCompiledDatabase() {
+        SQLiteDatabase db = getWritableDatabase();
+        if (mCompiledDatabase != db) {
+            closeStatements();
+            mInsertStatement = db.compileStatement(ShareRequestTable.INSERT_SQL);
+            mMarkSuccessfulStatement = db.compileStatement(ShareRequestTable.MARK_SUCCESSFUL_SQL);
+            mMarkFailedStatement = db.compileStatement(ShareRequestTable.MARK_FAILED_SQL);
+            mClaimStatement = db.compileStatement(ShareRequestTable.CLAIM_SQL);
+            mCompiledDatabase = db;
+        }
+        return db;
+    }
+
+    /**
+     * Closes the precompiled statements, if compiled.
+     */
+    private void closeStatements() {
+        if (mCompiledDatabase != null) {
+            mInsertStatement.close();
+            mMarkSuccessfulStatement.close();
+            mMarkFailedStatement.close();
+            mClaimStatement.close();
+            mInsertStatement = null;
+            mMarkSuccessfulStatement = null;
+            mMarkFailedStatement = null;
+            mClaimStatement = null;
+            mCompiledDatabase = null;
+        }
+    }
+
+    /**
+     * Inserts a new record in the pending state with the precompiled statement, recording the size and modification
+     * time of the file. Must be called after {@link #getCompiledDatabase()}.
+     *
+     * @param filePath    the local path to the file to share.
+     * @param destination the destination of the share.
+     * @param timeCreated the time the record is created.
+     * @param priority    the priority.
+     * @param contentHash the hash of the file content, unique per destination; or null.
+     * @return the id of the new record; or {@link #ID_ERROR} if unsuccessful.
+     */
+    private long insertShareRequest(String filePath, Destination destination, long timeCreated, int priority,
+                                    String contentHash) {
+        if (filePath == null) {
+            return ID_ERROR;
+        }
+
+        File file = new File(filePath);
+        mInsertStatement.bindString(1, filePath);
+        mInsertStatement.bindLong(2, destination.getHash());
+        mInsertStatement.bindLong(3, destination.getEndpointId());
+        mInsertStatement.bindLong(4, timeCreated);
+        mInsertStatement.bindLong(5, ShareRequest.STATE_PENDING);
+        mInsertStatement.bindLong(6, file.length());
+        mInsertStatement.bindLong(7, file.lastModified());
+        mInsertStatement.bindLong(8, priority);
+        if (contentHash != null) {
+            mInsertStatement.bindString(9, contentHash);
+        } else {
+            mInsertStatement.bindNull(9);
+        }
+        try {
+            return mInsertStatement.executeInsert();
+        } catch (SQLException e) {
+            return ID_ERROR;
+        }
+    }
+
+    /**
+     * Queries the due records of a destination in a single priority lane, as they would be after being claimed. Must
+     * be called within the checkout transaction.
+     *
+     * @param db          the database.
+     * @param destination the destination of the records.
+     * @param priority    the priority of the lane.
+     * @param now         the current time.
+     * @param maxBatch    the maximum number of records to query.
+     * @param order       the checkout order.
+     * @return the records in the processing state, in checkout order; may be empty.
+     */
+    private List<ShareRecord> queryDueShareRequests(SQLiteDatabase db, Destination destination, int priority, long now,
+                                                    int maxBatch, int order) {
+        List<ShareRecord> records = new ArrayList<ShareRecord>();
+        Cursor cursor = null;
+        try {
+            cursor = db.query(ShareRequestTable.NAME, new String[]{ShareRequestTable.COLUMN_ID,
+                            ShareRequestTable.COLUMN_FILE_PATH, ShareRequestTable.COLUMN_TIME_CREATED,
+                            ShareRequestTable.COLUMN_FAILS, ShareRequestTable.COLUMN_FILE_SIZE},
+                    WHERE_CLAUSE_BY_DESTINATION_AND_STATE_AND_PRIORITY_AND_DUE, new String[]{
+                            String.valueOf(destination.getHash()), String.valueOf(ShareRequest.STATE_PENDING),
+                            String.valueOf(priority), String.valueOf(now)}, null, null,
+                    order == ShareCheckout.ORDER_SMALLEST_FIRST ? SORT_ORDER_FILE_SIZE : SORT_ORDER_TIME_CREATED,
+                    String.valueOf(maxBatch)
+            );
+
+            if (cursor != null && cursor.moveToFirst()) {
+                do {
+                    records.add(new ShareRecord(cursor.getInt(0), cursor.getString(1), destination.getHash(),
+                            cursor.getLong(2), cursor.getLong(4), 0L, priority, null, ShareRequest.STATE_PROCESSING,
+                            cursor.getInt(3), 0L, UploadResult.TYPE_SUCCESS, null, 0L, 0L));
+                } while (cursor.moveToNext());
+            }
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+
+        return records;
+    }
+
+    /**
+     * Marks a record as successfully processed with the precompiled statement. Must be called after
+     * {@link #getCompiledDatabase()}.
+     *
+     * @param db the database the statement is compiled against.
+     * @param id the id of the record.
+     * @return the number of records changed.
+     */
+    private int markSuccessful(SQLiteDatabase db, int id) {
+        mMarkSuccessfulStatement.bindLong(1, ShareRequest.STATE_PROCESSED);
+        mMarkSuccessfulStatement.bindLong(2, id);
+        int recordsUpdated = executeUpdateDelete(db, mMarkSuccessfulStatement);
+        if (recordsUpdated > 0) {
+            countResult(id, true);
+        }
+        return recordsUpdated;
+    }
+
+    /**
+     * Marks a record as failed with the precompiled statement. Must be called after {@link #getCompiledDatabase()}.
+     *
+     * @param db          the database the statement is compiled against.
+     * @param id          the id of the record.
+     * @param now         the time of failure.
+     * @param failureType the {@link UploadResult} type of the failure.
+     * @return the number of records changed.
+     */
+    private int markFailed(SQLiteDatabase db, int id, long now, int failureType) {
+        mMarkFailedStatement.bindLong(1, ShareRequest.STATE_PENDING);
+        mMarkFailedStatement.bindLong(2, now);
+        mMarkFailedStatement.bindLong(3, now);
+        mMarkFailedStatement.bindLong(4, failureType);
+        mMarkFailedStatement.bindLong(5, id);
+        int recordsUpdated = executeUpdateDelete(db, mMarkFailedStatement);
+        if (recordsUpdated > 0) {
+            countResult(id, false);
+        }
+        return recordsUpdated;
+    }
+
+    /**
+     * Moves the records migrated from version 1 that the destination would have matched before the upgrade over to the
+     * destination. Version 1 kept only the lowest bit of the destination id, so a record is adopted by whichever
+     * destination of the same endpoint and with the same lowest bit is linked when it is next checked out, exactly as
+     * it was uploaded before the upgrade.
+     *
+     * @param db          the database.
+     * @param destination the destination being checked out.
+     */
+    private void adoptLegacyShareRequests(SQLiteDatabase db, Destination destination) {
+        int legacyHash = new Destination(LEGACY_DESTINATION_ID | (destination.getId() & 1),
+                destination.getEndpointId()).getHash();
+        if (legacyHash != destination.getHash()) {
+            ContentValues values = new ContentValues();
+            values.put(ShareRequestTable.COLUMN_DESTINATION, destination.getHash());
+            int recordsAdopted = db.update(ShareRequestTable.NAME, values, WHERE_CLAUSE_BY_DESTINATION,
+                    new String[]{String.valueOf(legacyHash)});
+            if (recordsAdopted > 0) {
+                mIsCountsStale = true;
+                sLogger.log(WingsDbHelper.class, "adoptLegacyShareRequests", "destination=" + destination.getHash()
+                        + " recordsAdopted=" + recordsAdopted);
+            }
+        }
+
+        mHasLegacyShareRequests = DatabaseUtils.longForQuery(db, ShareRequestTable.COUNT_LEGACY_SQL,
+                new String[]{String.valueOf(LEGACY_DESTINATION_HASH_MIN)}) > 0;
+    }
+
+    /**
+     * Gets the number of new records that count as high priority.
+     *
+     * @param priority the priority of the new records.
+     * @param count    the number of new records.
+     * @return {@code count} if the priority is above normal; 0 otherwise.
+     */
+    private static int getHighPriorityCount(int priority, int count) {
+        return priority > ShareRequest.PRIORITY_NORMAL ? count : 0;
+    }
+
+    /**
+     * Gets the counts of a destination, creating them if needed.
+     *
+     * @param destinationHash the destination hash.
+     * @return the counts.
+     */
+    private QueueStats.Counts getCounts(int destinationHash) {
+        QueueStats.Counts counts = mCounts.get(destinationHash);
+        if (counts == null) {
+            counts = new QueueStats.Counts();
+            mCounts.put(destinationHash, counts);
+        }
+        return counts;
+    }
+
+    /**
+     * Moves a record checked out by this instance out of the processing counts once it is marked. If the record was
+     * not checked out by this instance, the counts are left to be reconciled.
+     *
+     * @param id           the id of the record.
+     * @param isSuccessful true if marked as processed; false if marked as failed.
+     */
+    private void countResult(int id, boolean isSuccessful) {
+        ShareRecord record = mCheckedOutRecords.remove(id);
+        if (record == null) {
+            mIsCountsStale = true;
+            return;
+        }
+
+        QueueStats.Counts counts = getCounts(record.mDestinationHash);
+        counts.mProcessing--;
+        if (isSuccessful) {
+            counts.mProcessed++;
+            if (record.mFails > 0) {
+                counts.mFailed--;
+            }
+        } else {
+            counts.mPending++;
+            counts.mOldestPendingTime = Math.min(counts.mOldestPendingTime, record.mTimeCreated);
+            counts.mHighPriorityPending += getHighPriorityCount(record.mPriority, 1);
+            if (record.mFails == 0) {
+                counts.mFailed++;
+            }
+        }
+    }
+
+    /**
+     * Gets the creation time of the oldest pending record of a destination, with an indexed lookup in each priority
+     * lane. If the lookup fails, the counts are left to be reconciled.
+     *
+     * @param db          the database.
+     * @param destination the destination.
+     * @return the creation time; or {@link Long#MAX_VALUE} if there is no pending record.
+     */
+    private long queryOldestPendingTime(SQLiteDatabase db, Destination destination) {
+        long oldestPendingTime = Long.MAX_VALUE;
+        for (int priority : new int[]{ShareRequest.PRIORITY_HIGH, ShareRequest.PRIORITY_NORMAL}) {
+            Cursor cursor = null;
+            try {
+                cursor = db.rawQuery(ShareRequestTable.OLDEST_BY_DESTINATION_AND_STATE_AND_PRIORITY_SQL,
+                        new String[]{String.valueOf(destination.getHash()),
+                                String.valueOf(ShareRequest.STATE_PENDING), String.valueOf(priority)});
+                if (cursor != null && cursor.moveToFirst() && !cursor.isNull(0)) {
+                    oldestPendingTime = Math.min(oldestPendingTime, cursor.getLong(0));
+                }
+            } catch (SQLException e) {
+                mIsCountsStale = true;
+            } finally {
+                if (cursor != null) {
+                    cursor.close();
+                }
+            }
+        }
+
+        return oldestPendingTime;
+    }
+
+    /**
+     * Rebuilds {@link #mCounts} from the table if they may have drifted. If that fails, the counts are served as they
+     * are.
+     */
+    private void reconcileStaleCounts() {
+        if (mIsCountsStale) {
+            try {
+                reconcileCounts(getWritableDatabase());
+            } catch (SQLException e) {
+                // Do nothing. Serve the counts as they are.
+            }
+        }
+    }
+
+    /**
+     * Rebuilds {@link #mCounts} from the table with a single grouped query.
+     *
+     * @param db the database.
+     * @return the number of records in the table; or -1 if an error occurred.
+     */
+    private int reconcileCounts(SQLiteDatabase db) {
+        int recordCount = -1;
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery(ShareRequestTable.COUNT_BY_DESTINATION_AND_STATE_SQL, null);
+            mCounts.clear();
+            recordCount = 0;
+            if (cursor != null && cursor.moveToFirst()) {
+                do {
+                    int count = cursor.getInt(2);
+                    getCounts(cursor.getInt(0)).add(cursor.getInt(1), count, cursor.getInt(3), cursor.getInt(4),
+                            cursor.getLong(5));
+                    recordCount += count;
+                } while (cursor.moveToNext());
+            }
+            mIsCountsStale = false;
+        } catch (SQLException e) {
+            mIsCountsStale = true;
+            recordCount = -1;
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+
+        return recordCount;
+    }
+
+    /**
+     * Upgrades the database from version 1 to 2. Adds the indexed endpoint id column and the index used by checkout.
+     * Also moves the records off the destination hashes written by version 1, which shifted the destination id by
+     * 0xffff bits, effectively 31 bits, so only the lowest bit of the destination id survived in the sign bit. The rest
+     * of the destination id cannot be recovered from the record, so each record is parked under a legacy destination
+     * that keeps that bit and the endpoint id, until {@link #adoptLegacyShareRequests(SQLiteDatabase, Destination)}
+     * hands it to the destination linked at checkout.
+     *
+     * @param db the database.
+     */
+    private static void upgradeToVersion2(SQLiteDatabase db) {
+        db.execSQL(String.format("ALTER TABLE %s ADD COLUMN %s INTEGER NOT NULL DEFAULT 0", ShareRequestTable.NAME,
+                ShareRequestTable.COLUMN_ENDPOINT_ID));
+        db.execSQL(String.format("UPDATE %s SET %s = %s & 65535, %s = ((((%d | ((%s >> 31) & 1)) << 16) | (%s & 65535))"
+                        + " - 4294967296)", ShareRequestTable.NAME, ShareRequestTable.COLUMN_ENDPOINT_ID,
+                ShareRequestTable.COLUMN_DESTINATION, ShareRequestTable.COLUMN_DESTINATION, LEGACY_DESTINATION_ID,
+                ShareRequestTable.COLUMN_DESTINATION, ShareRequestTable.COLUMN_DESTINATION));
+        db.execSQL(ShareRequestTable.CREATE_INDEX_DESTINATION_STATE_TIME_CREATED_SQL);
+        db.execSQL(ShareRequestTable.CREATE_INDEX_ENDPOINT_ID_SQL);
+    }
+
+    /**
+     * Upgrades the database from version 2 to 3. Adds the column tracking the time of the last failure.
+     *
+     * @param db the database.
+     */
+    private static void upgradeToVersion3(SQLiteDatabase db) {
+        db.execSQL(String.format("ALTER TABLE %s ADD COLUMN %s INTEGER", ShareRequestTable.NAME,
+                ShareRequestTable.COLUMN_LAST_FAILED_AT));
+    }
+
+    /**
+     * Upgrades the database from version 3 to 4. Adds the columns tracking the lease of records being processed.
+     *
+     * @param db the database.
+     */
+    private static void upgradeToVersion4(SQLiteDatabase db) {
+        db.execSQL(String.format("ALTER TABLE %s ADD COLUMN %s TEXT", ShareRequestTable.NAME,
+                ShareRequestTable.COLUMN_LEASE_OWNER));
+        db.execSQL(String.format("ALTER TABLE %s ADD COLUMN %s INTEGER", ShareRequestTable.NAME,
+                ShareRequestTable.COLUMN_LEASE_EXPIRES_AT));
+    }
+
+    /**
+     * Upgrades the database from version 4 to 5. Adds the column tracking when a record is due for its next attempt.
+     *
+     * @param db the database.
+     */
+    private static void upgradeToVersion5(SQLiteDatabase db) {
+        db.execSQL(String.format("ALTER TABLE %s ADD COLUMN %s INTEGER NOT NULL DEFAULT 0", ShareRequestTable.NAME,
+                ShareRequestTable.COLUMN_NEXT_ATTEMPT_AT));
+    }
+
+    /**
+     * Upgrades the database from version 5 to 6. Adds the table of records that the purge policy gave up on.
+     *
+     * @param db the database.
+     */
+    private static void upgradeToVersion6(SQLiteDatabase db) {
+        db.execSQL(String.format("CREATE TABLE %s (%s INTEGER PRIMARY KEY, %s TEXT NOT NULL, %s INTEGER NOT NULL, %s INTEGER NOT NULL, %s INTEGER NOT NULL, %s INTEGER NOT NULL, %s INTEGER, %s INTEGER NOT NULL)",
+                DeadLetterTable.NAME, DeadLetterTable.COLUMN_ID, DeadLetterTable.COLUMN_FILE_PATH,
+                DeadLetterTable.COLUMN_DESTINATION, DeadLetterTable.COLUMN_ENDPOINT_ID,
+                DeadLetterTable.COLUMN_TIME_CREATED, DeadLetterTable.COLUMN_FAILS,
+                DeadLetterTable.COLUMN_LAST_FAILED_AT, DeadLetterTable.COLUMN_REASON));
+    }
+
+    /**
+     * Upgrades the database from version 6 to 7. Adds the columns tracking the size and modification time of the file
+     * to both tables, and the index used to checkout records by file size. Existing records have an unknown size of 0.
+     *
+     * @param db the database.
+     */
+    private static void upgradeToVersion7(SQLiteDatabase db) {
+        for (String table : new String[]{ShareRequestTable.NAME, DeadLetterTable.NAME}) {
+            db.execSQL(String.format("ALTER TABLE %s ADD COLUMN %s INTEGER NOT NULL DEFAULT 0", table,
+                    ShareRequestTable.COLUMN_FILE_SIZE));
+            db.execSQL(String.format("ALTER TABLE %s ADD COLUMN %s INTEGER NOT NULL DEFAULT 0", table,
+                    ShareRequestTable.COLUMN_FILE_MODIFIED_AT));
+        }
+        db.execSQL(ShareRequestTable.CREATE_INDEX_DESTINATION_STATE_FILE_SIZE_SQL);
+    }
+
+    /**
+     * Upgrades the database from version 7 to 8. Adds the priority column, and replaces the checkout indexes with ones
+     * that lead with the priority, so each priority lane is read in order straight from an index. Existing records have
+     * normal priority.
+     *
+     * @param db the database.
+     */
+    private static void upgradeToVersion8(SQLiteDatabase db) {
+        db.execSQL(String.format("ALTER TABLE %s ADD COLUMN %s INTEGER NOT NULL DEFAULT %d", ShareRequestTable.NAME,
+                ShareRequestTable.COLUMN_PRIORITY, ShareRequest.PRIORITY_NORMAL));
+        db.execSQL(String.format("DROP INDEX IF EXISTS %s_%s_%s_%s", ShareRequestTable.NAME,
+                ShareRequestTable.COLUMN_DESTINATION, ShareRequestTable.COLUMN_STATE,
+                ShareRequestTable.COLUMN_TIME_CREATED));
+        db.execSQL(String.format("DROP INDEX IF EXISTS %s_%s_%s_%s", ShareRequestTable.NAME,
+                ShareRequestTable.COLUMN_DESTINATION, ShareRequestTable.COLUMN_STATE,
+                ShareRequestTable.COLUMN_FILE_SIZE));
+        db.execSQL(ShareRequestTable.CREATE_INDEX_DESTINATION_STATE_PRIORITY_TIME_CREATED_SQL);
+        db.execSQL(ShareRequestTable.CREATE_INDEX_DESTINATION_STATE_PRIORITY_FILE_SIZE_SQL);
+    }
+
+    /**
+     * Upgrades the database from version 8 to 9. Adds the content hash column and the unique index that deduplicates
+     * shares by content. Existing records have no content hash, so none of them are considered duplicates.
+     *
+     * @param db the database.
+     */
+    private static void upgradeToVersion9(SQLiteDatabase db) {
+        db.execSQL(String.format("ALTER TABLE %s ADD COLUMN %s TEXT", ShareRequestTable.NAME,
+                ShareRequestTable.COLUMN_CONTENT_HASH));
+        db.execSQL(ShareRequestTable.CREATE_UNIQUE_INDEX_DESTINATION_CONTENT_HASH_SQL);
+    }
+
+    /**
+     * Upgrades the database from version 9 to 10. Adds the type of the last failure to shares and dead letters, so the
+     * dead letters of shares rejected by the endpoint, or failing authentication, can be told apart. Existing records
+     * that failed are assumed to have failed transiently, except those already rejected, which are never attempted
+     * again. Dead letters that were rejected before the upgrade cannot be told apart, so they keep their reason.
+     *
+     * @param db the database.
+     */
+    private static void upgradeToVersion10(SQLiteDatabase db) {
+        db.execSQL(String.format("ALTER TABLE %s ADD COLUMN %s INTEGER NOT NULL DEFAULT %d", ShareRequestTable.NAME,
+                ShareRequestTable.COLUMN_LAST_FAILURE_TYPE, UploadResult.TYPE_SUCCESS));
+        db.execSQL(String.format("UPDATE %s SET %s=CASE WHEN %s=%d THEN %d ELSE %d END WHERE %s>0",
+                ShareRequestTable.NAME, ShareRequestTable.COLUMN_LAST_FAILURE_TYPE,
+                ShareRequestTable.COLUMN_NEXT_ATTEMPT_AT, Long.MAX_VALUE, UploadResult.TYPE_PERMANENT_FAILURE,
+                UploadResult.TYPE_TRANSIENT_FAILURE, ShareRequestTable.COLUMN_FAILS));
+        db.execSQL(String.format("ALTER TABLE %s ADD COLUMN %s INTEGER NOT NULL DEFAULT %d", DeadLetterTable.NAME,
+                DeadLetterTable.COLUMN_LAST_FAILURE_TYPE, UploadResult.TYPE_SUCCESS));
+        db.execSQL(String.format("UPDATE %s SET %s=%d WHERE %s>0", DeadLetterTable.NAME,
+                DeadLetterTable.COLUMN_LAST_FAILURE_TYPE, UploadResult.TYPE_TRANSIENT_FAILURE,
+                DeadLetterTable.COLUMN_FAILS));
+    }
+
+    /**
+     * Executes an update or delete statement.
+     *
+     * @param db        the database the statement is compiled against.
+     * @param statement the statement.
+     * @return the number of records changed.
+     */
+    private static int executeUpdateDelete(SQLiteDatabase db, SQLiteStatement statement) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            return statement.executeUpdateDelete();
+        }
+
+        // Prior to Honeycomb, the number of records changed must be queried separately.
+        statement.execute();
+        return (int) DatabaseUtils.longForQuery(db, SQL_CHANGES, null);
+    }
+
+    //
+    // Private classes.
+    //
+
+    /**
+     * Table with each record representing a share request that needs to be processed.
+     */
+    private static class ShareRequestTable {
+
+        /**
+         * Table name.
+         */
+        private static final String NAME = "shares";
+
+        /**
+         * SQL statement to create table.
+         */
+        private static final String CREATE_SQL = String
+                .format("CREATE TABLE %s (%s INTEGER PRIMARY KEY AUTOINCREMENT, %s TEXT NOT NULL, %s INTEGER NOT NULL, %s INTEGER NOT NULL, %s INTEGER NOT NULL, %s INTEGER NOT NULL, %s INTEGER NOT NULL DEFAULT 0, %s INTEGER, %s TEXT, %s INTEGER, %s INTEGER NOT NULL DEFAULT 0, %s INTEGER NOT NULL DEFAULT 0, %s INTEGER NOT NULL DEFAULT 0, %s INTEGER NOT NULL DEFAULT 0, %s TEXT, %s INTEGER NOT NULL DEFAULT 0)",
                         ShareRequestTable.NAME, ShareRequestTable.COLUMN_ID, ShareRequestTable.COLUMN_FILE_PATH,
                         ShareRequestTable.COLUMN_DESTINATION, ShareRequestTable.COLUMN_TIME_CREATED,
-                        ShareRequestTable.COLUMN_STATE, ShareRequestTable.COLUMN_FAILS);
+                        ShareRequestTable.COLUMN_STATE, ShareRequestTable.COLUMN_FAILS,
+                        ShareRequestTable.COLUMN_ENDPOINT_ID, ShareRequestTable.COLUMN_LAST_FAILED_AT,
+                        ShareRequestTable.COLUMN_LEASE_OWNER, ShareRequestTable.COLUMN_LEASE_EXPIRES_AT,
+                        ShareRequestTable.COLUMN_NEXT_ATTEMPT_AT, ShareRequestTable.COLUMN_FILE_SIZE,
+                        ShareRequestTable.COLUMN_FILE_MODIFIED_AT, ShareRequestTable.COLUMN_PRIORITY,
+                        ShareRequestTable.COLUMN_CONTENT_HASH, ShareRequestTable.COLUMN_LAST_FAILURE_TYPE);
+
+        /**
+         * SQL statement to insert a new record, binding the file path, destination, endpoint id, time created, state,
+         * file size, file modification time, priority and content hash.
+         */
+        private static final String INSERT_SQL = String.format(
+                "INSERT INTO %s (%s, %s, %s, %s, %s, %s, %s, %s, %s, %s) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, 0)",
+                ShareRequestTable.NAME, ShareRequestTable.COLUMN_FILE_PATH, ShareRequestTable.COLUMN_DESTINATION,
+                ShareRequestTable.COLUMN_ENDPOINT_ID, ShareRequestTable.COLUMN_TIME_CREATED,
+                ShareRequestTable.COLUMN_STATE, ShareRequestTable.COLUMN_FILE_SIZE,
+                ShareRequestTable.COLUMN_FILE_MODIFIED_AT, ShareRequestTable.COLUMN_PRIORITY,
+                ShareRequestTable.COLUMN_CONTENT_HASH, ShareRequestTable.COLUMN_FAILS);
+
+        /**
+         * SQL statement to mark a record as successfully processed and release its lease, binding the new state and
+         * the record id.
+         */
+        private static final String MARK_SUCCESSFUL_SQL = String.format(
+                "UPDATE %s SET %s=?, %s=NULL, %s=NULL WHERE %s=?", ShareRequestTable.NAME,
+                ShareRequestTable.COLUMN_STATE, ShareRequestTable.COLUMN_LEASE_OWNER,
+                ShareRequestTable.COLUMN_LEASE_EXPIRES_AT, ShareRequestTable.COLUMN_ID);
+
+        /**
+         * SQL statement to mark a record as failed, delay its next attempt and release its lease, binding the new
+         * state, the time of failure twice, the type of failure and the record id.
+         */
+        private static final String MARK_FAILED_SQL = String.format(
+                "UPDATE %s SET %s=?, %s=%s+1, %s=?, %s=?+%s, %s=?, %s=NULL, %s=NULL WHERE %s=?", ShareRequestTable.NAME,
+                ShareRequestTable.COLUMN_STATE, ShareRequestTable.COLUMN_FAILS, ShareRequestTable.COLUMN_FAILS,
+                ShareRequestTable.COLUMN_LAST_FAILED_AT, ShareRequestTable.COLUMN_NEXT_ATTEMPT_AT, SQL_RETRY_DELAY,
+                ShareRequestTable.COLUMN_LAST_FAILURE_TYPE, ShareRequestTable.COLUMN_LEASE_OWNER,
+                ShareRequestTable.COLUMN_LEASE_EXPIRES_AT, ShareRequestTable.COLUMN_ID);
+
+        /**
+         * SQL statement to claim a record on checkout, binding the new state, the lease owner, the time the lease
+         * expires and the record id.
+         */
+        private static final String CLAIM_SQL = String.format("UPDATE %s SET %s=?, %s=?, %s=? WHERE %s=?",
+                ShareRequestTable.NAME, ShareRequestTable.COLUMN_STATE, ShareRequestTable.COLUMN_LEASE_OWNER,
+                ShareRequestTable.COLUMN_LEASE_EXPIRES_AT, ShareRequestTable.COLUMN_ID);
+
+        /**
+         * SQL query for the number of records, the number of those that failed at least once, the number of those with
+         * a priority above normal and the earliest creation time, grouped by destination and state.
+         */
+        private static final String COUNT_BY_DESTINATION_AND_STATE_SQL = String.format(
+                "SELECT %s, %s, COUNT(*), SUM(%s>0), SUM(%s>%d), MIN(%s) FROM %s GROUP BY %s, %s",
+                ShareRequestTable.COLUMN_DESTINATION, ShareRequestTable.COLUMN_STATE, ShareRequestTable.COLUMN_FAILS,
+                ShareRequestTable.COLUMN_PRIORITY, ShareRequest.PRIORITY_NORMAL, ShareRequestTable.COLUMN_TIME_CREATED,
+                ShareRequestTable.NAME, ShareRequestTable.COLUMN_DESTINATION, ShareRequestTable.COLUMN_STATE);
+
+        /**
+         * SQL query for the number of records under a legacy destination, whose hashes are the negative ints from a
+         * given minimum.
+         */
+        private static final String COUNT_LEGACY_SQL = String.format("SELECT COUNT(*) FROM %s WHERE %s>=? AND %s<0",
+                ShareRequestTable.NAME, ShareRequestTable.COLUMN_DESTINATION, ShareRequestTable.COLUMN_DESTINATION);
+
+        /**
+         * SQL query for the earliest creation time of the records by destination, state and priority. Answered from
+         * the index used to checkout records in order of creation.
+         */
+        private static final String OLDEST_BY_DESTINATION_AND_STATE_AND_PRIORITY_SQL = String.format(
+                "SELECT MIN(%s) FROM %s WHERE %s=? AND %s=? AND %s=?", ShareRequestTable.COLUMN_TIME_CREATED,
+                ShareRequestTable.NAME, ShareRequestTable.COLUMN_DESTINATION, ShareRequestTable.COLUMN_STATE,
+                ShareRequestTable.COLUMN_PRIORITY);
+
+        /**
+         * SQL statement to create the index used by version 2 to 7 to checkout records by destination and state, in
+         * order of creation.
+         */
+        private static final String CREATE_INDEX_DESTINATION_STATE_TIME_CREATED_SQL = String
+                .format("CREATE INDEX %s_%s_%s_%s ON %s (%s, %s, %s)", ShareRequestTable.NAME,
+                        ShareRequestTable.COLUMN_DESTINATION, ShareRequestTable.COLUMN_STATE,
+                        ShareRequestTable.COLUMN_TIME_CREATED, ShareRequestTable.NAME,
+                        ShareRequestTable.COLUMN_DESTINATION, ShareRequestTable.COLUMN_STATE,
+                        ShareRequestTable.COLUMN_TIME_CREATED);
+
+        /**
+         * SQL statement to create the index used by version 7 to checkout records by destination and state, from the
+         * smallest file.
+         */
+        private static final String CREATE_INDEX_DESTINATION_STATE_FILE_SIZE_SQL = String
+                .format("CREATE INDEX %s_%s_%s_%s ON %s (%s, %s, %s, %s)", ShareRequestTable.NAME,
+                        ShareRequestTable.COLUMN_DESTINATION, ShareRequestTable.COLUMN_STATE,
+                        ShareRequestTable.COLUMN_FILE_SIZE, ShareRequestTable.NAME,
+                        ShareRequestTable.COLUMN_DESTINATION, ShareRequestTable.COLUMN_STATE,
+                        ShareRequestTable.COLUMN_FILE_SIZE, ShareRequestTable.COLUMN_TIME_CREATED);
+
+        /**
+         * SQL statement to create the index used to checkout records by destination, state and priority, in order of
+         * creation.
+         */
+        private static final String CREATE_INDEX_DESTINATION_STATE_PRIORITY_TIME_CREATED_SQL = String
+                .format("CREATE INDEX %s_%s_%s_%s_%s ON %s (%s, %s, %s, %s)", ShareRequestTable.NAME,
+                        ShareRequestTable.COLUMN_DESTINATION, ShareRequestTable.COLUMN_STATE,
+                        ShareRequestTable.COLUMN_PRIORITY, ShareRequestTable.COLUMN_TIME_CREATED,
+                        ShareRequestTable.NAME, ShareRequestTable.COLUMN_DESTINATION, ShareRequestTable.COLUMN_STATE,
+                        ShareRequestTable.COLUMN_PRIORITY, ShareRequestTable.COLUMN_TIME_CREATED);
+
+        /**
+         * SQL statement to create the index used to checkout records by destination, state and priority, from the
+         * smallest file.
+         */
+        private static final String CREATE_INDEX_DESTINATION_STATE_PRIORITY_FILE_SIZE_SQL = String
+                .format("CREATE INDEX %s_%s_%s_%s_%s ON %s (%s, %s, %s, %s, %s)", ShareRequestTable.NAME,
+                        ShareRequestTable.COLUMN_DESTINATION, ShareRequestTable.COLUMN_STATE,
+                        ShareRequestTable.COLUMN_PRIORITY, ShareRequestTable.COLUMN_FILE_SIZE,
+                        ShareRequestTable.NAME, ShareRequestTable.COLUMN_DESTINATION, ShareRequestTable.COLUMN_STATE,
+                        ShareRequestTable.COLUMN_PRIORITY, ShareRequestTable.COLUMN_FILE_SIZE,
+                        ShareRequestTable.COLUMN_TIME_CREATED);
+
+        /**
+         * SQL statement to create the unique index that deduplicates records by destination and content. Records
+         * without a content hash are never considered duplicates, since SQLite treats each null as distinct.
+         */
+        private static final String CREATE_UNIQUE_INDEX_DESTINATION_CONTENT_HASH_SQL = String
+                .format("CREATE UNIQUE INDEX %s_%s_%s ON %s (%s, %s)", ShareRequestTable.NAME,
+                        ShareRequestTable.COLUMN_DESTINATION, ShareRequestTable.COLUMN_CONTENT_HASH,
+                        ShareRequestTable.NAME, ShareRequestTable.COLUMN_DESTINATION,
+                        ShareRequestTable.COLUMN_CONTENT_HASH);
+
+        /**
+         * SQL statement to create the index used to delete records by endpoint.
+         */
+        private static final String CREATE_INDEX_ENDPOINT_ID_SQL = String
+                .format("CREATE INDEX %s_%s ON %s (%s)", ShareRequestTable.NAME, ShareRequestTable.COLUMN_ENDPOINT_ID,
+                        ShareRequestTable.NAME, ShareRequestTable.COLUMN_ENDPOINT_ID);
 
         //
         // Columns names.
@@ -454,5 +1988,176 @@ public class WingsDbHelper extends SQLiteOpenHelper {
          * The number of times sharing failed. Internally managed.
          */
         private static final String COLUMN_FAILS = "fails";
+
+        /**
+         * The id of the endpoint of the share. Redundant with the destination, but indexed on its own.
+         */
+        private static final String COLUMN_ENDPOINT_ID = "endpoint_id";
+
+        /**
+         * The time of the last failure to share; or null if sharing never failed. Internally managed.
+         */
+        private static final String COLUMN_LAST_FAILED_AT = "last_failed_at";
+
+        /**
+         * The owner of the lease on a record being processed; or null if not leased. Internally managed.
+         */
+        private static final String COLUMN_LEASE_OWNER = "lease_owner";
+
+        /**
+         * The time the lease on a record being processed expires; or null if not leased. Internally managed.
+         */
+        private static final String COLUMN_LEASE_EXPIRES_AT = "lease_expires_at";
+
+        /**
+         * The earliest time the next attempt to share may be made. Internally managed.
+         */
+        private static final String COLUMN_NEXT_ATTEMPT_AT = "next_attempt_at";
+
+        /**
+         * The size of the file when the record is created, in bytes; or 0 if unknown. Internally managed.
+         */
+        private static final String COLUMN_FILE_SIZE = "file_size";
+
+        /**
+         * The time the file was last modified when the record is created; or 0 if unknown. Internally managed.
+         */
+        private static final String COLUMN_FILE_MODIFIED_AT = "file_modified_at";
+
+        /**
+         * The priority of the share. Indexed, since each priority lane is checked out separately.
+         */
+        private static final String COLUMN_PRIORITY = "priority";
+
+        /**
+         * The hash of the file content, unique per destination; or null if the record is not deduplicated.
+         */
+        private static final String COLUMN_CONTENT_HASH = "content_hash";
+
+        /**
+         * The {@link UploadResult} type of the last failure to share; or {@link UploadResult#TYPE_SUCCESS} if sharing
+         * never failed. Internally managed.
+         */
+        private static final String COLUMN_LAST_FAILURE_TYPE = "last_failure_type";
+    }
+
+    /**
+     * Table with each record representing a share request that the purge policy gave up on, kept until the client
+     * requeues or discards it. Only holds what is needed to requeue the share and tell the client why it failed.
+     */
+    private static class DeadLetterTable {
+
+        /**
+         * Table name.
+         */
+        private static final String NAME = "dead_letters";
+
+        /**
+         * SQL statement to create table.
+         */
+        private static final String CREATE_SQL = String
+                .format("CREATE TABLE %s (%s INTEGER PRIMARY KEY, %s TEXT NOT NULL, %s INTEGER NOT NULL, %s INTEGER NOT NULL, %s INTEGER NOT NULL, %s INTEGER NOT NULL, %s INTEGER, %s INTEGER NOT NULL, %s INTEGER NOT NULL DEFAULT 0, %s INTEGER NOT NULL DEFAULT 0, %s INTEGER NOT NULL DEFAULT 0)",
+                        DeadLetterTable.NAME, DeadLetterTable.COLUMN_ID, DeadLetterTable.COLUMN_FILE_PATH,
+                        DeadLetterTable.COLUMN_DESTINATION, DeadLetterTable.COLUMN_ENDPOINT_ID,
+                        DeadLetterTable.COLUMN_TIME_CREATED, DeadLetterTable.COLUMN_FAILS,
+                        DeadLetterTable.COLUMN_LAST_FAILED_AT, DeadLetterTable.COLUMN_REASON,
+                        DeadLetterTable.COLUMN_FILE_SIZE, DeadLetterTable.COLUMN_FILE_MODIFIED_AT,
+                        DeadLetterTable.COLUMN_LAST_FAILURE_TYPE);
+
+        /**
+         * SQL statement to copy the share records that the purge policy gives up on along with the type of their last
+         * failure, binding the processed state, the creation time before which records expire and the maximum number
+         * of fails. The reason follows {@link DeadLetter#getReason(int, int)}.
+         */
+        private static final String MOVE_SQL = String.format(
+                "INSERT OR REPLACE INTO %s (%s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s) SELECT %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, CASE WHEN %s=%d THEN %d WHEN %s>%d THEN %d ELSE %d END FROM %s WHERE %s!=? AND (%s<? OR %s>?)",
+                DeadLetterTable.NAME, DeadLetterTable.COLUMN_ID, DeadLetterTable.COLUMN_FILE_PATH,
+                DeadLetterTable.COLUMN_DESTINATION, DeadLetterTable.COLUMN_ENDPOINT_ID,
+                DeadLetterTable.COLUMN_TIME_CREATED, DeadLetterTable.COLUMN_FAILS,
+                DeadLetterTable.COLUMN_LAST_FAILED_AT, DeadLetterTable.COLUMN_FILE_SIZE,
+                DeadLetterTable.COLUMN_FILE_MODIFIED_AT, DeadLetterTable.COLUMN_LAST_FAILURE_TYPE,
+                DeadLetterTable.COLUMN_REASON, ShareRequestTable.COLUMN_ID, ShareRequestTable.COLUMN_FILE_PATH,
+                ShareRequestTable.COLUMN_DESTINATION, ShareRequestTable.COLUMN_ENDPOINT_ID,
+                ShareRequestTable.COLUMN_TIME_CREATED, ShareRequestTable.COLUMN_FAILS,
+                ShareRequestTable.COLUMN_LAST_FAILED_AT, ShareRequestTable.COLUMN_FILE_SIZE,
+                ShareRequestTable.COLUMN_FILE_MODIFIED_AT, ShareRequestTable.COLUMN_LAST_FAILURE_TYPE,
+                ShareRequestTable.COLUMN_LAST_FAILURE_TYPE, UploadResult.TYPE_PERMANENT_FAILURE,
+                DeadLetter.REASON_REJECTED, ShareRequestTable.COLUMN_FAILS, RECORD_MAX_FAILS,
+                DeadLetter.REASON_RETRIES_EXHAUSTED, DeadLetter.REASON_EXPIRED, ShareRequestTable.NAME,
+                ShareRequestTable.COLUMN_STATE, ShareRequestTable.COLUMN_TIME_CREATED, ShareRequestTable.COLUMN_FAILS);
+
+        /**
+         * SQL statement to copy a dead letter back into the share table as a new record, binding the time created,
+         * the state and the id.
+         */
+        private static final String REQUEUE_SQL = String.format(
+                "INSERT INTO %s (%s, %s, %s, %s, %s, %s, %s, %s, %s) SELECT %s, %s, %s, %s, %s, %s, ?, ?, 0 FROM %s WHERE %s=?",
+                ShareRequestTable.NAME, ShareRequestTable.COLUMN_ID, ShareRequestTable.COLUMN_FILE_PATH,
+                ShareRequestTable.COLUMN_DESTINATION, ShareRequestTable.COLUMN_ENDPOINT_ID,
+                ShareRequestTable.COLUMN_FILE_SIZE, ShareRequestTable.COLUMN_FILE_MODIFIED_AT,
+                ShareRequestTable.COLUMN_TIME_CREATED, ShareRequestTable.COLUMN_STATE, ShareRequestTable.COLUMN_FAILS,
+                DeadLetterTable.COLUMN_ID, DeadLetterTable.COLUMN_FILE_PATH, DeadLetterTable.COLUMN_DESTINATION,
+                DeadLetterTable.COLUMN_ENDPOINT_ID, DeadLetterTable.COLUMN_FILE_SIZE,
+                DeadLetterTable.COLUMN_FILE_MODIFIED_AT, DeadLetterTable.NAME, DeadLetterTable.COLUMN_ID);
+
+        //
+        // Columns names.
+        //
+
+        /**
+         * The id of the share record, which is kept if the share is requeued.
+         */
+        private static final String COLUMN_ID = "_id";
+
+        /**
+         * The local path to the file to share.
+         */
+        private static final String COLUMN_FILE_PATH = "file_path";
+
+        /**
+         * The destination of the share.
+         */
+        private static final String COLUMN_DESTINATION = "destination";
+
+        /**
+         * The id of the endpoint of the share.
+         */
+        private static final String COLUMN_ENDPOINT_ID = "endpoint_id";
+
+        /**
+         * The time the share record was created.
+         */
+        private static final String COLUMN_TIME_CREATED = "time_created";
+
+        /**
+         * The number of times sharing failed.
+         */
+        private static final String COLUMN_FAILS = "fails";
+
+        /**
+         * The time of the last failure to share; or null if sharing never failed.
+         */
+        private static final String COLUMN_LAST_FAILED_AT = "last_failed_at";
+
+        /**
+         * The reason the share was given up on. See {@link DeadLetter#getReason()}.
+         */
+        private static final String COLUMN_REASON = "reason";
+
+        /**
+         * The size of the file when the share record was created, in bytes; or 0 if unknown.
+         */
+        private static final String COLUMN_FILE_SIZE = "file_size";
+
+        /**
+         * The time the file was last modified when the share record was created; or 0 if unknown.
+         */
+        private static final String COLUMN_FILE_MODIFIED_AT = "file_modified_at";
+
+        /**
+         * The {@link UploadResult} type of the last failure to share; or {@link UploadResult#TYPE_SUCCESS} if sharing
+         * never failed. See {@link DeadLetter#getLastFailureType()}.
+         */
+        private static final String COLUMN_LAST_FAILURE_TYPE = "last_failure_type";
     }
 }
@@ -36,6 +36,21 @@ public final class WingsInjector {
      */
     private static ObjectGraph sObjectGraph;
 
+    /**
+     * The injected storage for share requests.
+     */
+    private static ShareQueue sStorage;
+
+    /**
+     * The share queue that enforces the {@link com.groundupworks.wings.core.QueueCapacity} on the injected storage.
+     */
+    private static BoundedShareQueue sShareQueue;
+
+    /**
+     * The enqueuer for shares that need work on their file before they are enqueued.
+     */
+    private static ShareEnqueuer sShareEnqueuer;
+
     /**
      * Private constructor to ensure this class cannot be instantiated.
      */
@@ -44,12 +59,22 @@ public final class WingsInjector {
 
     /**
      * Initializer used to pass Wings dependencies via a concrete implementation of the
-     * {@link com.groundupworks.wings.IWingsModule} interface.
+     * {@link com.groundupworks.wings.IWingsModule} interface. Modules that do not provide a {@link ShareQueue} get the
+     * default {@link WingsDbHelper}.
      *
      * @param module the Dagger module implementing {@link com.groundupworks.wings.IWingsModule}.
      */
     public static final void init(IWingsModule module) {
         sObjectGraph = ObjectGraph.create(module);
+        try {
+            sStorage = sObjectGraph.get(ShareQueue.class);
+        } catch (IllegalArgumentException e) {
+            // The module was written before the storage could be replaced.
+            sStorage = sObjectGraph.get(WingsDbHelper.class);
+        }
+        sShareQueue = new BoundedShareQueue(sStorage, sObjectGraph.get(Bus.class));
+        sShareEnqueuer = new ShareEnqueuer(sObjectGraph.get(Context.class), sShareQueue,
+                sObjectGraph.get(Looper.class), sObjectGraph.get(Bus.class));
     }
 
     /**
@@ -105,11 +130,34 @@ public final class WingsInjector {
     }
 
     /**
-     * Gets the Wings database.
+     * Gets the storage for share requests, bounded by the {@link com.groundupworks.wings.core.QueueCapacity}.
+     *
+     * @return the {@link com.groundupworks.wings.core.BoundedShareQueue}.
+     */
+    public static final BoundedShareQueue getShareQueue() {
+        return sShareQueue;
+    }
+
+    /**
+     * Gets the database for storing share requests.
      *
      * @return the {@link com.groundupworks.wings.core.WingsDbHelper}.
+     * @deprecated use {@link #getShareQueue()}, which also works with storage other than the default SQLite database.
      */
+    @Deprecated
     public static final WingsDbHelper getDatabase() {
+        if (sStorage instanceof WingsDbHelper) {
+            return (WingsDbHelper) sStorage;
+        }
         return sObjectGraph.get(WingsDbHelper.class);
     }
+
+    /**
+     * Gets the enqueuer for shares that need work on their file before they are enqueued.
+     *
+     * @return the {@link com.groundupworks.wings.core.ShareEnqueuer}.
+     */
+    public static final ShareEnqueuer getShareEnqueuer() {
+        return sShareEnqueuer;
+    }
 }
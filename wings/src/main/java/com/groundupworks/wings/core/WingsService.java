@@ -22,8 +22,10 @@ import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
+import android.os.Looper;
 import android.os.PowerManager;
 import android.os.PowerManager.WakeLock;
+import android.os.SystemClock;
 import android.support.v4.app.NotificationCompat;
 
 import com.groundupworks.wings.IWingsLogger;
@@ -31,7 +33,18 @@ import com.groundupworks.wings.R;
 import com.groundupworks.wings.Wings;
 import com.groundupworks.wings.WingsEndpoint;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
 
@@ -46,6 +59,71 @@ public class WingsService extends IntentService {
 
     private static final String NAME = "com.groundupworks.wings.core.WingsService";
 
+    /**
+     * The intent extra with the hashes of the destinations that received new work. Absent for a full sweep of all
+     * endpoints.
+     */
+    private static final String EXTRA_DESTINATION_HASHES = NAME + ".DESTINATION_HASHES";
+
+    /**
+     * The maximum number of endpoints processed at the same time.
+     */
+    private static final int MAX_PARALLEL_ENDPOINTS = 3;
+
+    /**
+     * How long an idle endpoint thread is kept alive between passes, in milliseconds.
+     */
+    private static final long ENDPOINT_THREAD_KEEP_ALIVE = 30000L;
+
+    /**
+     * The executor that processes each endpoint on its own task, so a stalled upload to one endpoint does not hold up
+     * the others.
+     */
+    private static final ThreadPoolExecutor sEndpointExecutor = createEndpointExecutor();
+
+    /**
+     * The debounce window by default, in milliseconds.
+     */
+    private static final long DEFAULT_DEBOUNCE_WINDOW = 500L;
+
+    /**
+     * The lock that guards the pass state, so each trigger either starts a pass or is absorbed by a pending or running
+     * one.
+     */
+    private static final Object sPassLock = new Object();
+
+    /**
+     * How long a started pass waits before processing endpoints, so the triggers in the meantime are coalesced into it.
+     * In milliseconds.
+     */
+    private static volatile long sDebounceWindow = DEFAULT_DEBOUNCE_WINDOW;
+
+    /**
+     * Whether a pass is started but not yet running. Guarded by {@link #sPassLock}.
+     */
+    private static boolean sIsPassPending = false;
+
+    /**
+     * The time the pending pass was started, in {@link SystemClock#elapsedRealtime()} milliseconds. Guarded by
+     * {@link #sPassLock}.
+     */
+    private static long sPassStartedAt = 0L;
+
+    /**
+     * Whether a pass is running. Guarded by {@link #sPassLock}.
+     */
+    private static boolean sIsPassRunning = false;
+
+    /**
+     * Whether a full sweep of all endpoints is triggered but not yet taken by a pass. Guarded by {@link #sPassLock}.
+     */
+    private static boolean sIsFullSweepPending = false;
+
+    /**
+     * The hashes of the destinations that received new work not yet taken by a pass. Guarded by {@link #sPassLock}.
+     */
+    private static final Set<Integer> sPendingDestinationHashes = new HashSet<Integer>();
+
     /**
      * Static {@link WakeLock} to ensure device does not sleep before service starts and completes its work.
      */
@@ -64,10 +142,15 @@ public class WingsService extends IntentService {
     Context mContext;
 
     /**
-     * The Wings database.
+     * The Wings share queue.
      */
-    @Inject
-    WingsDbHelper mDatabase;
+    private final ShareQueue mShareQueue = WingsInjector.getShareQueue();
+
+    /**
+     * The ids of the endpoints to process in the current round of the pass; or null to process all endpoints. Only
+     * accessed on the service thread.
+     */
+    private Set<Integer> mTargetEndpointIds = null;
 
     /**
      * Static initializer.
@@ -99,6 +182,11 @@ public class WingsService extends IntentService {
         // Acquire lock when the service is started from a redelivered intent.
         if ((flags & START_FLAG_REDELIVERY) != 0) {
             acquireWakeLock(getApplicationContext());
+
+            // The work triggered after the intent was sent died with the process, so sweep all endpoints.
+            if (intent != null) {
+                intent.removeExtra(EXTRA_DESTINATION_HASHES);
+            }
         }
 
         super.onStartCommand(intent, flags, startId);
@@ -107,25 +195,37 @@ public class WingsService extends IntentService {
 
     @Override
     protected void onHandleIntent(Intent intent) {
+        // Wait out the debounce window, while triggers in the meantime are absorbed by this pending pass.
+        long debounceDelay;
+        synchronized (sPassLock) {
+            debounceDelay = sPassStartedAt + sDebounceWindow - SystemClock.elapsedRealtime();
+        }
+        if (debounceDelay > 0L) {
+            SystemClock.sleep(debounceDelay);
+        }
+
+        int[] destinationHashes = intent != null ? intent.getIntArrayExtra(EXTRA_DESTINATION_HASHES) : null;
+        synchronized (sPassLock) {
+            sIsPassPending = false;
+            sIsPassRunning = true;
+            mTargetEndpointIds = takePendingWork(destinationHashes);
+        }
+
         try {
-            // Reset all records that somehow got stuck in a processing state.
-            mDatabase.resetProcessingShareRequests();
-
-            // Process share requests.
-            Set<WingsEndpoint> endpoints = Wings.getEndpoints();
-            for (WingsEndpoint endpoint : endpoints) {
-                if (endpoint.isLinked()) {
-                    Set<WingsEndpoint.ShareNotification> notifications = endpoint.processShareRequests();
-                    if (notifications != null) {
-                        for (WingsEndpoint.ShareNotification notification : notifications) {
-                            sendNotification(notification);
-                        }
-                    }
-                }
-            }
+            // Reclaim records left in a processing state by a pass that did not complete.
+            mShareQueue.reclaimExpiredLeases();
+
+            // Process share requests of the targeted endpoints, then of those that received new work in the meantime.
+            boolean isEndpointFailed = false;
+            do {
+                isEndpointFailed = !processEndpoints(mTargetEndpointIds) || isEndpointFailed;
+            } while (continuePass());
+
+            // Commit the results of the pass before purging.
+            mShareQueue.getShareResults().flush();
 
             // Purge share requests.
-            if (mDatabase.purge() > 0) {
+            if (mShareQueue.purge() > 0 || isEndpointFailed) {
                 // Some share requests failed. Schedule next attempt to share.
                 scheduleRetry();
             } else {
@@ -136,6 +236,22 @@ public class WingsService extends IntentService {
             // An unexpected exception occurred. Schedule next attempt to share.
             scheduleRetry();
         } finally {
+            // Commit any results left over from an unexpected exception.
+            mShareQueue.getShareResults().flush();
+
+            // Start a new pass for work triggered after an unexpected exception ended this one.
+            boolean isPassNeeded = false;
+            synchronized (sPassLock) {
+                sIsPassRunning = false;
+                if (hasPendingWork() && !sIsPassPending) {
+                    sIsPassPending = true;
+                    isPassNeeded = true;
+                }
+            }
+            if (isPassNeeded) {
+                startPass(getApplicationContext());
+            }
+
             releaseWakeLock();
         }
     }
@@ -150,6 +266,163 @@ public class WingsService extends IntentService {
     // Private methods.
     //
 
+    /**
+     * Creates the executor to process endpoints on. Idle threads time out, so no thread is kept between passes.
+     *
+     * @return the {@link ThreadPoolExecutor}.
+     */
+    private static ThreadPoolExecutor createEndpointExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_PARALLEL_ENDPOINTS, MAX_PARALLEL_ENDPOINTS,
+                ENDPOINT_THREAD_KEEP_ALIVE, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Processes the share requests of each targeted endpoint on its own task, starting with the endpoints that have
+     * high priority shares waiting in case there are more endpoints than threads. Waits for all endpoints, then sends
+     * their notifications together.
+     *
+     * @param endpointIds the ids of the endpoints to process; or null to process all endpoints.
+     * @return true if all endpoints completed; false if any threw an exception.
+     * @throws InterruptedException if interrupted while waiting for an endpoint.
+     */
+    private boolean processEndpoints(Set<Integer> endpointIds) throws InterruptedException {
+        List<Future<Set<WingsEndpoint.ShareNotification>>> tasks =
+                new ArrayList<Future<Set<WingsEndpoint.ShareNotification>>>();
+        for (WingsEndpoint endpoint : getEndpointsByPriority()) {
+            if (endpointIds == null || endpointIds.contains(endpoint.getEndpointId())) {
+                tasks.add(sEndpointExecutor.submit(new EndpointTask(endpoint)));
+            }
+        }
+
+        boolean isCompleted = true;
+        List<WingsEndpoint.ShareNotification> notifications = new ArrayList<WingsEndpoint.ShareNotification>();
+        for (Future<Set<WingsEndpoint.ShareNotification>> task : tasks) {
+            try {
+                Set<WingsEndpoint.ShareNotification> endpointNotifications = task.get();
+                if (endpointNotifications != null) {
+                    notifications.addAll(endpointNotifications);
+                }
+            } catch (ExecutionException e) {
+                // The other endpoints are unaffected. Records left processing are reclaimed by the next pass.
+                sLogger.log(WingsService.class, "processEndpoints", "e=" + e.getCause());
+                isCompleted = false;
+            }
+        }
+        for (WingsEndpoint.ShareNotification notification : notifications) {
+            sendNotification(notification);
+        }
+
+        return isCompleted;
+    }
+
+    /**
+     * Checks whether the running pass should process endpoints again, because new work was triggered while it was
+     * processing them, and targets the endpoints that received it. Otherwise, marks the pass as no longer taking new
+     * work, so the next trigger starts a new pass.
+     *
+     * @return true to process endpoints again; false to complete the pass.
+     */
+    private boolean continuePass() {
+        synchronized (sPassLock) {
+            if (hasPendingWork()) {
+                mTargetEndpointIds = takePendingWork(new int[0]);
+                return true;
+            }
+            sIsPassRunning = false;
+            return false;
+        }
+    }
+
+    /**
+     * Checks whether there is triggered work not yet taken by a pass. Must be called while holding
+     * {@link #sPassLock}.
+     *
+     * @return true if there is pending work; false otherwise.
+     */
+    private static boolean hasPendingWork() {
+        return sIsFullSweepPending || !sPendingDestinationHashes.isEmpty();
+    }
+
+    /**
+     * Takes the pending work, merged with the work carried by an intent. Must be called while holding
+     * {@link #sPassLock}.
+     *
+     * @param destinationHashes the hashes of the destinations carried by the intent; or null for a full sweep.
+     * @return the ids of the endpoints to process; or null to process all endpoints.
+     */
+    private static Set<Integer> takePendingWork(int[] destinationHashes) {
+        Set<Integer> endpointIds = null;
+        if (destinationHashes != null && !sIsFullSweepPending) {
+            endpointIds = new HashSet<Integer>();
+            for (int destinationHash : destinationHashes) {
+                endpointIds.add(Destination.from(destinationHash).getEndpointId());
+            }
+            for (int destinationHash : sPendingDestinationHashes) {
+                endpointIds.add(Destination.from(destinationHash).getEndpointId());
+            }
+        }
+
+        sIsFullSweepPending = false;
+        sPendingDestinationHashes.clear();
+        return endpointIds;
+    }
+
+    /**
+     * Acquires the wake lock and starts the service right away, so the intent survives the process. The service waits
+     * out the debounce window itself. The intent carries the destinations that received new work so far, and the pass
+     * takes those that receive work by the end of the window from memory.
+     *
+     * @param context the {@link Context}.
+     */
+    private static void startPass(Context context) {
+        acquireWakeLock(context);
+
+        Context appContext = context.getApplicationContext();
+        Intent intent = new Intent(appContext, WingsService.class);
+        synchronized (sPassLock) {
+            sPassStartedAt = SystemClock.elapsedRealtime();
+            if (!sIsFullSweepPending) {
+                int[] destinationHashes = new int[sPendingDestinationHashes.size()];
+                int i = 0;
+                for (int destinationHash : sPendingDestinationHashes) {
+                    destinationHashes[i++] = destinationHash;
+                }
+                intent.putExtra(EXTRA_DESTINATION_HASHES, destinationHashes);
+            }
+        }
+        appContext.startService(intent);
+    }
+
+    /**
+     * Gets the endpoints in the order they should be processed. Endpoints with high priority shares pending come first,
+     * so a high priority share does not wait behind the normal priority backlog of another endpoint.
+     *
+     * @return the list of endpoints.
+     */
+    private List<WingsEndpoint> getEndpointsByPriority() {
+        QueueStats stats = mShareQueue.getQueueStats();
+        Set<Integer> priorityEndpointIds = new HashSet<Integer>();
+        for (Destination destination : stats.getDestinations()) {
+            if (stats.getHighPriorityPendingCount(destination) > 0) {
+                priorityEndpointIds.add(destination.getEndpointId());
+            }
+        }
+
+        List<WingsEndpoint> priorityEndpoints = new ArrayList<WingsEndpoint>();
+        List<WingsEndpoint> otherEndpoints = new ArrayList<WingsEndpoint>();
+        for (WingsEndpoint endpoint : Wings.getEndpoints()) {
+            if (priorityEndpointIds.contains(endpoint.getEndpointId())) {
+                priorityEndpoints.add(endpoint);
+            } else {
+                otherEndpoints.add(endpoint);
+            }
+        }
+        priorityEndpoints.addAll(otherEndpoints);
+        return priorityEndpoints;
+    }
+
     /**
      * Acquires a wake lock.
      *
@@ -251,13 +524,104 @@ public class WingsService extends IntentService {
     //
 
     /**
-     * Starts this {@link IntentService}, ensuring the device does not sleep before the service is started or during
-     * {@link #onHandleIntent(Intent)}.
+     * Starts this {@link IntentService} for a full sweep of all endpoints, ensuring the device does not sleep before
+     * the service is started or during {@link #onHandleIntent(Intent)}. Used by retry alarms. See
+     * {@link #startWakefulService(Context, Collection)}.
      *
      * @param context the {@link Context}.
      */
     public static void startWakefulService(Context context) {
-        acquireWakeLock(context);
-        context.startService(new Intent(context, WingsService.class));
+        startWakefulService(context, (Collection<Destination>) null);
+    }
+
+    /**
+     * Starts this {@link IntentService} to process only the endpoint of a destination that received new work. See
+     * {@link #startWakefulService(Context, Collection)}.
+     *
+     * @param context     the {@link Context}.
+     * @param destination the destination that received new work.
+     */
+    public static void startWakefulService(Context context, Destination destination) {
+        startWakefulService(context, Collections.singletonList(destination));
+    }
+
+    /**
+     * Starts this {@link IntentService} to process only the endpoints of destinations that received new work, ensuring
+     * the device does not sleep before the service is started or during {@link #onHandleIntent(Intent)}. Triggers are
+     * coalesced: the pass waits out the debounce window, and a trigger while a pass is pending is absorbed by it.
+     * A trigger while a pass is running makes that pass process the targeted endpoints again instead of queuing
+     * another one.
+     *
+     * @param context      the {@link Context}.
+     * @param destinations the destinations that received new work; or null for a full sweep of all endpoints.
+     */
+    public static void startWakefulService(Context context, Collection<Destination> destinations) {
+        synchronized (sPassLock) {
+            if (destinations != null) {
+                for (Destination destination : destinations) {
+                    sPendingDestinationHashes.add(destination.getHash());
+                }
+            } else {
+                sIsFullSweepPending = true;
+            }
+
+            if (sIsPassRunning || sIsPassPending) {
+                return;
+            }
+            sIsPassPending = true;
+        }
+
+        startPass(context);
+    }
+
+    /**
+     * Sets how long a started pass waits before processing endpoints, so the triggers in the meantime are coalesced
+     * into it.
+     *
+     * @param debounceWindow the debounce window in milliseconds; or 0 to process endpoints immediately.
+     * @throws IllegalArgumentException if the debounce window is negative.
+     */
+    public static void setDebounceWindow(long debounceWindow) throws IllegalArgumentException {
+        if (debounceWindow < 0L) {
+            throw new IllegalArgumentException("debounceWindow must not be negative");
+        }
+        sDebounceWindow = debounceWindow;
+    }
+
+    //
+    // Private classes.
+    //
+
+    /**
+     * A task that processes the share requests of one endpoint.
+     */
+    private static class EndpointTask implements Callable<Set<WingsEndpoint.ShareNotification>> {
+
+        /**
+         * The endpoint to process.
+         */
+        private final WingsEndpoint mEndpoint;
+
+        /**
+         * Constructor.
+         *
+         * @param endpoint the endpoint to process.
+         */
+        private EndpointTask(WingsEndpoint endpoint) {
+            mEndpoint = endpoint;
+        }
+
+        @Override
+        public Set<WingsEndpoint.ShareNotification> call() throws Exception {
+            // Endpoint SDKs may create a Handler on the calling thread, as they could on the IntentService thread.
+            if (Looper.myLooper() == null) {
+                Looper.prepare();
+            }
+
+            if (mEndpoint.isLinked()) {
+                return mEndpoint.processShareRequests();
+            }
+            return null;
+        }
     }
 }